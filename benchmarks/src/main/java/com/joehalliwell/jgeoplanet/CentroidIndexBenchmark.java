@@ -0,0 +1,102 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest neighbour queries against 100,000 random places, using the
+ * centroid index and, for comparison, by computing the distance to every
+ * centroid. Scores are per location.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CentroidIndexBenchmark {
+
+    static final int PLACES = 100000;
+    static final int SIZE = 1024;
+
+    PlaceTable table;
+    CentroidIndex index;
+    Location[] locations;
+    Location[] centroids;
+
+    @Setup
+    public void setUp() throws Exception {
+        GeoPlanet client = Fixtures.newClient();
+        Random random = new Random(42);
+        table = Fixtures.randomPlaces(client, PLACES, random);
+        index = new CentroidIndex(table);
+        centroids = new Location[PLACES];
+        for (int row = 0; row < PLACES; row++) {
+            centroids[row] = new Location(table.getLatitude(row), table.getLongitude(row));
+        }
+        locations = new Location[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            locations[i] = new Location(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180);
+        }
+        client.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int nearest() {
+        int total = 0;
+        for (Location location : locations) {
+            total += index.getNearestRow(location.latitude, location.longitude, null);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int nearestTen() {
+        int total = 0;
+        for (Location location : locations) total += index.getNearestPlaces(location, 10).size();
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int within100km() {
+        int total = 0;
+        for (Location location : locations) total += index.getPlacesWithin(location, 100).size();
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int nearestByScan() {
+        int total = 0;
+        for (Location location : locations) {
+            int nearest = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int row = 0; row < centroids.length; row++) {
+                double distance = location.distance(centroids[row]);
+                if (distance < best) {
+                    best = distance;
+                    nearest = row;
+                }
+            }
+            total += nearest;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,99 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Recorded GeoPlanet responses, and a client which is served from them
+ * so that benchmarks run offline.
+ *
+ * @author Joe Halliwell
+ */
+class Fixtures {
+
+    static final String PLACE = read("place.json");
+    static final String PLACES = read("places.json");
+    static final String PLACE_TYPES = read("placetypes.json");
+
+    static String read(String name) {
+        InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) throw new IllegalStateException("Missing fixture " + name);
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+                return out.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a client whose requests are answered from the fixtures
+     */
+    static GeoPlanet newClient() throws GeoPlanetException {
+        return new GeoPlanet("benchmark", GeoPlanet.defaultLanguage, "http://localhost/v1", new FixtureTransport());
+    }
+
+    static GeoPlanet newClient(PlaceTypeLoading placeTypeLoading) throws GeoPlanetException {
+        return new GeoPlanet("benchmark", GeoPlanet.defaultLanguage, "http://localhost/v1", new FixtureTransport(),
+                null, placeTypeLoading);
+    }
+
+    /**
+     * @return a table of random places with boxes of up to ten degrees
+     * across, bound to the client
+     */
+    static PlaceTable randomPlaces(GeoPlanet client, int count, Random random) throws Exception {
+        JSONObject place = new JSONObject(PLACE).getJSONObject("place");
+        PlaceTable table = new PlaceTable(client, count);
+        for (int i = 0; i < count; i++) {
+            double latitude = random.nextDouble() * 170 - 85;
+            double longitude = random.nextDouble() * 350 - 175;
+            double size = random.nextDouble() * random.nextDouble() * 5;
+            place.put("woeid", i + 1);
+            place.put("centroid", location(latitude, longitude));
+            place.put("boundingBox", new JSONObject()
+                    .put("northEast", location(latitude + size, longitude + size))
+                    .put("southWest", location(latitude - size, longitude - size)));
+            table.add(new Place(client, place));
+        }
+        return table;
+    }
+
+    private static JSONObject location(double latitude, double longitude) throws Exception {
+        return new JSONObject().put("latitude", latitude).put("longitude", longitude);
+    }
+
+    /**
+     * Answers place type requests with the recorded response, single place
+     * requests with the recorded place and everything else with the
+     * recorded collection.
+     */
+    static class FixtureTransport implements HttpTransport {
+
+        @Override
+        public Response get(String uri) {
+            if (uri.contains("/placetypes")) return ok(PLACE_TYPES);
+            if (uri.contains("/place/") && !uri.contains(";")) return ok(PLACE);
+            return ok(PLACES);
+        }
+
+        private static Response ok(String body) {
+            return new Response(200, "HTTP/1.1 200 OK", body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance and bounding box tests over a fixed set of random locations,
+ * one at a time and in bulk. Scores are per location, or per distance for
+ * the matrices.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+    static final int SIZE = 1024;
+    static final int MATRIX_SIZE = 256;
+
+    Location[] locations;
+    Locations bulk;
+    Locations matrixLocations;
+    double[] distances;
+    double[] matrix;
+    boolean[] results;
+    BoundingBox[] boxes;
+    Location origin;
+    BoundingBox box;
+    BoundingBox antimeridianBox;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        locations = new Location[SIZE];
+        boxes = new BoundingBox[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            double latitude = random.nextDouble() * 170 - 85;
+            double longitude = random.nextDouble() * 360 - 180;
+            locations[i] = new Location(latitude, longitude);
+            double size = random.nextDouble() * 10;
+            boxes[i] = new BoundingBox(new Location(Math.min(90, latitude + size), Math.min(180, longitude + size)),
+                    locations[i]);
+        }
+        bulk = new Locations(Arrays.asList(locations));
+        matrixLocations = new Locations(Arrays.asList(locations).subList(0, MATRIX_SIZE));
+        distances = new double[SIZE];
+        matrix = new double[MATRIX_SIZE * MATRIX_SIZE];
+        results = new boolean[SIZE];
+        origin = new Location(55.948238, -3.19253);
+        box = new BoundingBox(new Location(60, 30), new Location(35, -10));
+        // Fiji
+        antimeridianBox = new BoundingBox(new Location(-12.48, -178.2), new Location(-20.68, 177.0));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public double distance() {
+        double total = 0;
+        for (Location location : locations) total += origin.distance(location);
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public double[] distanceBulk() {
+        bulk.distances(origin, distances);
+        return distances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MATRIX_SIZE * MATRIX_SIZE)
+    public double distanceMatrix() {
+        double total = 0;
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            for (int j = 0; j < MATRIX_SIZE; j++) total += locations[i].distance(locations[j]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MATRIX_SIZE * MATRIX_SIZE)
+    public double[] distanceMatrixBulk() {
+        matrixLocations.distances(matrixLocations, matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int containsLocation() {
+        int count = 0;
+        for (Location location : locations) {
+            if (box.contains(location)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int containsLocationAntimeridian() {
+        int count = 0;
+        for (Location location : locations) {
+            if (antimeridianBox.contains(location)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int containsLocationBulk() {
+        return box.contains(bulk, results);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int containsLocationAntimeridianBulk() {
+        return antimeridianBox.contains(bulk, results);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int containsBox() {
+        int count = 0;
+        for (BoundingBox other : boxes) {
+            if (box.contains(other)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int intersects() {
+        int count = 0;
+        for (BoundingBox other : boxes) {
+            if (box.intersects(other)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of places from single place responses.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceBenchmark {
+
+    GeoPlanet client;
+    JSONObject json;
+
+    @Setup
+    public void setUp() throws Exception {
+        client = Fixtures.newClient();
+        json = new JSONObject(Fixtures.PLACE).getJSONObject("place");
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    /**
+     * Parse the response and construct the place, as the client does.
+     */
+    @Benchmark
+    public Place parseAndConstruct() throws JSONException, GeoPlanetException {
+        return new Place(client, new JSONObject(Fixtures.PLACE).getJSONObject("place"));
+    }
+
+    /**
+     * Construct the place from an already parsed response.
+     */
+    @Benchmark
+    public Place construct() throws GeoPlanetException {
+        return new Place(client, json);
+    }
+
+    /**
+     * A full lookup by WOE ID, less the network.
+     */
+    @Benchmark
+    public Place getPlace() throws GeoPlanetException {
+        return client.getPlace(19344);
+    }
+}
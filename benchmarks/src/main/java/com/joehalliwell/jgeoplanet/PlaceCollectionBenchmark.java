@@ -0,0 +1,80 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing of a page of 100 long form places.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceCollectionBenchmark {
+
+    GeoPlanet client;
+    PlaceCollection collection;
+
+    @Setup
+    public void setUp() throws Exception {
+        client = Fixtures.newClient();
+        collection = client.getPlace(1).getChildren();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    /**
+     * The streaming parser used by {@link PlaceCollection#get(int, int)}.
+     */
+    @Benchmark
+    public List<Place> streamingParse() throws JSONException, GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        PlaceParser.parsePlaces(client, new StringReader(Fixtures.PLACES), places::add);
+        return places;
+    }
+
+    /**
+     * Parsing the whole response into a JSON tree first, for comparison.
+     */
+    @Benchmark
+    public List<Place> treeParse() throws JSONException, GeoPlanetException {
+        JSONArray array = new JSONObject(Fixtures.PLACES).getJSONObject("places").getJSONArray("place");
+        List<Place> places = new ArrayList<Place>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            places.add(new Place(client, array.getJSONObject(i)));
+        }
+        return places;
+    }
+
+    /**
+     * A full page request, less the network.
+     */
+    @Benchmark
+    public List<Place> get() throws GeoPlanetException {
+        return collection.get(0, 100);
+    }
+}
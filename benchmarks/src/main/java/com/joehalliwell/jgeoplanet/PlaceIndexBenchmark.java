@@ -0,0 +1,87 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-place queries against 100,000 random places, using the spatial
+ * index and, for comparison, a scan of the place table. Scores are per
+ * location.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceIndexBenchmark {
+
+    static final int PLACES = 100000;
+    static final int SIZE = 1024;
+
+    PlaceTable table;
+    PlaceIndex index;
+    double[] latitudes;
+    double[] longitudes;
+
+    @Setup
+    public void setUp() throws Exception {
+        GeoPlanet client = Fixtures.newClient();
+        Random random = new Random(42);
+        table = Fixtures.randomPlaces(client, PLACES, random);
+        index = new PlaceIndex(table);
+        latitudes = new double[SIZE];
+        longitudes = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            latitudes[i] = random.nextDouble() * 170 - 85;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+        }
+        client.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int smallestContaining() {
+        int total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += index.getSmallestRowContaining(latitudes[i], longitudes[i], null);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int countContaining() {
+        final int[] count = {0};
+        for (int i = 0; i < SIZE; i++) {
+            index.forEachContaining(latitudes[i], longitudes[i], row -> count[0]++);
+        }
+        return count[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int countContainingByScan() {
+        int count = 0;
+        for (int i = 0; i < SIZE; i++) {
+            for (int row = 0; row < table.size(); row++) {
+                if (table.contains(row, latitudes[i], longitudes[i])) count++;
+            }
+        }
+        return count;
+    }
+}
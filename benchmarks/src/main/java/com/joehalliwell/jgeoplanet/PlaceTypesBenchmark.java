@@ -0,0 +1,53 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client construction, which is dominated by loading the place types,
+ * unless they come from the bundled snapshot or another client has
+ * already loaded them.
+ *
+ * @author Joe Halliwell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceTypesBenchmark {
+
+    @Benchmark
+    public GeoPlanet newClient() throws GeoPlanetException {
+        PlaceTypeRegistry.clear();
+        GeoPlanet client = Fixtures.newClient();
+        client.close();
+        return client;
+    }
+
+    @Benchmark
+    public GeoPlanet newClientFromSnapshot() throws GeoPlanetException {
+        PlaceTypeRegistry.clear();
+        GeoPlanet client = Fixtures.newClient(PlaceTypeLoading.SNAPSHOT);
+        client.getPlaceType(7);
+        client.close();
+        return client;
+    }
+
+    @Benchmark
+    public GeoPlanet newClientWithSharedPlaceTypes() throws GeoPlanetException {
+        GeoPlanet client = Fixtures.newClient();
+        client.close();
+        return client;
+    }
+}
@@ -3,6 +3,10 @@ package com.joehalliwell.jgeoplanet;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * An administrative region such as: State, Country, County, Province, District, Ward.
  * These are not the same as place types.
@@ -25,6 +29,30 @@ public class AdminRegion extends GeoPlanetResource {
         this.type = attrs.getString("type");
     }
 
+    AdminRegion(GeoPlanet client, DataInput in) throws IOException {
+        super(client);
+        this.name = in.readUTF();
+        this.type = in.readUTF();
+        String code = in.readUTF();
+        this.code = (code.equals("") ? null : code);
+    }
+
+    /**
+     * Copy a region, binding it to another client.
+     */
+    AdminRegion(GeoPlanet client, AdminRegion region) {
+        super(client);
+        this.name = region.name;
+        this.type = region.type;
+        this.code = region.code;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeUTF(type);
+        out.writeUTF(code == null ? "" : code);
+    }
+
     /**
      * Returns the name of this administrative region.
      *
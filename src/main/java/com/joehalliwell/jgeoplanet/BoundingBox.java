@@ -39,11 +39,11 @@ public class BoundingBox {
     }
 
     public Location getNorthWest() {
-        return new Location(southWest.longitude, northEast.latitude);
+        return new Location(northEast.latitude, southWest.longitude);
     }
 
     public Location getSouthEast() {
-        return new Location(northEast.longitude, southWest.latitude);
+        return new Location(southWest.latitude, northEast.longitude);
     }
 
     /**
@@ -54,18 +54,65 @@ public class BoundingBox {
      * @return true if the location is within this bounding box. False otherwise.
      */
     public boolean contains(Location location) {
-        if (location.latitude > northEast.latitude) return false;
-        if (location.latitude < southWest.latitude) return false;
-        if (northEast.longitude < 0 && southWest.longitude >= 0 && southWest.longitude > northEast.longitude) {
-            if (location.longitude < 0 && location.longitude > northEast.longitude) return false;
-            if (location.longitude >= 0 && location.longitude < southWest.longitude) return false;
+        return contains(northEast.latitude, northEast.longitude, southWest.latitude, southWest.longitude,
+                location.latitude, location.longitude);
+    }
+
+    /**
+     * Determine whether a point is contained within a bounding box given by
+     * its edges, without constructing either.
+     */
+    static boolean contains(double north, double east, double south, double west,
+                            double latitude, double longitude) {
+        if (latitude > north) return false;
+        if (latitude < south) return false;
+        if (crossesAntimeridian(east, west)) {
+            // Crosses the antimeridian
+            if (longitude < 0 && longitude > east) return false;
+            if (longitude >= 0 && longitude < west) return false;
         } else {
-            if (location.longitude > northEast.longitude) return false;
-            if (location.longitude < southWest.longitude) return false;
+            if (longitude > east) return false;
+            if (longitude < west) return false;
         }
         return true;
     }
 
+    static boolean crossesAntimeridian(double east, double west) {
+        return east < 0 && west >= 0 && west > east;
+    }
+
+    /**
+     * Determine which of some locations are contained within this bounding
+     * box. Equivalent to calling {@link #contains(Location)} for each, but
+     * much faster.
+     *
+     * @param locations the locations to test
+     * @param results   receives true for each location within this bounding box, and false otherwise
+     * @return the number of locations within this bounding box
+     * @throws IllegalArgumentException if the results array is too small
+     */
+    public int contains(Locations locations, boolean[] results) {
+        int n = locations.size();
+        if (results.length < n) throw new IllegalArgumentException("results must have length >= " + n);
+        double north = northEast.latitude;
+        double south = southWest.latitude;
+        double east = northEast.longitude;
+        double west = southWest.longitude;
+        boolean crosses = crossesAntimeridian(east, west);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            double latitude = locations.getLatitude(i);
+            double longitude = locations.getLongitude(i);
+            boolean inLongitude = crosses
+                    ? longitude >= west || longitude <= east
+                    : longitude >= west && longitude <= east;
+            boolean result = inLongitude && latitude >= south && latitude <= north;
+            results[i] = result;
+            if (result) count++;
+        }
+        return count;
+    }
+
     /**
      * Determine whether the specified bounding box is completely contained
      * within this one.
@@ -77,11 +124,26 @@ public class BoundingBox {
         return (contains(other.southWest) && contains(other.northEast));
     }
 
+    /**
+     * Determine whether the specified bounding box overlaps this one.
+     *
+     * @param other the bounding box to test
+     * @return true if the bounding boxes share at least one point. False otherwise.
+     */
     public boolean intersects(BoundingBox other) {
-        return (contains(other.northEast)
-                || contains(other.southWest)
-                || contains(other.getNorthWest())
-                || contains(other.getSouthEast()));
+        if (other.southWest.latitude > northEast.latitude) return false;
+        if (other.northEast.latitude < southWest.latitude) return false;
+        double east = northEast.longitude;
+        double west = southWest.longitude;
+        double otherEast = other.northEast.longitude;
+        double otherWest = other.southWest.longitude;
+        boolean crosses = crossesAntimeridian(east, west);
+        boolean otherCrosses = crossesAntimeridian(otherEast, otherWest);
+        // Both contain the antimeridian
+        if (crosses && otherCrosses) return true;
+        if (crosses) return otherWest <= east || otherEast >= west;
+        if (otherCrosses) return west <= otherEast || east >= otherWest;
+        return otherWest <= east && otherEast >= west;
     }
 
     @Override
@@ -0,0 +1,306 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache for another reverse geocoder, keyed by the
+ * <a href="http://en.wikipedia.org/wiki/Geohash">geohash</a> cell
+ * containing each location, so that nearby locations share lookups.
+ * <p>
+ * Each cell holds the last few places found for locations within it. A
+ * cached place is only used for a location inside its bounding box, and
+ * the smallest such place is preferred, so a cell straddling a boundary
+ * caches the places on either side rather than returning the wrong one.
+ * Places without bounding boxes, i.e. in short form, are not cached.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * client.setReverseGeocoder(new CachingReverseGeocoder(new RemoteReverseGeocoder(), 6, 100000));
+ * </pre>
+ * </p>
+ * <p>
+ * Cells of precision 6 are around a kilometre across, 7 around 150
+ * metres. Coarser cells hit more often but, since a cached place
+ * containing a location is used, may return a larger place than the
+ * underlying geocoder would have, e.g. a town rather than one of its
+ * suburbs not yet cached. The cache is least-recently-used and thread-safe.
+ * </p>
+ * <p>
+ * Cells are held separately for each service and language, so the cache
+ * may be shared between clients. A cached place is returned bound to the
+ * client which looked it up, rather than the one which first found it.
+ * By default, locations for which no place was found are not cached; see
+ * {@link #setNotFoundTimeToLive(long, TimeUnit)}.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class CachingReverseGeocoder implements ReverseGeocoder {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final int MAX_PRECISION = 12;
+    // Places held per cell, most recently found first
+    private static final int PLACES_PER_CELL = 4;
+
+    private final ReverseGeocoder delegate;
+    private final int precision;
+    private final int maxCells;
+    private final LinkedHashMap<Key, Cell> cells;
+    private long notFoundTtlNanos = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param delegate  the geocoder to cache
+     * @param precision the length of the geohashes of the cells, from 1 to 12
+     * @param maxCells  the maximum number of cells to hold
+     */
+    public CachingReverseGeocoder(ReverseGeocoder delegate, int precision, int maxCells) {
+        if (delegate == null) throw new NullPointerException("delegate");
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 1 and " + MAX_PRECISION);
+        }
+        if (maxCells < 1) throw new IllegalArgumentException("maxCells must be >= 1");
+        this.delegate = delegate;
+        this.precision = precision;
+        this.maxCells = maxCells;
+        // Access order makes iteration order least-recently-used first
+        this.cells = new LinkedHashMap<Key, Cell>(16, 0.75f, true);
+    }
+
+    /**
+     * Remember for a while that the underlying geocoder found no place
+     * for a location, e.g. at sea, and answer null for other locations in
+     * the same cell which no cached place contains. Nearby locations on
+     * land may then briefly go unfound, so this should be short. Zero,
+     * the default, means that locations without a place are never cached.
+     *
+     * @param duration the time to live
+     * @param unit     the unit of the duration
+     */
+    public synchronized void setNotFoundTimeToLive(long duration, TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException("Time to live must be >= 0");
+        this.notFoundTtlNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @param unit the unit to use
+     * @return how long a location without a place is remembered; zero if it isn't
+     */
+    public synchronized long getNotFoundTimeToLive(TimeUnit unit) {
+        return unit.convert(notFoundTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the geocoder cached
+     */
+    public ReverseGeocoder getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the length of the geohashes of the cells
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the number of lookups answered from this cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups passed to the underlying geocoder
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of cells held
+     */
+    public synchronized int size() {
+        return cells.size();
+    }
+
+    /**
+     * Remove all places, and locations without places, from this cache.
+     */
+    public synchronized void clear() {
+        cells.clear();
+    }
+
+    @Override
+    public Place getPlace(GeoPlanet client, Location location) throws GeoPlanetException {
+        Key key = new Key(client, cell(location.latitude, location.longitude, precision * 5));
+        synchronized (this) {
+            Cell cell = cells.get(key);
+            if (cell != null) {
+                Place cached = cell.getSmallestContaining(location);
+                if (cached != null) {
+                    hits++;
+                    return cached.bind(client);
+                }
+                if (cell.notFoundUntil != 0 && cell.notFoundUntil - System.nanoTime() > 0) {
+                    hits++;
+                    return null;
+                }
+            }
+            misses++;
+        }
+        Place place = delegate.getPlace(client, location);
+        if (place == null) {
+            putNotFound(key);
+        } else if (place.isLongForm()) {
+            put(key, place);
+        }
+        return place;
+    }
+
+    private synchronized void put(Key key, Place place) {
+        // Shift along, dropping the oldest place or any copy of this one
+        Place[] places = cell(key).places;
+        int i = 0;
+        while (i < places.length - 1 && places[i] != null && !places[i].equals(place)) i++;
+        System.arraycopy(places, 0, places, 1, i);
+        places[0] = place;
+    }
+
+    private synchronized void putNotFound(Key key) {
+        if (notFoundTtlNanos == 0) return;
+        // Never zero, which means unset
+        cell(key).notFoundUntil = (System.nanoTime() + notFoundTtlNanos) | 1;
+    }
+
+    /**
+     * @return the cell for the key, added if necessary
+     */
+    private Cell cell(Key key) {
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+            Iterator<Cell> lru = cells.values().iterator();
+            while (cells.size() > maxCells) {
+                lru.next();
+                lru.remove();
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * The places found for locations in a cell, for one service and language.
+     */
+    private static class Cell {
+        final Place[] places = new Place[PLACES_PER_CELL];
+        // When a location in the cell without a place is forgotten, by System.nanoTime(); zero if none
+        long notFoundUntil;
+
+        Place getSmallestContaining(Location location) {
+            Place smallest = null;
+            for (Place place : places) {
+                if (place == null || !place.getBoundingBox().contains(location)) continue;
+                if (smallest == null || area(place.getBoundingBox()) < area(smallest.getBoundingBox())) {
+                    smallest = place;
+                }
+            }
+            return smallest;
+        }
+    }
+
+    private static class Key {
+        final long cell;
+        final String serviceUri;
+        final String language;
+
+        Key(GeoPlanet client, long cell) {
+            this.cell = cell;
+            this.serviceUri = client.getServiceUri();
+            this.language = client.getLanguage();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (cell ^ (cell >>> 32));
+            result = prime * result + serviceUri.hashCode();
+            result = prime * result + language.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return cell == other.cell && serviceUri.equals(other.serviceUri) && language.equals(other.language);
+        }
+    }
+
+    private static double area(BoundingBox bbox) {
+        return PlaceIndex.area(bbox.northEast.latitude, bbox.northEast.longitude,
+                bbox.southWest.latitude, bbox.southWest.longitude);
+    }
+
+    /**
+     * @return the cell containing a point, as the bits of its geohash
+     */
+    static long cell(double latitude, double longitude, int bits) {
+        int latBits = bits / 2;
+        int lonBits = bits - latBits;
+        long lat = quantize(latitude + 90, 180, latBits);
+        long lon = quantize(longitude + 180, 360, lonBits);
+        // Interleave, starting with the longitude
+        long cell = 0;
+        for (int i = 0; i < bits; i++) {
+            cell <<= 1;
+            if ((i & 1) == 0) {
+                cell |= (lon >>> (lonBits - 1 - (i >> 1))) & 1;
+            } else {
+                cell |= (lat >>> (latBits - 1 - (i >> 1))) & 1;
+            }
+        }
+        return cell;
+    }
+
+    private static long quantize(double value, double range, int bits) {
+        long max = (1L << bits) - 1;
+        return Math.min(max, (long) (value / range * (1L << bits)));
+    }
+
+    /**
+     * Compute the geohash of a location.
+     *
+     * @param location  the location
+     * @param precision the length of the geohash, from 1 to 12
+     * @return the geohash
+     */
+    public static String geohash(Location location, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 1 and " + MAX_PRECISION);
+        }
+        long cell = cell(location.latitude, location.longitude, precision * 5);
+        char[] hash = new char[precision];
+        for (int i = precision - 1; i >= 0; i--) {
+            hash[i] = BASE32.charAt((int) (cell & 31));
+            cell >>>= 5;
+        }
+        return new String(hash);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingReverseGeocoder [precision=" + precision + ", size=" + cells.size()
+                + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
@@ -0,0 +1,349 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory index over the centroids of places, for finding the places
+ * nearest to a location.
+ * <p>
+ * Centroids are held as points on the unit sphere in a balanced k-d tree.
+ * The straight-line (chord) distance between two such points increases
+ * with their great-circle distance, so the tree can prune by chord
+ * distance and the results agree with {@link Location#distance(Location)},
+ * with no special cases at the antimeridian or the poles.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * CentroidIndex index = new CentroidIndex(client, places);
+ * Place town = index.getNearestPlace(location, client.getPlaceType("Town"));
+ * List&lt;Place&gt; nearby = index.getPlacesWithin(location, 10);
+ * </pre>
+ * </p>
+ * <p>
+ * Like {@link PlaceIndex}, the index is immutable: it reflects the rows of
+ * the {@link PlaceTable} at the time it was built, and is thread-safe
+ * provided the table is not modified. Short form places have no centroid,
+ * so are not indexed.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class CentroidIndex {
+
+    private final PlaceTable table;
+    // The row of each point, in tree order
+    private final int[] rows;
+    // x, y and z of each point, in tree order
+    private final double[] points;
+    // The axis along which each node splits its subtree
+    private final byte[] axes;
+
+    /**
+     * Build an index over some places.
+     *
+     * @param client the client to which the places are bound
+     * @param places the places to index
+     */
+    public CentroidIndex(GeoPlanet client, Iterable<? extends Place> places) {
+        this(PlaceIndex.table(client, places));
+    }
+
+    /**
+     * Build an index over the places in a table.
+     *
+     * @param table the places to index
+     */
+    public CentroidIndex(PlaceTable table) {
+        this.table = table;
+        int n = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (table.isLongForm(row)) n++;
+        }
+        rows = new int[n];
+        points = new double[n * 3];
+        axes = new byte[n];
+        int i = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (!table.isLongForm(row)) continue;
+            rows[i] = row;
+            toPoint(table.getLatitude(row), table.getLongitude(row), points, i * 3);
+            i++;
+        }
+        build(0, n);
+    }
+
+    static void toPoint(double latitude, double longitude, double[] point, int offset) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        point[offset] = cosLat * Math.cos(lon);
+        point[offset + 1] = cosLat * Math.sin(lon);
+        point[offset + 2] = Math.sin(lat);
+    }
+
+    /**
+     * Arrange the points in [from, to) as a subtree rooted at the middle
+     * point, split along the axis in which they are most spread out.
+     */
+    private void build(int from, int to) {
+        if (to - from < 2) return;
+        int axis = 0;
+        double widest = -1;
+        for (int a = 0; a < 3; a++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, points[i * 3 + a]);
+                max = Math.max(max, points[i * 3 + a]);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = a;
+            }
+        }
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, axis);
+        axes[middle] = (byte) axis;
+        build(from, middle);
+        build(middle + 1, to);
+    }
+
+    /**
+     * Partially sort [left, right] along an axis so that the kth point is in its sorted position.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            double pivot = points[((left + right) >>> 1) * 3 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (points[i * 3 + axis] < pivot) i++;
+                while (points[j * 3 + axis] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        for (int a = 0; a < 3; a++) {
+            double p = points[i * 3 + a];
+            points[i * 3 + a] = points[j * 3 + a];
+            points[j * 3 + a] = p;
+        }
+    }
+
+    /**
+     * @return the table of indexed places
+     */
+    public PlaceTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return the number of places in the index, excluding short form places
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Find the place whose centroid is nearest to a location.
+     *
+     * @param location the location
+     * @param types    the place types to include, or none for all
+     * @return the place, or null if there is none
+     */
+    public Place getNearestPlace(Location location, PlaceType... types) {
+        int row = getNearestRow(location.latitude, location.longitude, PlaceIndex.mask(types));
+        return row < 0 ? null : table.get(row);
+    }
+
+    /**
+     * @return the row of the place nearest to the location, or -1 if there is none
+     */
+    int getNearestRow(double latitude, double longitude, boolean[] mask) {
+        Neighbours neighbours = search(latitude, longitude, 1, Double.POSITIVE_INFINITY, mask);
+        return neighbours.size == 0 ? -1 : neighbours.rows[0];
+    }
+
+    /**
+     * Find the places whose centroids are nearest to a location.
+     *
+     * @param location the location
+     * @param k        the maximum number of places to find
+     * @param types    the place types to include, or none for all
+     * @return the places, nearest first
+     */
+    public List<Place> getNearestPlaces(Location location, int k, PlaceType... types) {
+        if (k < 0) throw new IllegalArgumentException("k must be >= 0");
+        return places(search(location.latitude, location.longitude, k, Double.POSITIVE_INFINITY,
+                PlaceIndex.mask(types)));
+    }
+
+    /**
+     * Find the places whose centroids are within a distance of a location.
+     *
+     * @param location the location
+     * @param distance the distance in kilometres
+     * @param types    the place types to include, or none for all
+     * @return the places, nearest first
+     */
+    public List<Place> getPlacesWithin(Location location, double distance, PlaceType... types) {
+        if (distance < 0) throw new IllegalArgumentException("distance must be >= 0");
+        return places(search(location.latitude, location.longitude, Integer.MAX_VALUE,
+                chordSquared(distance), PlaceIndex.mask(types)));
+    }
+
+    /**
+     * @return the squared chord length which subtends a great-circle distance
+     */
+    static double chordSquared(double distance) {
+        double halfAngle = distance / Location.DIAMETER_OF_EARTH;
+        if (halfAngle >= Math.PI / 2) return Double.POSITIVE_INFINITY;
+        double chord = 2 * Math.sin(halfAngle);
+        // Allow for rounding, so that places at exactly the distance are found
+        return chord * chord * (1 + 1e-12);
+    }
+
+    private List<Place> places(Neighbours neighbours) {
+        neighbours.sort();
+        List<Place> places = new ArrayList<Place>(neighbours.size);
+        for (int i = 0; i < neighbours.size; i++) places.add(table.get(neighbours.rows[i]));
+        return places;
+    }
+
+    private Neighbours search(double latitude, double longitude, int k, double maxDistance, boolean[] mask) {
+        double[] query = new double[3];
+        toPoint(latitude, longitude, query, 0);
+        Neighbours neighbours = new Neighbours(k, maxDistance);
+        if (k > 0) search(0, rows.length, query, mask, neighbours);
+        return neighbours;
+    }
+
+    private void search(int from, int to, double[] query, boolean[] mask, Neighbours neighbours) {
+        if (from >= to) return;
+        int middle = (from + to) >>> 1;
+        int p = middle * 3;
+        double dx = query[0] - points[p];
+        double dy = query[1] - points[p + 1];
+        double dz = query[2] - points[p + 2];
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (distance <= neighbours.bound() && matches(mask, rows[middle])) {
+            neighbours.offer(rows[middle], distance);
+        }
+        if (to - from == 1) return;
+        double delta = query[axes[middle]] - points[p + axes[middle]];
+        if (delta < 0) {
+            search(from, middle, query, mask, neighbours);
+            if (delta * delta <= neighbours.bound()) search(middle + 1, to, query, mask, neighbours);
+        } else {
+            search(middle + 1, to, query, mask, neighbours);
+            if (delta * delta <= neighbours.bound()) search(from, middle, query, mask, neighbours);
+        }
+    }
+
+    private boolean matches(boolean[] mask, int row) {
+        if (mask == null) return true;
+        int code = table.getPlaceTypeCode(row);
+        return code < mask.length && mask[code];
+    }
+
+    @Override
+    public String toString() {
+        return "CentroidIndex [size=" + size() + "]";
+    }
+
+    /**
+     * The nearest points found so far: a bounded max-heap on squared chord
+     * distance, so the furthest can be replaced cheaply.
+     */
+    private static class Neighbours {
+
+        final int k;
+        final double maxDistance;
+        int size;
+        int[] rows;
+        double[] distances;
+
+        Neighbours(int k, double maxDistance) {
+            this.k = k;
+            this.maxDistance = maxDistance;
+            int capacity = Math.min(k, 16);
+            rows = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        /**
+         * @return the squared distance a point must be within to be a neighbour
+         */
+        double bound() {
+            return size < k ? maxDistance : distances[0];
+        }
+
+        void offer(int row, double distance) {
+            if (size < k) {
+                if (size == rows.length) {
+                    int capacity = (int) Math.min(k, rows.length * 2L);
+                    rows = Arrays.copyOf(rows, capacity);
+                    distances = Arrays.copyOf(distances, capacity);
+                }
+                int i = size++;
+                // Sift up
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (distances[parent] >= distance) break;
+                    rows[i] = rows[parent];
+                    distances[i] = distances[parent];
+                    i = parent;
+                }
+                rows[i] = row;
+                distances[i] = distance;
+            } else {
+                siftDown(0, size, row, distance);
+            }
+        }
+
+        /**
+         * Replace the heap entry at i, and restore the heap property over [0, n).
+         */
+        private void siftDown(int i, int n, int row, double distance) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && distances[child + 1] > distances[child]) child++;
+                if (distances[child] <= distance) break;
+                rows[i] = rows[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            rows[i] = row;
+            distances[i] = distance;
+        }
+
+        /**
+         * Sort in place, nearest first, destroying the heap.
+         */
+        void sort() {
+            for (int n = size - 1; n > 0; n--) {
+                int row = rows[n];
+                double distance = distances[n];
+                rows[n] = rows[0];
+                distances[n] = distances[0];
+                siftDown(0, n, row, distance);
+            }
+        }
+    }
+}
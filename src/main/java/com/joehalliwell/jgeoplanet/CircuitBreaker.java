@@ -0,0 +1,89 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Stops requests being sent to a service which appears to be down.
+ * After a run of consecutive failures the circuit opens and requests
+ * fail immediately. Once it has been open for a while, a single trial
+ * request is let through: if that succeeds the circuit closes again,
+ * otherwise it stays open for another period.
+ *
+ * @author Joe Halliwell
+ */
+class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold the number of consecutive failures which opens the circuit
+     * @param openNanos        how long the circuit stays open before a trial request
+     */
+    CircuitBreaker(int failureThreshold, long openNanos) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failureThreshold must be >= 1");
+        if (openNanos < 0) throw new IllegalArgumentException("openNanos must be >= 0");
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * @return true if a request may be sent; false if it should fail fast
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) return false;
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // A trial request is already in flight
+                return false;
+        }
+    }
+
+    /**
+     * Record that the service answered a request, even if only to say the place wasn't found.
+     */
+    synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Record that a request failed because the service is unreachable or broken.
+     */
+    synchronized void recordFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            failures = 0;
+        }
+    }
+
+    /**
+     * Record that a request finished without telling us anything about the
+     * service, e.g. because the client refused to send it. A trial request
+     * which ends this way is retried by the next caller.
+     */
+    synchronized void recordIgnored() {
+        if (state == State.HALF_OPEN) state = State.OPEN;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    long getOpenNanos() {
+        return openNanos;
+    }
+}
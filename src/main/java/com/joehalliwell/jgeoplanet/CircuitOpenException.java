@@ -0,0 +1,17 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Thrown instead of sending a request while the GeoPlanet service appears
+ * to be down, i.e. after several consecutive requests have failed.
+ *
+ * @author Joe Halliwell
+ * @see GeoPlanet#setCircuitBreaker(int, long, java.util.concurrent.TimeUnit)
+ */
+public class CircuitOpenException extends GeoPlanetException {
+
+    private static final long serialVersionUID = -4461780386230938571L;
+
+    CircuitOpenException(String message) {
+        super(message);
+    }
+}
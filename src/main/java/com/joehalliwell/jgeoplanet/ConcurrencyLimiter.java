@@ -0,0 +1,105 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An adaptive limit on the number of requests in flight, using additive
+ * increase and multiplicative decrease (AIMD) as in TCP congestion control.
+ * Each successful request while the limit is in use raises it by
+ * 1/limit, so by about one per round of requests. Each request the server
+ * throttles halves it. The limit therefore settles just below the point at
+ * which the service starts refusing requests, without needing to know the
+ * quota in advance.
+ *
+ * @author Joe Halliwell
+ */
+class ConcurrencyLimiter {
+
+    static final double backoffRatio = 0.5;
+
+    private volatile int maxLimit;
+    private double limit;
+    private int inFlight;
+
+    ConcurrencyLimiter(int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Need 1 <= initialLimit <= maxLimit");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Start a request if the limit allows it.
+     *
+     * @return true if the request may be sent; false otherwise
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) return false;
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @param maxWaitNanos the longest acceptable wait; zero to fail immediately
+     * @return true if the request may be sent; false if the wait timed out
+     */
+    synchronized boolean acquire(long maxWaitNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Finish a request and adjust the limit according to how it went.
+     *
+     * @param throttled true if the server throttled the request; false otherwise
+     */
+    synchronized void release(boolean throttled) {
+        // Only grow when the limit is actually being used, so that a
+        // lightly loaded client doesn't build up an unearned allowance
+        boolean saturated = inFlight >= limit / 2;
+        inFlight--;
+        if (throttled) {
+            limit = Math.max(1, limit * backoffRatio);
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Finish a request without adjusting the limit e.g. on a network error.
+     */
+    synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    synchronized void setMaxLimit(int maxLimit) {
+        if (maxLimit < 1) throw new IllegalArgumentException("maxLimit must be >= 1");
+        this.maxLimit = maxLimit;
+        limit = Math.min(limit, maxLimit);
+        if (limit < 1) limit = 1;
+        notifyAll();
+    }
+}
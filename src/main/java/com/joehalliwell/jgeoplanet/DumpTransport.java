@@ -0,0 +1,321 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.apache.commons.httpclient.util.URIUtil;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A transport which answers GeoPlanet requests from a {@link GeoPlanetDump}
+ * in-process, without any network access. Responses have the same JSON
+ * form as those of the service.
+ * <p>
+ * Requests for places are usually answered straight from the dump's rows
+ * through {@link #place(GeoPlanet, String)} and
+ * {@link #places(GeoPlanet, String, PlaceParser.Handler)} instead, without
+ * building or parsing any JSON.
+ * </p>
+ * <p>
+ * Unsupported requests (e.g. for the geocode service) get a 501 response.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+class DumpTransport implements HttpTransport {
+
+    private static final Pattern TYPES = Pattern.compile("\\.type\\('([^']*)'\\)");
+    private static final Pattern QUERY = Pattern.compile("\\.q\\('([^']*)'");
+    private static final Pattern BATCH = Pattern.compile("^/places\\.woeid\\(([0-9,]*)\\)$");
+
+    private static final Response NOT_FOUND = new Response(404, "HTTP/1.1 404 Not Found", "");
+    private static final Response NOT_IMPLEMENTED = new Response(501, "HTTP/1.1 501 Not Implemented", "");
+
+    // The number of descendant lists remembered, each perhaps as large as the dump
+    private static final int MAX_DESCENDANTS = 8;
+
+    private final GeoPlanetDump dump;
+    private final String basePath;
+    private final String serviceUri;
+    // Filtered descendants by place and relation, most recently used last,
+    // so that paging through them doesn't walk the hierarchy for every page
+    private final Map<String, int[]> descendants = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > MAX_DESCENDANTS;
+        }
+    };
+
+    DumpTransport(GeoPlanetDump dump) throws IOException {
+        this.dump = dump;
+        this.serviceUri = dump.getServiceUri();
+        // Encoded the same way as request URIs, so that the prefixes match
+        this.basePath = URI.create(URIUtil.encodePathQuery(serviceUri)).getPath();
+    }
+
+    @Override
+    public Response get(String uri) throws IOException {
+        String path;
+        try {
+            path = new URI(uri).getPath();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (path == null || !path.startsWith(basePath)) return NOT_IMPLEMENTED;
+        String body = route(path.substring(basePath.length()));
+        if (body == null) return NOT_FOUND;
+        return new Response(200, "HTTP/1.1 200 OK", body);
+    }
+
+    /**
+     * @return the response body, or null if the place was not found
+     */
+    String route(String path) throws IOException {
+        if (path.equals("/placetypes")) return dump.getPlaceTypesJson();
+        Page page = lookup(path);
+        if (page == null) return null;
+        return page.single ? single(page.rows[0]) : collection(page);
+    }
+
+    /**
+     * Answer a request for a single place.
+     *
+     * @param path the request path, relative to the service URI
+     * @throws PlaceNotFoundException if there is no such place
+     */
+    Place place(GeoPlanet client, String path) throws GeoPlanetException {
+        Page page = find(path);
+        if (page.start == page.end) throw new PlaceNotFoundException("WOEID");
+        return place(client, page.rows[page.start]);
+    }
+
+    /**
+     * Answer a request for a collection of places.
+     *
+     * @param path the request path, relative to the service URI
+     * @return the total size of the collection
+     * @throws PlaceNotFoundException if the collection's place does not exist
+     */
+    int places(GeoPlanet client, String path, PlaceParser.Handler handler) throws GeoPlanetException {
+        Page page = find(path);
+        for (int i = page.start; i < page.end; i++) handler.place(place(client, page.rows[i]));
+        return page.rows.length;
+    }
+
+    private Page find(String path) throws GeoPlanetException {
+        Page page;
+        try {
+            page = lookup(path);
+        } catch (IOException e) {
+            throw new GeoPlanetException(e);
+        }
+        if (page == null) throw new PlaceNotFoundException("WOEID");
+        return page;
+    }
+
+    private Place place(GeoPlanet client, int row) throws GeoPlanetException {
+        int code = dump.placeTypeCode(row);
+        return new Place(client, dump.woeId(row), dump.name(row), client.placeType(code), dump.placeTypeName(code));
+    }
+
+    /**
+     * @return the rows answering a request, or null if the place was not found
+     */
+    private Page lookup(String path) throws IOException {
+        // Matrix parameters
+        int start = 0;
+        int count = 10;
+        String[] parts = path.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq == -1) continue;
+            String key = parts[i].substring(0, eq);
+            int value = Integer.parseInt(parts[i].substring(eq + 1));
+            if (key.equals("start")) start = value;
+            if (key.equals("count")) count = value;
+        }
+        String resource = parts[0];
+
+        Matcher batch = BATCH.matcher(resource);
+        if (batch.matches()) {
+            int[] rows = new int[0];
+            for (String id : batch.group(1).split(",")) {
+                if (id.isEmpty()) continue;
+                int row = dump.row(Long.parseLong(id));
+                if (row != -1 && indexOf(rows, row) == -1) {
+                    rows = Arrays.copyOf(rows, rows.length + 1);
+                    rows[rows.length - 1] = row;
+                }
+            }
+            return new Page(rows, start, count);
+        }
+        if (resource.startsWith("/places")) {
+            Matcher query = QUERY.matcher(resource);
+            if (!query.find()) return new Page(new int[0], start, count);
+            int[] rows = dump.search(URLDecoder.decode(query.group(1), "UTF-8"));
+            return new Page(filter(rows, resource), start, count);
+        }
+        if (!resource.startsWith("/place/")) return null;
+
+        String[] segments = resource.substring("/place/".length()).split("/");
+        int row = row(segments[0]);
+        if (row == -1) return null;
+        if (segments.length == 1) return Page.single(row);
+
+        String relation = segments[1];
+        int dot = relation.indexOf('.');
+        String name = (dot == -1) ? relation : relation.substring(0, dot);
+        if (name.equals("parent")) {
+            return Page.single(dump.parent(row));
+        }
+        if (name.equals("common")) {
+            int[] rows = new int[segments.length - 1];
+            rows[0] = row;
+            for (int i = 2; i < segments.length; i++) {
+                rows[i - 1] = row(segments[i]);
+                if (rows[i - 1] == -1) return null;
+            }
+            return Page.single(dump.commonAncestor(rows));
+        }
+        int[] rows;
+        if (name.equals("children")) {
+            rows = dump.children(row);
+        } else if (name.equals("descendants")) {
+            return new Page(descendants(row, relation), start, count);
+        } else if (name.equals("ancestors") || name.equals("belongtos")) {
+            rows = dump.ancestors(row);
+        } else if (name.equals("siblings")) {
+            rows = dump.siblings(row);
+        } else if (name.equals("neighbors")) {
+            rows = dump.neighbours(row);
+        } else {
+            return null;
+        }
+        return new Page(filter(rows, relation), start, count);
+    }
+
+    /**
+     * @return the descendants of a place, filtered by the relation's place types
+     */
+    private int[] descendants(int row, String relation) {
+        String key = row + "/" + relation;
+        synchronized (descendants) {
+            int[] rows = descendants.get(key);
+            if (rows != null) return rows;
+        }
+        int[] rows = filter(dump.descendants(row), relation);
+        synchronized (descendants) {
+            descendants.put(key, rows);
+        }
+        return rows;
+    }
+
+    private int row(String woeId) {
+        try {
+            return dump.row(Long.parseLong(woeId));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Apply any place type filter in the request.
+     */
+    private int[] filter(int[] rows, String resource) {
+        Matcher types = TYPES.matcher(resource);
+        if (!types.find()) return rows;
+        Set<Integer> codes = new HashSet<Integer>();
+        for (String typeName : types.group(1).split(",")) {
+            codes.add(dump.placeTypeCode(typeName));
+        }
+        int[] filtered = new int[rows.length];
+        int n = 0;
+        for (int row : rows) {
+            if (codes.contains(dump.placeTypeCode(row))) filtered[n++] = row;
+        }
+        return Arrays.copyOf(filtered, n);
+    }
+
+    private static int indexOf(int[] rows, int row) {
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == row) return i;
+        }
+        return -1;
+    }
+
+    private String single(int row) {
+        StringBuilder sb = new StringBuilder("{\"place\":");
+        appendPlace(sb, row);
+        return sb.append('}').toString();
+    }
+
+    private String collection(Page page) {
+        StringBuilder sb = new StringBuilder("{\"places\":{\"place\":[");
+        for (int i = page.start; i < page.end; i++) {
+            if (i > page.start) sb.append(',');
+            appendPlace(sb, page.rows[i]);
+        }
+        sb.append("],\"start\":").append(page.start);
+        sb.append(",\"count\":").append(page.end - page.start);
+        sb.append(",\"total\":").append(page.rows.length);
+        return sb.append("}}").toString();
+    }
+
+    private void appendPlace(StringBuilder sb, int row) {
+        long woeId = dump.woeId(row);
+        int code = dump.placeTypeCode(row);
+        sb.append("{\"woeid\":").append(woeId);
+        sb.append(",\"placeTypeName\":").append(JSONObject.quote(dump.placeTypeName(code)));
+        sb.append(",\"placeTypeName attrs\":{\"code\":").append(code).append('}');
+        sb.append(",\"name\":").append(JSONObject.quote(dump.name(row)));
+        sb.append(",\"uri\":").append(JSONObject.quote(serviceUri + "/place/" + woeId));
+        sb.append(",\"lang\":\"").append(GeoPlanet.defaultLanguage).append("\"}");
+    }
+
+    /**
+     * The rows answering a request: a single place, or a page of a collection.
+     */
+    private static class Page {
+        final int[] rows;
+        final int start;
+        final int end;
+        final boolean single;
+
+        Page(int[] rows, int start, int count) {
+            this(rows, start, count, false);
+        }
+
+        private Page(int[] rows, int start, int count, boolean single) {
+            this.rows = rows;
+            this.end = (count == 0) ? rows.length : (int) Math.min(rows.length, (long) start + count);
+            this.start = Math.min(start, end);
+            this.single = single;
+        }
+
+        /**
+         * @return a page holding just the row, or null if there is no such place
+         */
+        static Page single(int row) {
+            return (row == -1) ? null : new Page(new int[]{row}, 0, 1, true);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    @Override
+    public String toString() {
+        return "DumpTransport [" + dump + "]";
+    }
+}
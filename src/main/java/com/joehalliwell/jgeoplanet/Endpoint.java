@@ -0,0 +1,42 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * The kinds of request made to the GeoPlanet (and geocode) services.
+ *
+ * @author Joe Halliwell
+ * @see RequestEvent
+ */
+public enum Endpoint {
+    PLACE,
+    PLACES,
+    PARENT,
+    CHILDREN,
+    DESCENDANTS,
+    ANCESTORS,
+    SIBLINGS,
+    NEIGHBORS,
+    BELONGTOS,
+    COMMON,
+    PLACETYPES,
+    GEOCODE,
+    OTHER;
+
+    /**
+     * Classify a request by its path relative to the service URI
+     * e.g. "/place/19344/children.type('Town');start=0;count=10".
+     */
+    static Endpoint forPath(String path) {
+        if (path.startsWith("/placetypes")) return PLACETYPES;
+        if (path.startsWith("/places")) return PLACES;
+        if (!path.startsWith("/place/")) return OTHER;
+        int slash = path.indexOf('/', "/place/".length());
+        if (slash == -1) return PLACE;
+        int end = slash + 1;
+        while (end < path.length() && Character.isLetter(path.charAt(end))) end++;
+        String relation = path.substring(slash + 1, end);
+        for (Endpoint endpoint : values()) {
+            if (endpoint.name().equalsIgnoreCase(relation)) return endpoint;
+        }
+        return OTHER;
+    }
+}
@@ -1,8 +1,6 @@
 package com.joehalliwell.jgeoplanet;
 
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.util.URIUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -10,13 +8,44 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
 /**
  * Java client library for the Yahoo! GeoPlanet service
@@ -48,18 +77,62 @@ import java.util.Map;
  * so that requests to the service using a deprecated WOEID are served
  * transparently.
  * </p>
+ * <p>
+ * Each client owns a pool of persistent HTTP connections which is shared
+ * by all threads using the client. Call {@link #close()} to release
+ * the pool once the client is no longer needed.
+ * </p>
+ * <p>
+ * Requests are throttled on the client, so that a busy application queues
+ * rather than flooding the service. The number of requests in flight adapts
+ * to the service, backing off whenever it reports that a quota has been
+ * exceeded, and an explicit rate limit may also be set. Requests which fail
+ * for transient reasons are retried with backoff, and while the service
+ * appears to be down requests fail fast.
+ * </p>
  *
  * @author Joe Halliwell
  */
-public class GeoPlanet {
+public class GeoPlanet implements Closeable {
 
     // URL for application IDs
     public static String appIdUrl = "http://developer.yahoo.com/wsregapp/";
     private final String appId;
     private final String language;
     private final String serviceUri;
-    private Map<String, PlaceType> placeTypeNameCache;
-    private Map<Integer, PlaceType> placeTypeCodeCache;
+    private final HttpTransport transport;
+    // Answers requests in-process for a client backed by a dump; null otherwise
+    private final DumpTransport dump;
+    private final PlaceStore placeStore;
+    private volatile boolean closed = false;
+    private volatile PlaceCache placeCache;
+    private volatile PlaceHierarchy placeHierarchy;
+    private volatile ReverseGeocoder reverseGeocoder = new RemoteReverseGeocoder();
+    private volatile boolean coalescing = true;
+    private final List<GeoPlanetListener> listeners = new CopyOnWriteArrayList<GeoPlanetListener>();
+    private final SingleFlight<JSONObject> objectRequests = new SingleFlight<JSONObject>();
+    private final SingleFlight<PlacesResponse> placesRequests = new SingleFlight<PlacesResponse>();
+    private volatile RateLimiter rateLimiter;
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(defaultConcurrencyLimit, 64);
+    private volatile long maxQueueWaitNanos = TimeUnit.SECONDS.toNanos(30);
+    private final LongAdder throttledRequests = new LongAdder();
+    private final LongAdder queuedRequests = new LongAdder();
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private volatile CircuitBreaker circuitBreaker = new CircuitBreaker(5, TimeUnit.SECONDS.toNanos(10));
+    private volatile boolean hedging = false;
+    private volatile long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(defaultMinHedgeDelayMillis);
+    private ExecutorService hedgeExecutor;
+    private final Map<Endpoint, LatencyHistogram> latencies = new EnumMap<Endpoint, LatencyHistogram>(Endpoint.class);
+    private final LongAdder retriedRequests = new LongAdder();
+    private final LongAdder hedgedRequests = new LongAdder();
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+    // The executor whose task the current thread is running, if any
+    private static final ThreadLocal<Executor> worker = new ThreadLocal<Executor>();
+    private final PlaceTypeLoading placeTypeLoading;
+    private final PlaceTypeRegistry placeTypes;
+    // The place types bound to this client
+    private volatile PlaceTypeRegistry.View placeTypeView;
     // Using apache.commons.logging which ships with httpclient
     protected Log log = LogFactory.getLog(GeoPlanet.class);
 
@@ -73,6 +146,43 @@ public class GeoPlanet {
      */
     public final static String defaultLanguage = "en";
 
+    /**
+     * The maximum number of WOE IDs sent in a single batch request.
+     */
+    public final static int maxBatchSize = 20;
+
+    /**
+     * The largest page of a collection for which concurrent identical
+     * requests are coalesced.
+     *
+     * @see #setCoalescing(boolean)
+     */
+    public final static int maxCoalescedCount = maxBatchSize;
+
+    /**
+     * Number of threads used for parallel requests if no executor is set.
+     */
+    public final static int defaultParallelism = 8;
+
+    /**
+     * Number of requests allowed in flight at once, before the
+     * limit has adapted to the service.
+     */
+    public final static int defaultConcurrencyLimit = 20;
+
+    // Bundled place type snapshots by language, read once
+    private final static ConcurrentMap<String, String> placeTypeSnapshots = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The default minimum time to wait before hedging a request, in milliseconds
+     *
+     * @see #setMinHedgeDelay(long, TimeUnit)
+     */
+    public final static int defaultMinHedgeDelayMillis = 20;
+
+    // Requests aren't hedged until the usual latency of their endpoint is known
+    private final static int hedgeMinSamples = 20;
+
     /**
      * Convenience constructor for English language GeoPlanet applications.
      *
@@ -84,81 +194,850 @@ public class GeoPlanet {
     }
 
     /**
-     * Create a client for the GeoPlanet service using the specified
-     * application ID and language.
+     * Create a client for the GeoPlanet service using the specified
+     * application ID and language.
+     *
+     * @param appId    your application ID
+     * @param language code for the language to use
+     * @throws GeoPlanetException
+     * @see #GeoPlanet(String, String, String)
+     */
+    public GeoPlanet(String appId, String language) throws GeoPlanetException {
+        this(appId, language, defaultServiceUri);
+    }
+
+    /**
+     * Create a client for the GeoPlanet service using the specified
+     * application ID, language and service URI.
+     * NB All constructors require network access to check the application
+     * ID and cache localised place types.
+     * The official Yahoo! service URI is http://where.yahooapis.com/v1/
+     *
+     * @param appId      your application ID
+     * @param language   code for the language to use
+     * @param serviceUri base URI for GeoPlanet requests
+     * @throws GeoPlanetException
+     */
+    public GeoPlanet(String appId, String language, String serviceUri) throws GeoPlanetException {
+        this(appId, language, serviceUri, PlaceTypeLoading.EAGER);
+    }
+
+    /**
+     * Create a client for the GeoPlanet service, choosing when the
+     * localised place types are loaded. With any mode other than
+     * {@link PlaceTypeLoading#EAGER} the client is constructed without
+     * network access, so application startup doesn't wait on the service
+     * or fail if it is unavailable. The application ID is then only
+     * checked by the first request.
+     *
+     * @param appId            your application ID
+     * @param language         code for the language to use
+     * @param serviceUri       base URI for GeoPlanet requests
+     * @param placeTypeLoading when to load the place types
+     * @throws GeoPlanetException
+     * @see PlaceTypeLoading
+     */
+    public GeoPlanet(String appId, String language, String serviceUri, PlaceTypeLoading placeTypeLoading)
+            throws GeoPlanetException {
+        this(appId, language, serviceUri, new PooledHttpTransport(), null, placeTypeLoading);
+    }
+
+    /**
+     * Create a client for the GeoPlanet service backed by a persistent
+     * store. Places looked up by WOE ID, and the localised place types,
+     * are saved in the store and served from it thereafter. So a client
+     * constructed with a warm store needs no network access.
+     * The store is not closed when the client is closed.
+     *
+     * @param appId      your application ID
+     * @param language   code for the language to use
+     * @param serviceUri base URI for GeoPlanet requests
+     * @param placeStore the store to use
+     * @throws GeoPlanetException
+     * @see PlaceStore
+     */
+    public GeoPlanet(String appId, String language, String serviceUri, PlaceStore placeStore) throws GeoPlanetException {
+        this(appId, language, serviceUri, new PooledHttpTransport(), placeStore);
+    }
+
+    /**
+     * Create a client which answers all requests from a GeoPlanet data
+     * dump, in-process and without network access. Places are only
+     * available in short form, and the client's language is English.
+     * Location and free-text searches beyond simple name matching are
+     * not supported. Places are built straight from the dump, so the rate
+     * and concurrency limits, retries, circuit breaker and listeners,
+     * which exist to deal with the service, play no part.
+     *
+     * @param dump the dump to use
+     * @throws GeoPlanetException
+     * @see GeoPlanetDump
+     */
+    public GeoPlanet(GeoPlanetDump dump) throws GeoPlanetException {
+        this("offline", defaultLanguage, dump.getServiceUri(), newDumpTransport(dump));
+    }
+
+    private static HttpTransport newDumpTransport(GeoPlanetDump dump) throws GeoPlanetException {
+        try {
+            return new DumpTransport(dump);
+        } catch (IOException e) {
+            throw new GeoPlanetException(e);
+        }
+    }
+
+    /**
+     * Create a client that performs all network access through the
+     * specified transport.
+     */
+    GeoPlanet(String appId, String language, String serviceUri, HttpTransport transport) throws GeoPlanetException {
+        this(appId, language, serviceUri, transport, null);
+    }
+
+    GeoPlanet(String appId, String language, String serviceUri, HttpTransport transport,
+              PlaceStore placeStore) throws GeoPlanetException {
+        this(appId, language, serviceUri, transport, placeStore, PlaceTypeLoading.EAGER);
+    }
+
+    GeoPlanet(String appId, String language, String serviceUri, HttpTransport transport,
+              PlaceStore placeStore, PlaceTypeLoading placeTypeLoading) throws GeoPlanetException {
+        if (placeTypeLoading == null) throw new NullPointerException("placeTypeLoading");
+        this.appId = appId;
+        this.language = language;
+        this.serviceUri = serviceUri;
+        this.transport = transport;
+        this.dump = (transport instanceof DumpTransport) ? (DumpTransport) transport : null;
+        this.placeStore = placeStore;
+        this.placeTypeLoading = placeTypeLoading;
+        this.placeTypes = PlaceTypeRegistry.get(serviceUri, language);
+        for (Endpoint endpoint : Endpoint.values()) latencies.put(endpoint, new LatencyHistogram());
+        switch (placeTypeLoading) {
+            case EAGER:
+                try {
+                    loadPlaceTypes();
+                } catch (GeoPlanetException e) {
+                    transport.close();
+                    throw e;
+                }
+                break;
+            case LAZY:
+                break;
+            case SNAPSHOT:
+                seedPlaceTypes();
+                break;
+            case BACKGROUND:
+                seedPlaceTypes();
+                if (!placeTypes.isLoaded()) getExecutor().execute(this::refreshPlaceTypes);
+                break;
+        }
+    }
+
+    /**
+     * Return the Yahoo! application ID used by this client.
+     * Application IDs can be obtained from
+     * <a href="http://developer.yahoo.com/wsregapp/">http://developer.yahoo.com/wsregapp/</a>.
+     *
+     * @return the application ID used by this client
+     */
+    public String getApplicationId() {
+        return appId;
+    }
+
+    /**
+     * Returns the language used by this client such as "en-gb".
+     *
+     * @return the language used by this client
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * @return when this client loads the localised place types
+     */
+    public PlaceTypeLoading getPlaceTypeLoading() {
+        return placeTypeLoading;
+    }
+
+    /**
+     * Returns the base URI used by the client e.g. http://where.yahooapis.com/v1
+     *
+     * @return the base URI used by this client
+     */
+    public String getServiceUri() {
+        return serviceUri;
+    }
+
+    /**
+     * Set the maximum number of concurrent connections this client will
+     * open to the GeoPlanet server. Defaults to 20. Has no effect on a
+     * client which makes no connections, e.g. one backed by a {@link GeoPlanetDump}.
+     *
+     * @param maxConnections the maximum number of connections per host
+     */
+    public void setMaxConnectionsPerHost(int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be >= 1");
+        PooledHttpTransport pool = pooledTransport();
+        if (pool != null) pool.setMaxConnectionsPerHost(maxConnections);
+    }
+
+    /**
+     * @return the maximum number of concurrent connections per host,
+     * or the default if the client makes no connections
+     */
+    public int getMaxConnectionsPerHost() {
+        PooledHttpTransport pool = pooledTransport();
+        return (pool == null) ? PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST : pool.getMaxConnectionsPerHost();
+    }
+
+    /**
+     * Set the timeout for establishing a connection. Defaults to 10 seconds.
+     * Has no effect on a client which makes no connections.
+     *
+     * @param millis the timeout in milliseconds. Zero means no timeout.
+     */
+    public void setConnectionTimeout(int millis) {
+        if (millis < 0) throw new IllegalArgumentException("Timeout must be >= 0");
+        PooledHttpTransport pool = pooledTransport();
+        if (pool != null) pool.setConnectionTimeout(millis);
+    }
+
+    /**
+     * @return the connection timeout in milliseconds,
+     * or the default if the client makes no connections
+     */
+    public int getConnectionTimeout() {
+        PooledHttpTransport pool = pooledTransport();
+        return (pool == null) ? PooledHttpTransport.DEFAULT_CONNECTION_TIMEOUT : pool.getConnectionTimeout();
+    }
+
+    /**
+     * Set the timeout for waiting on data from the server. Defaults to 30 seconds.
+     * Has no effect on a client which makes no connections.
+     *
+     * @param millis the timeout in milliseconds. Zero means no timeout.
+     */
+    public void setReadTimeout(int millis) {
+        if (millis < 0) throw new IllegalArgumentException("Timeout must be >= 0");
+        PooledHttpTransport pool = pooledTransport();
+        if (pool != null) pool.setReadTimeout(millis);
+    }
+
+    /**
+     * @return the read timeout in milliseconds,
+     * or the default if the client makes no connections
+     */
+    public int getReadTimeout() {
+        PooledHttpTransport pool = pooledTransport();
+        return (pool == null) ? PooledHttpTransport.DEFAULT_READ_TIMEOUT : pool.getReadTimeout();
+    }
+
+    /**
+     * Choose whether connections are kept open and reused between
+     * requests. The default is true. Turning keep-alive off closes any
+     * idle pooled connections. Has no effect on a client which makes no
+     * connections.
+     *
+     * @param keepAlive true to reuse connections; false otherwise
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        PooledHttpTransport pool = pooledTransport();
+        if (pool != null) pool.setKeepAlive(keepAlive);
+    }
+
+    /**
+     * @return true if connections are reused between requests; false otherwise.
+     * True, the default, if the client makes no connections.
+     */
+    public boolean isKeepAlive() {
+        PooledHttpTransport pool = pooledTransport();
+        return (pool == null) || pool.isKeepAlive();
+    }
+
+    /**
+     * @return the connection pool, or null if the client doesn't use one
+     */
+    private PooledHttpTransport pooledTransport() {
+        return (transport instanceof PooledHttpTransport) ? (PooledHttpTransport) transport : null;
+    }
+
+    /**
+     * Coalesce concurrent identical requests, so that only one of them is
+     * sent to the service and every caller shares its result. This helps
+     * when many threads look up the same place at once. On by default.
+     * <p>
+     * Sharing a collection means holding all of it in memory until every
+     * caller has it, rather than streaming it to one caller. So only single
+     * places, batch lookups and pages of at most {@value #maxCoalescedCount}
+     * places are coalesced. Larger and unbounded pages are always sent.
+     * </p>
+     *
+     * @param coalescing true to coalesce requests; false to send every request
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * @return true if concurrent identical requests are coalesced; false otherwise
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * @return the number of requests which shared the result of an
+     * identical request already in flight, rather than being sent
+     */
+    public long getCoalescedRequestCount() {
+        return objectRequests.getCoalescedCount() + placesRequests.getCoalescedCount();
+    }
+
+    /**
+     * Limit the rate at which this client sends requests, e.g. to stay within
+     * the service's quota. Requests over the limit wait their turn, for up to
+     * the maximum queue wait. Rate limiting is off by default.
+     * The number of requests which may be sent at once after a quiet period
+     * is the number allowed in one second.
+     *
+     * @param requestsPerSecond the sustained rate, or zero to turn rate limiting off
+     * @see #setMaxQueueWait(long, TimeUnit)
+     */
+    public void setRateLimit(double requestsPerSecond) {
+        setRateLimit(requestsPerSecond, (int) Math.max(1, Math.ceil(requestsPerSecond)));
+    }
+
+    /**
+     * Limit the rate at which this client sends requests.
+     *
+     * @param requestsPerSecond the sustained rate, or zero to turn rate limiting off
+     * @param burst             the number of requests which may be sent at once after a quiet period
+     * @see #setRateLimit(double)
+     */
+    public void setRateLimit(double requestsPerSecond, int burst) {
+        if (requestsPerSecond < 0) throw new IllegalArgumentException("requestsPerSecond must be >= 0");
+        rateLimiter = (requestsPerSecond == 0) ? null : new RateLimiter(requestsPerSecond, burst);
+    }
+
+    /**
+     * @return the maximum sustained rate in requests per second, or zero if there is no limit
+     */
+    public double getRateLimit() {
+        RateLimiter limiter = rateLimiter;
+        return (limiter == null) ? 0 : limiter.getRate();
+    }
+
+    /**
+     * Set the most requests this client will ever have in flight at once.
+     * Within this, the limit adapts to the service: it grows while requests
+     * succeed and halves whenever the service throttles a request, so
+     * throughput settles just below the service's quota. Defaults to 64.
+     * NB Requests also wait for a free connection, so raise
+     * {@link #setMaxConnectionsPerHost(int)} to match.
+     *
+     * @param maxConcurrency the maximum number of requests in flight
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        concurrencyLimiter.setMaxLimit(maxConcurrency);
+    }
+
+    /**
+     * @return the most requests this client will ever have in flight at once
+     */
+    public int getMaxConcurrency() {
+        return concurrencyLimiter.getMaxLimit();
+    }
+
+    /**
+     * @return the number of requests currently allowed in flight at once,
+     * as adapted to the service
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter.getLimit();
+    }
+
+    /**
+     * Set how long a request may wait for the rate or concurrency limit
+     * before failing with a {@link ThrottledException}. Defaults to 30 seconds.
+     *
+     * @param maxWait the maximum wait; zero to fail fast instead of queuing
+     * @param unit    the unit of the wait
+     */
+    public void setMaxQueueWait(long maxWait, TimeUnit unit) {
+        if (maxWait < 0) throw new IllegalArgumentException("maxWait must be >= 0");
+        maxQueueWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * @param unit the unit to use
+     * @return how long a request may wait for the rate or concurrency limit
+     */
+    public long getMaxQueueWait(TimeUnit unit) {
+        return unit.convert(maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of requests which failed with a {@link ThrottledException},
+     * whether throttled by the service or refused by this client
+     */
+    public long getThrottledRequestCount() {
+        return throttledRequests.sum();
+    }
+
+    /**
+     * @return the number of requests which had to wait for the rate or concurrency limit
+     */
+    public long getQueuedRequestCount() {
+        return queuedRequests.sum();
+    }
+
+    /**
+     * Set how requests which fail for transient reasons, such as network
+     * errors, are retried. Defaults to {@link RetryPolicy#DEFAULT}.
+     *
+     * @param retryPolicy the policy to use, e.g. {@link RetryPolicy#NONE} to turn retries off
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) throw new NullPointerException("retryPolicy");
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the policy for retrying failed requests
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the number of times a failed request has been retried
+     */
+    public long getRetryCount() {
+        return retriedRequests.sum();
+    }
+
+    /**
+     * Hedge requests to cut tail latency. If a request for a single place
+     * hasn't completed within the time in which 95% of requests to its
+     * endpoint complete, an identical request is sent, and whichever
+     * response arrives first is used. This costs about 5% more requests.
+     * Off by default.
+     *
+     * @param hedging true to hedge requests; false otherwise
+     * @see #setMinHedgeDelay(long, TimeUnit)
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * Set the minimum time to wait for a response before hedging a
+     * request, however fast the endpoint usually is. Without it, a very
+     * fast endpoint, e.g. one on the local network, would have most of
+     * its requests hedged by ordinary jitter. Defaults to
+     * {@value #defaultMinHedgeDelayMillis} milliseconds.
+     *
+     * @param minDelay the minimum delay
+     * @param unit     the unit of the delay
+     */
+    public void setMinHedgeDelay(long minDelay, TimeUnit unit) {
+        if (minDelay < 0) throw new IllegalArgumentException("minDelay must be >= 0");
+        minHedgeDelayNanos = unit.toNanos(minDelay);
+    }
+
+    /**
+     * @param unit the unit to use
+     * @return the minimum time to wait for a response before hedging a request
+     */
+    public long getMinHedgeDelay(TimeUnit unit) {
+        return unit.convert(minHedgeDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if slow requests are hedged; false otherwise
+     */
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    /**
+     * @return the number of extra requests sent to hedge slow ones
+     */
+    public long getHedgedRequestCount() {
+        return hedgedRequests.sum();
+    }
+
+    /**
+     * Fail fast while the service appears to be down. After the specified
+     * number of consecutive requests fail with network or server errors,
+     * requests fail immediately with a {@link CircuitOpenException} for the
+     * specified duration. Then a single trial request is sent, and if it
+     * succeeds requests resume. Defaults to 5 failures and 10 seconds.
+     *
+     * @param failureThreshold the number of consecutive failures, or zero to turn the circuit breaker off
+     * @param openDuration     how long to fail fast before trying the service again
+     * @param unit             the unit of the duration
+     */
+    public void setCircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold < 0) throw new IllegalArgumentException("failureThreshold must be >= 0");
+        circuitBreaker = (failureThreshold == 0) ? null : new CircuitBreaker(failureThreshold, unit.toNanos(openDuration));
+    }
+
+    /**
+     * @return true if requests are currently failing fast because the service appears to be down
+     */
+    public boolean isCircuitOpen() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker != null && breaker.getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Add a listener to be told about every request this client makes,
+     * e.g. a {@link MetricsRecorder}.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(GeoPlanetListener listener) {
+        if (listener == null) throw new NullPointerException("listener");
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeListener(GeoPlanetListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Use the specified cache for places looked up by WOE ID.
+     * Caching is off by default.
+     *
+     * @param placeCache the cache to use, or null to turn caching off
+     */
+    public void setPlaceCache(PlaceCache placeCache) {
+        this.placeCache = placeCache;
+    }
+
+    /**
+     * @return the place cache used by this client, or null if there is none
+     */
+    public PlaceCache getPlaceCache() {
+        return placeCache;
+    }
+
+    /**
+     * Record the parents and ancestors of places in the specified hierarchy
+     * as they are fetched, and use it to answer later requests for them.
+     * Off by default.
+     *
+     * @param placeHierarchy the hierarchy to use, or null to turn it off
+     */
+    public void setPlaceHierarchy(PlaceHierarchy placeHierarchy) {
+        this.placeHierarchy = placeHierarchy;
+    }
+
+    /**
+     * @return the place hierarchy used by this client, or null if there is none
+     */
+    public PlaceHierarchy getPlaceHierarchy() {
+        return placeHierarchy;
+    }
+
+    /**
+     * Use the specified strategy to find places by location in
+     * {@link #getPlace(Location)}. A {@link RemoteReverseGeocoder} by default.
+     *
+     * @param reverseGeocoder the reverse geocoder to use
+     * @see LocalReverseGeocoder
+     */
+    public void setReverseGeocoder(ReverseGeocoder reverseGeocoder) {
+        if (reverseGeocoder == null) throw new NullPointerException("reverseGeocoder");
+        this.reverseGeocoder = reverseGeocoder;
+    }
+
+    /**
+     * @return the reverse geocoder used by this client
+     */
+    public ReverseGeocoder getReverseGeocoder() {
+        return reverseGeocoder;
+    }
+
+    /**
+     * @return the persistent store used by this client, or null if there is none
+     */
+    public PlaceStore getPlaceStore() {
+        return placeStore;
+    }
+
+    /**
+     * Add a place to the place cache, if there is one.
+     */
+    void cache(Place place) {
+        PlaceCache cache = placeCache;
+        if (cache != null) cache.put(place);
+    }
+
+    /**
+     * Look up a long form place in the place cache and then the
+     * persistent store, without network access.
+     *
+     * @return the place, or null if it is not held locally
+     */
+    private Place getLocalPlace(long woeId) throws GeoPlanetException {
+        PlaceCache cache = placeCache;
+        if (cache == null && placeStore == null) return null;
+        Place place = null;
+        if (cache != null) {
+            place = cache.get(this, woeId, true);
+        }
+        if (place == null && placeStore != null) {
+            try {
+                place = placeStore.get(this, woeId);
+                if (place != null) cache(place);
+            } catch (IOException e) {
+                log.warn("Could not read from " + placeStore, e);
+            }
+        }
+        for (GeoPlanetListener listener : listeners) {
+            try {
+                listener.cacheLookup(woeId, place != null);
+            } catch (RuntimeException e) {
+                log.warn("Listener " + listener + " failed", e);
+            }
+        }
+        return place;
+    }
+
+    /**
+     * Save a freshly fetched place in the place cache and persistent store.
+     */
+    private void save(Place place) {
+        cache(place);
+        if (placeStore != null) {
+            try {
+                placeStore.put(place);
+            } catch (IOException e) {
+                log.warn("Could not write to " + placeStore, e);
+            }
+        }
+    }
+
+    /**
+     * @param woeId the WOE ID to look up
+     * @return the place corresponding to the specified WOE ID
+     * @throws PlaceNotFoundException if the ID is invalid
+     * @throws GeoPlanetException     for general errors
+     */
+    public Place getPlace(long woeId) throws GeoPlanetException {
+        try {
+            if (woeId < 0) throw new PlaceNotFoundException("WOEID");
+            Place local = getLocalPlace(woeId);
+            if (local != null) return local;
+            Place result = doGetPlace("/place/" + woeId);
+            save(result);
+            return result;
+        } catch (PlaceNotFoundException e) {
+            assert e.getPlaceName().equals("WOEID");
+            throw new PlaceNotFoundException(woeId + " (WOE ID)");
+        }
+    }
+
+    /**
+     * Look up several places at once.
+     *
+     * @param woeIds the WOE IDs to look up
+     * @return the places found, keyed by WOE ID
+     * @throws GeoPlanetException for general errors
+     * @see #getPlaces(Collection)
+     */
+    public Map<Long, Place> getPlaces(long... woeIds) throws GeoPlanetException {
+        List<Long> ids = new ArrayList<Long>(woeIds.length);
+        for (long woeId : woeIds) ids.add(woeId);
+        return getPlaces(ids);
+    }
+
+    /**
+     * Look up several places at once.
+     * <p>
+     * The WOE IDs are split into batches of at most {@link #maxBatchSize},
+     * which are requested in parallel using this client's executor.
+     * Places already in the place cache or store are not requested again.
+     * </p>
+     * <p>
+     * IDs that could not be resolved do not cause an exception. They are
+     * simply absent from the result. NB A deprecated WOE ID is resolved to
+     * its successor, which will have a different ID, so also counts as missing.
+     * </p>
+     *
+     * @param woeIds the WOE IDs to look up
+     * @return the places found, keyed by WOE ID, in the order requested
+     * @throws GeoPlanetException for general errors
+     * @see #setExecutor(ExecutorService)
+     */
+    public Map<Long, Place> getPlaces(Collection<Long> woeIds) throws GeoPlanetException {
+        Set<Long> requested = new LinkedHashSet<Long>(woeIds);
+        Map<Long, Place> found = new HashMap<Long, Place>();
+        List<Long> toFetch = new ArrayList<Long>();
+        for (Long woeId : requested) {
+            if (woeId < 0) continue;
+            Place local = getLocalPlace(woeId);
+            if (local != null) {
+                found.put(woeId, local);
+            } else {
+                toFetch.add(woeId);
+            }
+        }
+
+        if (toFetch.size() <= maxBatchSize) {
+            addAll(found, getBatch(toFetch));
+        } else {
+            List<Future<List<Place>>> batches = new ArrayList<Future<List<Place>>>();
+            for (int i = 0; i < toFetch.size(); i += maxBatchSize) {
+                List<Long> batch = toFetch.subList(i, Math.min(i + maxBatchSize, toFetch.size()));
+                batches.add(submit(() -> getBatch(batch)));
+            }
+            try {
+                for (Future<List<Place>> batch : batches) {
+                    addAll(found, await(batch));
+                }
+            } finally {
+                for (Future<List<Place>> batch : batches) batch.cancel(true);
+            }
+        }
+
+        Map<Long, Place> results = new LinkedHashMap<Long, Place>();
+        for (Long woeId : requested) {
+            Place place = found.get(woeId);
+            if (place != null) results.put(woeId, place);
+        }
+        if (results.size() < requested.size()) {
+            log.debug((requested.size() - results.size()) + " of " + requested.size() + " WOE IDs could not be found");
+        }
+        return results;
+    }
+
+    private static void addAll(Map<Long, Place> map, List<Place> places) {
+        for (Place place : places) map.put(place.getWoeId(), place);
+    }
+
+    /**
+     * Fetch a single batch of places using the places.woeid filter.
+     */
+    private List<Place> getBatch(List<Long> woeIds) throws GeoPlanetException {
+        assert woeIds.size() <= maxBatchSize;
+        List<Place> results = new ArrayList<Place>(woeIds.size());
+        if (woeIds.isEmpty()) return results;
+        StringBuilder uri = new StringBuilder("/places.woeid(");
+        for (int i = 0; i < woeIds.size(); i++) {
+            if (i > 0) uri.append(",");
+            uri.append(woeIds.get(i));
+        }
+        uri.append(");start=0;count=");
+        uri.append(woeIds.size());
+        try {
+            doGetPlaces(uri.toString(), false, true, place -> {
+                save(place);
+                results.add(place);
+            });
+            return results;
+        } catch (PlaceNotFoundException e) {
+            return results;
+        }
+    }
+
+    /**
+     * Use the specified executor for parallel requests. If none is set the
+     * client creates its own pool of {@link #defaultParallelism} threads,
+     * which is shut down by {@link #close()}. Executors set with this
+     * method are not shut down by the client.
      *
-     * @param appId    your application ID
-     * @param language code for the language to use
-     * @throws GeoPlanetException
-     * @see #GeoPlanet(String, String, String)
+     * @param executor the executor to use for parallel requests
      */
-    public GeoPlanet(String appId, String language) throws GeoPlanetException {
-        this(appId, language, defaultServiceUri);
+    public synchronized void setExecutor(ExecutorService executor) {
+        if (executor == null) throw new NullPointerException("executor");
+        if (ownsExecutor) this.executor.shutdown();
+        this.executor = executor;
+        this.ownsExecutor = false;
     }
 
     /**
-     * Create a client for the GeoPlanet service using the specified
-     * application ID, language and service URI.
-     * NB All constructors require network access to check the application
-     * ID and cache localised place types.
-     * The official Yahoo! service URI is http://where.yahooapis.com/v1/
-     *
-     * @param appId      your application ID
-     * @param language   code for the language to use
-     * @param serviceUri base URI for GeoPlanet requests
-     * @throws GeoPlanetException
+     * @return the executor used for parallel requests
      */
-    public GeoPlanet(String appId, String language, String serviceUri) throws GeoPlanetException {
-        this.appId = appId;
-        this.language = language;
-        this.serviceUri = serviceUri;
-        cachePlaceTypes();
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(defaultParallelism, defaultParallelism,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreads("jgeoplanet-"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            ownsExecutor = true;
+        }
+        return executor;
     }
 
-    /**
-     * Return the Yahoo! application ID used by this client.
-     * Application IDs can be obtained from
-     * <a href="http://developer.yahoo.com/wsregapp/">http://developer.yahoo.com/wsregapp/</a>.
-     *
-     * @return the application ID used by this client
-     */
-    public String getApplicationId() {
-        return appId;
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     /**
-     * Returns the language used by this client such as "en-gb".
-     *
-     * @return the language used by this client
+     * Run a task on this client's executor.
+     * A task submitted from a thread that is already running a task for
+     * the same executor is run immediately on that thread instead. Waiting
+     * on it from the pool could otherwise starve the executor. Tasks
+     * submitted from any other thread, e.g. a virtual thread, run in
+     * parallel.
      */
-    public String getLanguage() {
-        return language;
+    <T> Future<T> submit(Callable<T> task) {
+        final ExecutorService executor = getExecutor();
+        if (worker.get() == executor) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            future.run();
+            return future;
+        }
+        return executor.submit(() -> runAsWorker(executor, task));
     }
 
     /**
-     * Returns the base URI used by the client e.g. http://where.yahooapis.com/v1
+     * Run a task, marking the current thread as a worker for an executor.
      *
-     * @return the base URI used by this client
+     * @param executor the executor running the task
      */
-    public String getServiceUri() {
-        return serviceUri;
+    static <T> T runAsWorker(Executor executor, Callable<T> task) throws Exception {
+        Executor was = worker.get();
+        worker.set(executor);
+        try {
+            return task.call();
+        } finally {
+            if (was == null) {
+                worker.remove();
+            } else {
+                worker.set(was);
+            }
+        }
     }
 
     /**
-     * @param woeId the WOE ID to look up
-     * @return the place corresponding to the specified WOE ID
-     * @throws PlaceNotFoundException if the ID is invalid
-     * @throws GeoPlanetException     for general errors
+     * Wait for the result of a parallel request, unwrapping any exception.
      */
-    public Place getPlace(long woeId) throws GeoPlanetException {
+    static <T> T await(Future<T> future) throws GeoPlanetException {
         try {
-            if (woeId < 0) throw new PlaceNotFoundException("WOEID");
-            JSONObject place = doGet("/place/" + woeId, false);
-            return new Place(this, place.getJSONObject("place"));
-        } catch (PlaceNotFoundException e) {
-            assert e.getPlaceName().equals("WOEID");
-            throw new PlaceNotFoundException(woeId + " (WOE ID)");
-        } catch (JSONException e) {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoPlanetException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeoPlanetException) throw (GeoPlanetException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
             throw new GeoPlanetException(e);
         }
     }
@@ -183,14 +1062,29 @@ public class GeoPlanet {
 
     /**
      * Given a location (latitude and longitude), return a place at that location
-     * using the Yahoo Geocode service.
-     * http://developer.yahoo.com/geo/placefinder/guide/requests.html#latitude-longitude
+     * using the client's reverse geocoder. By default this is the Yahoo Geocode
+     * service.
      *
      * @param location the location to search for
      * @return a place at the specified location
-     * @throws GeoPlanetException on error
+     * @throws PlaceNotFoundException if no place could be found
+     * @throws GeoPlanetException     on error
+     * @see #setReverseGeocoder(ReverseGeocoder)
      */
     public Place getPlace(Location location) throws GeoPlanetException {
+        Place place = reverseGeocoder.getPlace(this, location);
+        if (place == null) throw new PlaceNotFoundException(location.toString());
+        return place;
+    }
+
+    /**
+     * Look up the WOE ID of a location using the Yahoo Geocode service.
+     * http://developer.yahoo.com/geo/placefinder/guide/requests.html#latitude-longitude
+     *
+     * @return the WOE ID, or 0 if there are no results
+     * @see RemoteReverseGeocoder
+     */
+    long geocode(Location location) throws GeoPlanetException {
         try {
             StringBuilder sb = new StringBuilder("http://where.yahooapis.com/geocode?");
             sb.append("q=");
@@ -201,10 +1095,12 @@ public class GeoPlanet {
             sb.append("&gflags=R");
             sb.append("&appid=");
             sb.append(appId);
-            JSONObject resp = doHttpGet(sb.toString());
-            Long woeId = resp.getJSONObject("ResultSet").getJSONArray("Results").getJSONObject(0).getLong("woeid");
-            Place p = getPlace(woeId);
-            return p;
+            JSONObject resp = doHttpGet(sb.toString(), Endpoint.GEOCODE);
+            JSONArray results = resp.getJSONObject("ResultSet").optJSONArray("Results");
+            if (results == null || results.length() == 0) return 0;
+            return results.getJSONObject(0).getLong("woeid");
+        } catch (GeoPlanetException e) {
+            throw e;
         } catch (Exception e) {
             throw new GeoPlanetException(e);
         }
@@ -260,9 +1156,10 @@ public class GeoPlanet {
 
     /**
      * @return a Collection of all known PlaceTypes
+     * @throws IllegalStateException if the place types are loaded lazily and could not be
      */
     public Collection<PlaceType> getPlaceTypes() {
-        return placeTypeNameCache.values();
+        return loadedPlaceTypes().getAll();
     }
 
     /**
@@ -270,9 +1167,10 @@ public class GeoPlanet {
      *
      * @return the PlaceType corresponding to the provided name.
      * @throws InvalidPlaceTypeException if the name is invalid
+     * @throws IllegalStateException     if the place types are loaded lazily and could not be
      */
     public PlaceType getPlaceType(String placeTypeName) throws InvalidPlaceTypeException {
-        PlaceType type = placeTypeNameCache.get(placeTypeName);
+        PlaceType type = loadedPlaceTypes().get(placeTypeName);
         if (type == null) throw new InvalidPlaceTypeException(placeTypeName);
         return type;
     }
@@ -283,44 +1181,292 @@ public class GeoPlanet {
      * @param placeTypeCode a valid place type code
      * @return the PlaceType corresponding to the provided code.
      * @throws InvalidPlaceTypeException if the code is invalid
+     * @throws IllegalStateException     if the place types are loaded lazily and could not be
      */
     public PlaceType getPlaceType(int placeTypeCode) throws InvalidPlaceTypeException {
-        PlaceType type = placeTypeCodeCache.get(placeTypeCode);
+        PlaceType type = loadedPlaceTypes().get(placeTypeCode);
         if (type == null) throw new InvalidPlaceTypeException(placeTypeCode + " (code)");
         return type;
     }
 
     /**
-     * Used by the constructor to cache a list of place types.
+     * As {@link #getPlaceType(String)}, but a failure to load the place
+     * types is reported as such.
+     *
+     * @throws GeoPlanetException if the place types have not been loaded and could not be
+     */
+    PlaceType placeType(String placeTypeName) throws GeoPlanetException {
+        placeTypes();
+        return getPlaceType(placeTypeName);
+    }
+
+    /**
+     * As {@link #getPlaceType(int)}, but a failure to load the place
+     * types is reported as such.
+     *
+     * @throws GeoPlanetException if the place types have not been loaded and could not be
+     */
+    PlaceType placeType(int placeTypeCode) throws GeoPlanetException {
+        placeTypes();
+        return getPlaceType(placeTypeCode);
+    }
+
+    /**
+     * @return the client's own instance of a place type from another
+     * client which uses the same service and language
+     */
+    PlaceType bind(PlaceType placeType) {
+        if (placeType.getClient() == this) return placeType;
+        PlaceType bound = placeTypeView().get(placeType.getCode());
+        return (bound != null && bound.sameAs(placeType)) ? bound : new PlaceType(this, placeType);
+    }
+
+    private PlaceTypeRegistry.View placeTypes() throws GeoPlanetException {
+        if (placeTypes.isEmpty()) loadPlaceTypes();
+        return placeTypeView();
+    }
+
+    private PlaceTypeRegistry.View placeTypeView() {
+        PlaceTypeRegistry.View current = placeTypeView;
+        PlaceTypeRegistry.View view = placeTypes.view(this, current);
+        if (view != current) placeTypeView = view;
+        return view;
+    }
+
+    /**
+     * For the public lookups, whose signatures predate lazy loading.
+     */
+    private PlaceTypeRegistry.View loadedPlaceTypes() {
+        try {
+            return placeTypes();
+        } catch (GeoPlanetException e) {
+            throw new IllegalStateException("Could not load place types", e);
+        }
+    }
+
+    /**
+     * Load the place types from the store or the service, unless this or
+     * another client using the same service, language and application ID
+     * already has. Any snapshot is replaced. Loading from the service
+     * checks the application ID, so the types are fetched again by an
+     * eager client with an ID that hasn't been checked, even if another
+     * client has loaded them.
+     * <p>
+     * The store is only used outside the registry's lock, because a
+     * thread reading a place from the store may need the types.
+     * </p>
      *
      * @throws GeoPlanetException
      */
-    private synchronized void cachePlaceTypes() throws GeoPlanetException {
-        if (placeTypeNameCache != null) return;
+    private void loadPlaceTypes() throws GeoPlanetException {
+        if (placeTypes.isLoaded() && placeTypes.isChecked(appId)) return;
         try {
-            placeTypeCodeCache = new HashMap<Integer, PlaceType>();
-            placeTypeNameCache = new HashMap<String, PlaceType>();
-            JSONObject tmp = doGet("/placetypes", false);
-            tmp = tmp.getJSONObject("placeTypes");
-            JSONArray types = tmp.getJSONArray("placeType");
-            for (int i = 0; i < types.length(); i++) {
-                PlaceType type = new PlaceType(this, types.getJSONObject(i));
-                placeTypeCodeCache.put(type.getCode(), type);
-                placeTypeNameCache.put(type.getName(), type);
+            JSONObject stored = getStoredPlaceTypes();
+            JSONObject fetched = null;
+            synchronized (placeTypes) {
+                if (placeTypes.isLoaded() && placeTypes.isChecked(appId)) return;
+                if (stored == null) {
+                    fetched = doGet("/placetypes", false);
+                    placeTypes.checked(appId);
+                }
+                placeTypes.update((stored != null) ? stored : fetched, true);
             }
+            if (fetched != null) storePlaceTypes(fetched);
         } catch (JSONException e) {
             throw new GeoPlanetException(e);
         }
     }
 
+    /**
+     * Load the place types in the background. Lookups meanwhile use the
+     * snapshot, or wait if there isn't one.
+     */
+    private void refreshPlaceTypes() {
+        if (closed) return;
+        try {
+            loadPlaceTypes();
+        } catch (GeoPlanetException e) {
+            log.warn("Could not load place types" + (placeTypes.isEmpty() ? "" : "; using snapshot"), e);
+        }
+    }
+
+    /**
+     * Use the place types bundled with the library for this client's
+     * language, if there are any and no place types are known yet.
+     */
+    private void seedPlaceTypes() throws GeoPlanetException {
+        synchronized (placeTypes) {
+            if (!placeTypes.isEmpty()) return;
+            try {
+                String json = readPlaceTypesSnapshot(language);
+                if (json != null) placeTypes.update(new JSONObject(json), false);
+            } catch (IOException e) {
+                throw new GeoPlanetException(e);
+            } catch (JSONException e) {
+                throw new GeoPlanetException(e);
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot of the /placetypes response bundled for a language,
+     * falling back from e.g. "en-gb" to "en".
+     *
+     * @return the response, or null if there is no snapshot for the language
+     */
+    static String readPlaceTypesSnapshot(String language) throws IOException {
+        String lang = language.toLowerCase(Locale.ENGLISH);
+        String snapshot = placeTypeSnapshots.get(lang);
+        if (snapshot == null) {
+            snapshot = readPlaceTypesResource(lang);
+            placeTypeSnapshots.putIfAbsent(lang, snapshot);
+        }
+        return snapshot.isEmpty() ? null : snapshot;
+    }
+
+    /**
+     * @return the bundled response, or an empty string if there is none
+     */
+    private static String readPlaceTypesResource(String lang) throws IOException {
+        InputStream in = GeoPlanet.class.getResourceAsStream("placetypes-" + lang + ".json");
+        int dash = lang.indexOf('-');
+        if (in == null && dash != -1) {
+            in = GeoPlanet.class.getResourceAsStream("placetypes-" + lang.substring(0, dash) + ".json");
+        }
+        if (in == null) return "";
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) sb.append(line).append('\n');
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private JSONObject getStoredPlaceTypes() throws JSONException {
+        if (placeStore == null) return null;
+        try {
+            String placeTypes = placeStore.getPlaceTypes(serviceUri, language);
+            return (placeTypes == null) ? null : new JSONObject(placeTypes);
+        } catch (IOException e) {
+            log.warn("Could not read from " + placeStore, e);
+            return null;
+        }
+    }
+
+    private void storePlaceTypes(JSONObject placeTypes) {
+        if (placeStore == null) return;
+        try {
+            placeStore.putPlaceTypes(serviceUri, language, placeTypes.toString());
+        } catch (IOException e) {
+            log.warn("Could not write to " + placeStore, e);
+        }
+    }
+
     /**
      * Make a request to the GeoPlanet service.
-     * All network access goes through this method.
+     * All network access goes through this method, or through
+     * {@link #doGetPlaces(String, boolean, boolean, PlaceParser.Handler)}.
      *
      * @throws GeoPlanetException     for general errors
      * @throws PlaceNotFoundException for not found exceptions
      */
     JSONObject doGet(String path, boolean shortForm) throws GeoPlanetException, PlaceNotFoundException {
+        return doHttpGet(serviceUri(path, shortForm), Endpoint.forPath(path));
+    }
+
+    /**
+     * Request a single place from the GeoPlanet service, or straight
+     * from the dump for a client backed by one.
+     *
+     * @throws GeoPlanetException     for general errors
+     * @throws PlaceNotFoundException for not found exceptions
+     */
+    Place doGetPlace(String path) throws GeoPlanetException, PlaceNotFoundException {
+        if (dump != null) {
+            if (closed) throw new IllegalStateException("Client has been closed");
+            return dump.place(this, path);
+        }
+        JSONObject response = doGet(path, false);
+        JSONObject place = response.optJSONObject("place");
+        return new Place(this, (place != null) ? place : response);
+    }
+
+    /**
+     * Request a collection of places from the GeoPlanet service, parsing
+     * the response as it arrives. Each place is passed to the handler as
+     * soon as it has been read, so the whole response is never held in
+     * memory at once, unless it is shared with coalesced requests.
+     *
+     * @param small true if the response has at most {@link #maxCoalescedCount}
+     *              places, so may be coalesced
+     * @return the total size of the collection, or -1 if unknown
+     * @throws GeoPlanetException     for general errors
+     * @throws PlaceNotFoundException for not found exceptions
+     */
+    int doGetPlaces(String path, boolean shortForm, boolean small, PlaceParser.Handler handler)
+            throws GeoPlanetException, PlaceNotFoundException {
+        if (dump != null) {
+            if (closed) throw new IllegalStateException("Client has been closed");
+            return dump.places(this, path, handler);
+        }
+        final String uri = serviceUri(path, shortForm);
+        final Endpoint endpoint = Endpoint.forPath(path);
+        if (!coalescing || !small) return doHttpGetPlaces(uri, endpoint, handler);
+        // Places are collected so that they can be shared with any coalesced requests
+        PlacesResponse response = placesRequests.execute(uri, () -> {
+            PlacesResponse places = new PlacesResponse();
+            places.total = doHttpGetPlaces(uri, endpoint, places.places::add);
+            return places;
+        });
+        for (Place place : response.places) handler.place(place);
+        return response.total;
+    }
+
+    private int doHttpGetPlaces(String uri, Endpoint endpoint, final PlaceParser.Handler handler)
+            throws GeoPlanetException {
+        // Places already passed to the handler can't be taken back, so only retry if there are none
+        final int[] delivered = {0};
+        return withRetries(() -> doHttpGetPlacesOnce(uri, endpoint, place -> {
+            delivered[0]++;
+            handler.place(place);
+        }), () -> delivered[0] == 0);
+    }
+
+    private int doHttpGetPlacesOnce(String uri, Endpoint endpoint, PlaceParser.Handler handler)
+            throws GeoPlanetException {
+        if (closed) throw new IllegalStateException("Client has been closed");
+        Measurement m = new Measurement(endpoint, uri);
+        try {
+            acquire(m);
+            HttpTransport.Response response = transport.open(URIUtil.encodePathQuery(uri));
+            m.response = response;
+            try {
+                checkStatus(response);
+                m.startParse();
+                int total = PlaceParser.parsePlaces(this, response.getReader(), handler);
+                m.endParse();
+                report(m, null);
+                return total;
+            } finally {
+                response.close();
+            }
+        } catch (JSONException e) {
+            throw report(m, new GeoPlanetException(e));
+        } catch (IOException e) {
+            throw report(m, new GeoPlanetException(e));
+        } catch (GeoPlanetException e) {
+            throw report(m, e);
+        } catch (RuntimeException e) {
+            throw report(m, e);
+        } finally {
+            release(m);
+        }
+    }
+
+    private String serviceUri(String path, boolean shortForm) {
         assert path.startsWith("/");
         StringBuilder uri = new StringBuilder(serviceUri);
         uri.append(path);
@@ -334,56 +1480,360 @@ public class GeoPlanet {
         // Don't log appId
         uri.append("&appid=");
         uri.append(appId);
-        return doHttpGet(uri.toString());
+        return uri.toString();
     }
 
     /**
      * Get a JSON object from the specified URI.
      * Factored out of {@link #doGet(String, boolean)} for use with the geocode service.
+     * Concurrent requests for the same URI share a single response, unless
+     * coalescing has been turned off.
      *
      * @param uri
      * @return
      * @throws GeoPlanetException
      * @throws PlaceNotFoundException
      */
-    private JSONObject doHttpGet(String uri) throws GeoPlanetException, PlaceNotFoundException {
+    private JSONObject doHttpGet(String uri, Endpoint endpoint) throws GeoPlanetException, PlaceNotFoundException {
+        if (dump != null) return doDumpGet(uri);
+        if (!coalescing) return doHttpGetWithRetries(uri, endpoint);
+        return objectRequests.execute(uri, () -> doHttpGetWithRetries(uri, endpoint));
+    }
+
+    /**
+     * Answer a request from the dump. Nothing can be gained by limiting,
+     * retrying or reporting it, so it bypasses all of that.
+     */
+    private JSONObject doDumpGet(String uri) throws GeoPlanetException {
+        if (closed) throw new IllegalStateException("Client has been closed");
+        try {
+            HttpTransport.Response response = dump.get(URIUtil.encodePathQuery(uri));
+            checkStatus(response);
+            return new JSONObject(response.getBody());
+        } catch (JSONException e) {
+            throw new GeoPlanetException(e);
+        } catch (IOException e) {
+            throw new GeoPlanetException(e);
+        }
+    }
+
+    private JSONObject doHttpGetWithRetries(String uri, Endpoint endpoint) throws GeoPlanetException {
+        return withRetries(() -> hedging ? doHttpGetHedged(uri, endpoint) : doHttpGetOnce(uri, endpoint), () -> true);
+    }
+
+    /**
+     * Make a request, retrying transient failures according to the retry
+     * policy, and failing fast while the circuit breaker is open.
+     *
+     * @param retryable whether the request may still be retried
+     */
+    private <T> T withRetries(SingleFlight.Request<T> request, BooleanSupplier retryable) throws GeoPlanetException {
+        RetryPolicy policy = retryPolicy;
+        for (int attempt = 1; ; attempt++) {
+            CircuitBreaker breaker = circuitBreaker;
+            if (breaker != null && !breaker.allowRequest()) {
+                throw new CircuitOpenException("GeoPlanet service appears to be down; request not sent");
+            }
+            try {
+                T result = request.call();
+                if (breaker != null) breaker.recordSuccess();
+                return result;
+            } catch (GeoPlanetException e) {
+                if (breaker != null) {
+                    if (isServiceFailure(e)) {
+                        breaker.recordFailure();
+                    } else if (e instanceof ThrottledException || e.getCause() instanceof InterruptedException) {
+                        breaker.recordIgnored();
+                    } else {
+                        breaker.recordSuccess();
+                    }
+                }
+                if (!isTransient(e) || attempt >= policy.getMaxAttempts() || !retryable.getAsBoolean()) throw e;
+                retriedRequests.increment();
+                log.debug("Retrying request after failure: " + e.getMessage());
+                try {
+                    TimeUnit.NANOSECONDS.sleep(policy.backoffNanos(attempt));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (breaker != null) breaker.recordIgnored();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return true if the request might succeed if retried
+     */
+    private static boolean isTransient(GeoPlanetException e) {
+        if (e instanceof ThrottledException) return ((ThrottledException) e).getStatusCode() != -1;
+        return e instanceof ServerErrorException || e.getCause() instanceof IOException;
+    }
+
+    /**
+     * @return true if the failure suggests that the service is down
+     */
+    private static boolean isServiceFailure(GeoPlanetException e) {
+        if (e instanceof ThrottledException) return ((ThrottledException) e).getStatusCode() == 503;
+        return e instanceof ServerErrorException || e.getCause() instanceof IOException;
+    }
+
+    /**
+     * Make a request, and if it is slower than 95% of requests to the same
+     * endpoint, and than the minimum hedge delay, send an identical one.
+     * Whichever succeeds first wins. The loser runs to completion in the
+     * background.
+     */
+    private JSONObject doHttpGetHedged(String uri, Endpoint endpoint) throws GeoPlanetException {
+        LatencyHistogram histogram = latencies.get(endpoint);
+        if (histogram.getCount() < hedgeMinSamples) return doHttpGetOnce(uri, endpoint);
+        long delay = Math.max(TimeUnit.MICROSECONDS.toNanos(histogram.getPercentile(95)), minHedgeDelayNanos);
+        CompletableFuture<JSONObject> first = doHttpGetAsync(uri, endpoint);
         try {
-            GetMethod get = new GetMethod(URIUtil.encodePathQuery(uri.toString()));
-            HttpClient httpClient = new HttpClient();
-            httpClient.executeMethod(get);
-            String response = get.getResponseBodyAsString();
-            int responseCode = get.getStatusCode();
-            if (responseCode != 200) {
-                log.trace(responseCode + " response code from server");
+            return first.get(delay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            hedgedRequests.increment();
+        } catch (ExecutionException e) {
+            return SingleFlight.await(first);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoPlanetException(e);
+        }
+        CompletableFuture<JSONObject> second = doHttpGetAsync(uri, endpoint);
+        final CompletableFuture<JSONObject> winner = new CompletableFuture<JSONObject>();
+        final AtomicInteger failures = new AtomicInteger();
+        BiConsumer<JSONObject, Throwable> race = (json, failure) -> {
+            if (failure == null) {
+                winner.complete(json);
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(failure);
             }
-            switch (get.getStatusCode()) {
-                case 200:
-                    break;
-                case 400:
-                    throw new InvalidAppIdException(appId);
-                case 404:
-                    // TODO: Collections throw this sometimes -- missing data?
-                    throw new PlaceNotFoundException("WOEID");
-                default:
-                    throw new GeoPlanetException("Unexpected response from GeoPlanet server: " + get.getStatusLine());
+        };
+        first.whenComplete(race);
+        second.whenComplete(race);
+        return SingleFlight.await(winner);
+    }
+
+    private CompletableFuture<JSONObject> doHttpGetAsync(final String uri, final Endpoint endpoint) {
+        final CompletableFuture<JSONObject> future = new CompletableFuture<JSONObject>();
+        ExecutorService executor;
+        synchronized (this) {
+            if (hedgeExecutor == null) hedgeExecutor = Executors.newCachedThreadPool(daemonThreads("jgeoplanet-hedge-"));
+            executor = hedgeExecutor;
+        }
+        executor.execute(() -> {
+            try {
+                future.complete(doHttpGetOnce(uri, endpoint));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
             }
+        });
+        return future;
+    }
+
+    private JSONObject doHttpGetOnce(String uri, Endpoint endpoint) throws GeoPlanetException, PlaceNotFoundException {
+        if (closed) throw new IllegalStateException("Client has been closed");
+        Measurement m = new Measurement(endpoint, uri);
+        try {
+            acquire(m);
+            HttpTransport.Response get = transport.get(URIUtil.encodePathQuery(uri));
+            m.response = get;
+            checkStatus(get);
+            String response = get.getBody();
             if (response.equals("null")) {
                 // TODO: Never a legitimate response?
                 throw new GeoPlanetException("Server responded with \"null\" on " + uri);
             }
             try {
-                return new JSONObject(response);
+                m.startParse();
+                JSONObject json = new JSONObject(response);
+                m.endParse();
+                report(m, null);
+                return json;
             } catch (JSONException e) {
                 log.info("Non-JSON response from server: [" + response + "]");
                 throw new GeoPlanetException(e);
             }
         } catch (HttpException e) {
-            throw new GeoPlanetException(e);
+            throw report(m, new GeoPlanetException(e));
         } catch (IOException e) {
+            throw report(m, new GeoPlanetException(e));
+        } catch (GeoPlanetException e) {
+            throw report(m, e);
+        } catch (RuntimeException e) {
+            throw report(m, e);
+        } finally {
+            release(m);
+        }
+    }
+
+    /**
+     * Wait for the concurrency and rate limits to allow a request.
+     * The concurrency limit comes first, so that a request which times out
+     * waiting for it doesn't use up a rate limit token. Once acquired, the
+     * concurrency permit is given back by {@link #release(Measurement)}
+     * even if the rate limit then refuses the request.
+     *
+     * @throws ThrottledException if the wait would be longer than the maximum
+     */
+    private void acquire(Measurement m) throws GeoPlanetException {
+        long deadline = System.nanoTime() + maxQueueWaitNanos;
+        boolean queued = false;
+        try {
+            if (!concurrencyLimiter.tryAcquire()) {
+                queued = true;
+                queuedRequests.increment();
+                if (!concurrencyLimiter.acquire(maxQueueWaitNanos)) {
+                    throw throttled("Concurrency limit of " + concurrencyLimiter.getLimit() + " requests exceeded");
+                }
+            }
+            m.acquired = true;
+            RateLimiter limiter = rateLimiter;
+            if (limiter != null) {
+                long wait = limiter.reserve(deadline - System.nanoTime());
+                if (wait < 0) {
+                    throw throttled("Rate limit of " + limiter.getRate() + " requests per second exceeded");
+                }
+                if (wait > 0) {
+                    if (!queued) queuedRequests.increment();
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new GeoPlanetException(e);
         }
     }
 
+    /**
+     * Finish a request, adapting the concurrency limit to its outcome.
+     * Network errors say nothing about the service's quota, so are ignored.
+     */
+    private void release(Measurement m) {
+        if (!m.acquired) return;
+        m.acquired = false;
+        if (m.response == null) {
+            concurrencyLimiter.cancel();
+        } else {
+            concurrencyLimiter.release(isThrottled(m.response.statusCode));
+        }
+    }
+
+    private ThrottledException throttled(String message) {
+        return throttled(message, -1);
+    }
+
+    private ThrottledException throttled(String message, int statusCode) {
+        throttledRequests.increment();
+        return new ThrottledException(message, statusCode);
+    }
+
+    /**
+     * Yahoo! signals that a quota has been exceeded with 999.
+     */
+    private static boolean isThrottled(int statusCode) {
+        return statusCode == 429 || statusCode == 503 || statusCode == 999;
+    }
+
+    /**
+     * Tell the listeners that a request has completed.
+     *
+     * @return the failure, if any, for rethrowing
+     */
+    private <T extends Throwable> T report(Measurement m, T failure) {
+        if (failure == null) latencies.get(m.endpoint).record(System.nanoTime() - m.start, TimeUnit.NANOSECONDS);
+        if (listeners.isEmpty()) return failure;
+        HttpTransport.Response response = m.response;
+        RequestEvent event = new RequestEvent(m.endpoint,
+                m.uri.replaceAll("([?&]appid=)[^&]*", "$1REDACTED"),
+                (response == null) ? -1 : response.statusCode,
+                System.nanoTime() - m.start,
+                m.parseNanos,
+                (response == null) ? -1 : response.getBytesReceived(),
+                failure);
+        for (GeoPlanetListener listener : listeners) {
+            try {
+                listener.requestCompleted(event);
+            } catch (RuntimeException e) {
+                log.warn("Listener " + listener + " failed", e);
+            }
+        }
+        return failure;
+    }
+
+    private void checkStatus(HttpTransport.Response response) throws GeoPlanetException {
+        int responseCode = response.statusCode;
+        if (responseCode != 200) {
+            log.trace(responseCode + " response code from server");
+        }
+        switch (responseCode) {
+            case 200:
+                break;
+            case 400:
+                throw new InvalidAppIdException(appId);
+            case 404:
+                // TODO: Collections throw this sometimes -- missing data?
+                throw new PlaceNotFoundException("WOEID");
+            default:
+                if (isThrottled(responseCode)) {
+                    throw throttled("GeoPlanet server is throttling requests: " + response.statusLine, responseCode);
+                }
+                if (responseCode >= 500) throw new ServerErrorException(responseCode, response.statusLine);
+                throw new GeoPlanetException("Unexpected response from GeoPlanet server: " + response.statusLine);
+        }
+    }
+
+    /**
+     * Timings for a single request, for the listeners.
+     */
+    private static class Measurement {
+        final Endpoint endpoint;
+        final String uri;
+        final long start = System.nanoTime();
+        HttpTransport.Response response;
+        boolean acquired;
+        long parseStart;
+        long parseNanos;
+
+        Measurement(Endpoint endpoint, String uri) {
+            this.endpoint = endpoint;
+            this.uri = uri;
+        }
+
+        void startParse() {
+            parseStart = System.nanoTime();
+        }
+
+        void endParse() {
+            parseNanos = System.nanoTime() - parseStart;
+        }
+    }
+
+    /**
+     * A parsed collection of places, shared by coalesced requests.
+     */
+    private static class PlacesResponse {
+        final List<Place> places = new ArrayList<Place>();
+        int total;
+    }
+
+    /**
+     * Release the connections held by this client.
+     * The client cannot be used after it has been closed.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        synchronized (this) {
+            if (ownsExecutor) executor.shutdownNow();
+            if (hedgeExecutor != null) hedgeExecutor.shutdownNow();
+        }
+        transport.close();
+    }
+
     /**
      * @see java.lang.Object#toString()
      */
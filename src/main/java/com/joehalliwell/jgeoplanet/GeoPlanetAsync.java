@@ -0,0 +1,273 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A non-blocking facade over a {@link GeoPlanet} client.
+ * <p>
+ * Each method runs the corresponding blocking call on an executor and
+ * returns a {@link CompletableFuture}. Failures complete the future
+ * exceptionally with the {@link GeoPlanetException} that the blocking
+ * call would have thrown.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * GeoPlanetAsync async = GeoPlanetAsync.withVirtualThreads(client);
+ * async.getPlace(19344).thenCompose(async::getParent).thenAccept(System.out::println);
+ * </pre>
+ * </p>
+ * <p>
+ * NB The number of requests actually on the wire at once is still limited
+ * by the client's connection pool. See {@link GeoPlanet#setMaxConnectionsPerHost(int)}.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class GeoPlanetAsync implements Closeable {
+
+    private final GeoPlanet client;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Create an async facade which runs requests on the client's executor.
+     *
+     * @param client the client to use
+     * @see GeoPlanet#getExecutor()
+     */
+    public GeoPlanetAsync(GeoPlanet client) {
+        this(client, client.getExecutor());
+    }
+
+    /**
+     * Create an async facade which runs requests on the specified executor.
+     *
+     * @param client   the client to use
+     * @param executor the executor on which to run requests
+     */
+    public GeoPlanetAsync(GeoPlanet client, Executor executor) {
+        this(client, executor, false);
+    }
+
+    private GeoPlanetAsync(GeoPlanet client, Executor executor, boolean ownsExecutor) {
+        if (executor == null) throw new NullPointerException("executor");
+        this.client = client;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Create an async facade which runs each request on its own virtual
+     * thread, so that very many requests may be in flight at once.
+     * Virtual threads require Java 21 or later. On older JVMs this falls
+     * back to the client's executor.
+     *
+     * @param client the client to use
+     * @return an async facade
+     * @see #isVirtualThreadSupported()
+     */
+    public static GeoPlanetAsync withVirtualThreads(GeoPlanet client) {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            client.log.info("Virtual threads are not supported by this JVM. Using the client executor.");
+            return new GeoPlanetAsync(client);
+        }
+        return new GeoPlanetAsync(client, executor, true);
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads; false otherwise
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isVirtualThreadSupported()) return null;
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the blocking client underlying this facade
+     */
+    public GeoPlanet getClient() {
+        return client;
+    }
+
+    /**
+     * @see GeoPlanet#getPlace(long)
+     */
+    public CompletableFuture<Place> getPlace(long woeId) {
+        return submit(() -> client.getPlace(woeId));
+    }
+
+    /**
+     * @see GeoPlanet#getPlace(String)
+     */
+    public CompletableFuture<Place> getPlace(String query) {
+        return submit(() -> client.getPlace(query));
+    }
+
+    /**
+     * @see GeoPlanet#getPlace(Location)
+     */
+    public CompletableFuture<Place> getPlace(Location location) {
+        return submit(() -> client.getPlace(location));
+    }
+
+    /**
+     * @see GeoPlanet#getPlaces(long...)
+     */
+    public CompletableFuture<Map<Long, Place>> getPlaces(long... woeIds) {
+        return submit(() -> client.getPlaces(woeIds));
+    }
+
+    /**
+     * @see GeoPlanet#getPlaces(Collection)
+     */
+    public CompletableFuture<Map<Long, Place>> getPlaces(Collection<Long> woeIds) {
+        return submit(() -> client.getPlaces(woeIds));
+    }
+
+    /**
+     * @see GeoPlanet#getPlaces(String)
+     */
+    public CompletableFuture<List<Place>> getPlaces(String query) {
+        return submit(() -> client.getPlaces(query).get());
+    }
+
+    /**
+     * @see PlaceCollection#get()
+     */
+    public CompletableFuture<List<Place>> get(PlaceCollection places) {
+        return submit(places::get);
+    }
+
+    /**
+     * Fetch all the places in a collection, paging in parallel. Unless the
+     * facade runs on the client's own executor, the pages are fetched on
+     * that executor while the facade's thread waits.
+     *
+     * @see PlaceCollection#getAll(int)
+     */
+    public CompletableFuture<List<Place>> getAll(PlaceCollection places, int parallelism) {
+        return submit(() -> places.getAll(parallelism));
+    }
+
+    /**
+     * @see PlaceCollection#get(int, int)
+     */
+    public CompletableFuture<List<Place>> get(PlaceCollection places, int start, int count) {
+        return submit(() -> places.get(start, count));
+    }
+
+    /**
+     * @see Place#getLongForm()
+     */
+    public CompletableFuture<Place> getLongForm(Place place) {
+        if (place.isLongForm()) return CompletableFuture.completedFuture(place);
+        return submit(place::getLongForm);
+    }
+
+    /**
+     * @see Place#getParent()
+     */
+    public CompletableFuture<Place> getParent(Place place) {
+        return submit(place::getParent);
+    }
+
+    /**
+     * @see Place#getCommonAncestor(Place...)
+     */
+    public CompletableFuture<Place> getCommonAncestor(Place place, Place... others) {
+        return submit(() -> place.getCommonAncestor(others));
+    }
+
+    /**
+     * @see Place#getAncestors()
+     */
+    public CompletableFuture<List<Place>> getAncestors(Place place) {
+        return get(place.getAncestors());
+    }
+
+    /**
+     * @see Place#getChildren()
+     */
+    public CompletableFuture<List<Place>> getChildren(Place place) {
+        return get(place.getChildren());
+    }
+
+    /**
+     * @see Place#getDescendents()
+     */
+    public CompletableFuture<List<Place>> getDescendents(Place place) {
+        return get(place.getDescendents());
+    }
+
+    /**
+     * @see Place#getNeighbors()
+     */
+    public CompletableFuture<List<Place>> getNeighbors(Place place) {
+        return get(place.getNeighbors());
+    }
+
+    /**
+     * @see Place#getSiblings()
+     */
+    public CompletableFuture<List<Place>> getSiblings(Place place) {
+        return get(place.getSiblings());
+    }
+
+    /**
+     * @see Place#getBelongTos()
+     */
+    public CompletableFuture<List<Place>> getBelongTos(Place place) {
+        return get(place.getBelongTos());
+    }
+
+    private <T> CompletableFuture<T> submit(Request<T> request) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            if (future.isDone()) return;
+            try {
+                future.complete(GeoPlanet.runAsWorker(executor, request::call));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Shut down the executor if it was created by this facade.
+     * The underlying client is not closed.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) ((ExecutorService) executor).shutdown();
+    }
+
+    /**
+     * A blocking call to the GeoPlanet service.
+     */
+    private interface Request<T> {
+        T call() throws GeoPlanetException;
+    }
+}
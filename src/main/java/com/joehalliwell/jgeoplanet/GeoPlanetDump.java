@@ -0,0 +1,551 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An in-memory copy of the GeoPlanet Data dump published by Yahoo!,
+ * which lets a {@link GeoPlanet} client work without any network access.
+ * See {@link GeoPlanet#GeoPlanet(GeoPlanetDump)}.
+ * <p>
+ * The dump is a directory of tab-separated files:
+ * <ul>
+ * <li><code>geoplanet_places_<em>version</em>.tsv</code>: WOE_ID, ISO, Name, Language, PlaceType, Parent_ID</li>
+ * <li><code>geoplanet_aliases_<em>version</em>.tsv</code>: WOE_ID, Name, Name_Type, Language (optional)</li>
+ * <li><code>geoplanet_adjacencies_<em>version</em>.tsv</code>: Place_WOE_ID, Place_ISO, Neighbour_WOE_ID, Neighbour_ISO (optional)</li>
+ * </ul>
+ * Places are held in primitive arrays sorted by WOE ID, with the child and
+ * neighbour relations in compressed adjacency form, so millions of places
+ * fit in a modest heap.
+ * </p>
+ * <p>
+ * The dump contains no centroids or bounding boxes, so places are only
+ * ever available in short form. Belongtos are approximated by ancestors.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class GeoPlanetDump {
+
+    private final File directory;
+    private final int size;
+    private final long[] woeIds;
+    private final int[] parents;
+    private final short[] types;
+    private final String[] names;
+    private final int[] childStart;
+    private final int[] children;
+    private final int[] neighbourStart;
+    private final int[] neighbours;
+    private final String[] nameKeys;
+    private final int[] nameRows;
+    private final String placeTypesJson;
+    private final Map<String, Integer> placeTypeCodes = new HashMap<String, Integer>();
+    private final String[] placeTypeNames;
+
+    /**
+     * Load a dump from the specified directory.
+     *
+     * @param directory a directory containing the dump's TSV files
+     * @throws IOException if the files cannot be read
+     */
+    public GeoPlanetDump(File directory) throws IOException {
+        this.directory = directory;
+        this.placeTypesJson = readPlaceTypes();
+        this.placeTypeNames = parsePlaceTypes(placeTypesJson, placeTypeCodes);
+
+        // Places
+        File placesFile = find(directory, "places", true);
+        Columns places = new Columns();
+        BufferedReader reader = open(placesFile);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = split(line);
+                if (fields.length < 6 || !isNumber(fields[0])) continue;
+                places.add(Long.parseLong(fields[0]), fields[2].intern(),
+                        Math.max(0, placeTypeCode(fields[4])), parseLong(fields[5]));
+            }
+        } finally {
+            reader.close();
+        }
+        places.sort();
+        size = places.size;
+        woeIds = Arrays.copyOf(places.woeIds, size);
+        types = Arrays.copyOf(places.types, size);
+        names = Arrays.copyOf(places.names, size);
+        parents = new int[size];
+        for (int i = 0; i < size; i++) {
+            long parentId = places.parentIds[i];
+            parents[i] = (parentId == woeIds[i]) ? -1 : row(parentId);
+        }
+
+        // Children, in compressed adjacency form
+        childStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            if (parents[i] != -1) childStart[parents[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) childStart[i + 1] += childStart[i];
+        children = new int[childStart[size]];
+        int[] fill = Arrays.copyOf(childStart, size);
+        for (int i = 0; i < size; i++) {
+            if (parents[i] != -1) children[fill[parents[i]]++] = i;
+        }
+
+        // Neighbours
+        Pairs adjacencies = new Pairs();
+        File adjacenciesFile = find(directory, "adjacencies", false);
+        if (adjacenciesFile != null) {
+            reader = open(adjacenciesFile);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = split(line);
+                    if (fields.length < 3 || !isNumber(fields[0])) continue;
+                    int from = row(Long.parseLong(fields[0]));
+                    int to = row(parseLong(fields[2]));
+                    if (from != -1 && to != -1) adjacencies.add(from, to);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        neighbourStart = new int[size + 1];
+        for (int i = 0; i < adjacencies.size; i++) neighbourStart[adjacencies.from[i] + 1]++;
+        for (int i = 0; i < size; i++) neighbourStart[i + 1] += neighbourStart[i];
+        neighbours = new int[adjacencies.size];
+        fill = Arrays.copyOf(neighbourStart, size);
+        for (int i = 0; i < adjacencies.size; i++) {
+            neighbours[fill[adjacencies.from[i]]++] = adjacencies.to[i];
+        }
+
+        // Names and aliases, for searching
+        Names index = new Names();
+        for (int i = 0; i < size; i++) index.add(names[i], i);
+        File aliasesFile = find(directory, "aliases", false);
+        if (aliasesFile != null) {
+            reader = open(aliasesFile);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = split(line);
+                    if (fields.length < 2 || !isNumber(fields[0])) continue;
+                    int row = row(Long.parseLong(fields[0]));
+                    if (row != -1) index.add(fields[1], row);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        index.sort();
+        nameKeys = Arrays.copyOf(index.keys, index.size);
+        nameRows = Arrays.copyOf(index.rows, index.size);
+    }
+
+    /**
+     * @return the directory the dump was loaded from
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of places in the dump
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the dump contains the specified place; false otherwise
+     */
+    public boolean contains(long woeId) {
+        return row(woeId) != -1;
+    }
+
+    /**
+     * A URI standing in for the service URI of clients using this dump.
+     */
+    String getServiceUri() {
+        String uri = directory.toURI().toString();
+        return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+    }
+
+    String getPlaceTypesJson() {
+        return placeTypesJson;
+    }
+
+    /**
+     * @return the row holding the specified place, or -1
+     */
+    int row(long woeId) {
+        int row = Arrays.binarySearch(woeIds, 0, size, woeId);
+        return row < 0 ? -1 : row;
+    }
+
+    long woeId(int row) {
+        return woeIds[row];
+    }
+
+    String name(int row) {
+        return names[row];
+    }
+
+    int placeTypeCode(int row) {
+        return types[row];
+    }
+
+    String placeTypeName(int code) {
+        String name = (code < placeTypeNames.length) ? placeTypeNames[code] : null;
+        return (name == null) ? placeTypeNames[0] : name;
+    }
+
+    /**
+     * @return the code for a place type name, or -1 if it is unknown
+     */
+    int placeTypeCode(String placeTypeName) {
+        Integer code = placeTypeCodes.get(normalise(placeTypeName));
+        return (code == null) ? -1 : code;
+    }
+
+    int parent(int row) {
+        return parents[row];
+    }
+
+    int[] children(int row) {
+        return Arrays.copyOfRange(children, childStart[row], childStart[row + 1]);
+    }
+
+    int[] neighbours(int row) {
+        return Arrays.copyOfRange(neighbours, neighbourStart[row], neighbourStart[row + 1]);
+    }
+
+    int[] siblings(int row) {
+        int parent = parents[row];
+        if (parent == -1) return new int[0];
+        int[] siblings = new int[childStart[parent + 1] - childStart[parent]];
+        int count = 0;
+        for (int i = childStart[parent]; i < childStart[parent + 1]; i++) {
+            int sibling = children[i];
+            if (sibling != row && types[sibling] == types[row]) siblings[count++] = sibling;
+        }
+        return Arrays.copyOf(siblings, count);
+    }
+
+    /**
+     * @return the ancestors of a place, from smallest to largest
+     */
+    int[] ancestors(int row) {
+        int count = 0;
+        for (int p = parents[row]; p != -1 && count < size; p = parents[p]) count++;
+        int[] ancestors = new int[count];
+        int i = 0;
+        for (int p = parents[row]; i < count; p = parents[p]) ancestors[i++] = p;
+        return ancestors;
+    }
+
+    /**
+     * @return the descendants of a place, breadth first
+     */
+    int[] descendants(int row) {
+        int[] descendants = new int[16];
+        int count = 0;
+        Deque<Integer> frontier = new ArrayDeque<Integer>();
+        frontier.add(row);
+        // Bounded in case the dump has a cycle
+        while (!frontier.isEmpty() && count < size) {
+            int next = frontier.remove();
+            for (int i = childStart[next]; i < childStart[next + 1] && count < size; i++) {
+                if (count == descendants.length) descendants = Arrays.copyOf(descendants, count * 2);
+                descendants[count++] = children[i];
+                frontier.add(children[i]);
+            }
+        }
+        return Arrays.copyOf(descendants, count);
+    }
+
+    /**
+     * @return the smallest common ancestor of the specified places, or -1
+     */
+    int commonAncestor(int[] rows) {
+        int common = rows[0];
+        for (int i = 1; i < rows.length && common != -1; i++) {
+            int other = rows[i];
+            int depth = depth(common);
+            int otherDepth = depth(other);
+            while (depth > otherDepth) {
+                common = parents[common];
+                depth--;
+            }
+            while (otherDepth > depth) {
+                other = parents[other];
+                otherDepth--;
+            }
+            for (int steps = 0; common != other; steps++) {
+                // Places in separate trees, or a cycle, have no common ancestor
+                if (common == -1 || other == -1 || steps == size) return -1;
+                common = parents[common];
+                other = parents[other];
+            }
+        }
+        return common;
+    }
+
+    /**
+     * @return the number of ancestors of a place, at most the size of the dump
+     */
+    private int depth(int row) {
+        int depth = 0;
+        for (int p = parents[row]; p != -1 && depth < size; p = parents[p]) depth++;
+        return depth;
+    }
+
+    /**
+     * Find places by name or alias, ignoring case. A trailing asterisk
+     * matches any place whose name starts with the term.
+     *
+     * @return matching places, primary names first, without duplicates
+     */
+    int[] search(String term) {
+        boolean prefix = term.endsWith("*");
+        String key = normaliseName(prefix ? term.substring(0, term.length() - 1) : term);
+        int from = Arrays.binarySearch(nameKeys, key);
+        if (from < 0) from = -from - 1;
+        while (from > 0 && nameKeys[from - 1].equals(key)) from--;
+        int[] matches = new int[8];
+        int count = 0;
+        for (int i = from; i < nameKeys.length; i++) {
+            if (prefix ? !nameKeys[i].startsWith(key) : !nameKeys[i].equals(key)) break;
+            if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+            matches[count++] = nameRows[i];
+        }
+        // Places whose own name matches come first
+        int[] results = new int[count];
+        int n = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                int row = matches[i];
+                boolean primary = prefix ? normaliseName(names[row]).startsWith(key)
+                        : normaliseName(names[row]).equals(key);
+                if (primary == (pass == 0) && indexOf(results, n, row) == -1) results[n++] = row;
+            }
+        }
+        return Arrays.copyOf(results, n);
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static String normalise(String placeTypeName) {
+        String name = placeTypeName.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z]", "");
+        // Abbreviations used in the dump
+        if (name.equals("zip")) return "postalcode";
+        if (name.equals("poi")) return "pointofinterest";
+        if (name.equals("localadmin")) return "localadministrativearea";
+        return name;
+    }
+
+    static String normaliseName(String name) {
+        return name.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String readPlaceTypes() throws IOException {
+        String json = GeoPlanet.readPlaceTypesSnapshot("en");
+        if (json == null) throw new IOException("Missing place types resource");
+        return json;
+    }
+
+    /**
+     * @return place type names indexed by code
+     */
+    private static String[] parsePlaceTypes(String json, Map<String, Integer> codes) throws IOException {
+        try {
+            JSONArray types = new JSONObject(json).getJSONObject("placeTypes").getJSONArray("placeType");
+            String[] names = new String[0];
+            for (int i = 0; i < types.length(); i++) {
+                JSONObject type = types.getJSONObject(i);
+                int code = type.getJSONObject("placeTypeName attrs").getInt("code");
+                String name = type.getString("placeTypeName");
+                if (code >= names.length) names = Arrays.copyOf(names, code + 1);
+                names[code] = name;
+                codes.put(normalise(name), code);
+            }
+            return names;
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static File find(File directory, String kind, boolean required) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName().toLowerCase(Locale.ENGLISH);
+                if (name.contains(kind) && name.endsWith(".tsv")) return file;
+            }
+        }
+        if (required) throw new IOException("No " + kind + " file in " + directory);
+        return null;
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Split a line of TSV, removing any quotes around the fields.
+     */
+    static String[] split(String line) {
+        String[] fields = line.split("\t", -1);
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i];
+            if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+                fields[i] = field.substring(1, field.length() - 1);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isNumber(String field) {
+        if (field.isEmpty()) return false;
+        for (int i = 0; i < field.length(); i++) {
+            if (!Character.isDigit(field.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static long parseLong(String field) {
+        return isNumber(field) ? Long.parseLong(field) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoPlanetDump [directory=" + directory + ", size=" + size + "]";
+    }
+
+    /**
+     * Growable columns of place data, used while loading.
+     */
+    private static class Columns {
+        long[] woeIds = new long[1024];
+        long[] parentIds = new long[1024];
+        short[] types = new short[1024];
+        String[] names = new String[1024];
+        int size = 0;
+
+        void add(long woeId, String name, int type, long parentId) {
+            if (size == woeIds.length) {
+                int capacity = size * 2;
+                woeIds = Arrays.copyOf(woeIds, capacity);
+                parentIds = Arrays.copyOf(parentIds, capacity);
+                types = Arrays.copyOf(types, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            woeIds[size] = woeId;
+            parentIds[size] = parentId;
+            types[size] = (short) type;
+            names[size] = name;
+            size++;
+        }
+
+        /**
+         * Sort by WOE ID. Dumps are usually sorted already.
+         */
+        void sort() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) sorted = woeIds[i - 1] <= woeIds[i];
+            if (sorted) return;
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(woeIds[a], woeIds[b]));
+            long[] sortedIds = new long[size];
+            long[] sortedParents = new long[size];
+            short[] sortedTypes = new short[size];
+            String[] sortedNames = new String[size];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = woeIds[order[i]];
+                sortedParents[i] = parentIds[order[i]];
+                sortedTypes[i] = types[order[i]];
+                sortedNames[i] = names[order[i]];
+            }
+            woeIds = sortedIds;
+            parentIds = sortedParents;
+            types = sortedTypes;
+            names = sortedNames;
+        }
+    }
+
+    /**
+     * Growable pairs of rows, used while loading.
+     */
+    private static class Pairs {
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int size = 0;
+
+        void add(int a, int b) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = a;
+            to[size] = b;
+            size++;
+        }
+    }
+
+    /**
+     * Growable name index, used while loading.
+     */
+    private static class Names {
+        String[] keys = new String[1024];
+        int[] rows = new int[1024];
+        int size = 0;
+
+        void add(String name, int row) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            keys[size] = normaliseName(name);
+            rows[size] = row;
+            size++;
+        }
+
+        void sort() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> {
+                int c = keys[a].compareTo(keys[b]);
+                return (c != 0) ? c : Integer.compare(rows[a], rows[b]);
+            });
+            String[] sortedKeys = new String[size];
+            int[] sortedRows = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedKeys[i] = keys[order[i]];
+                sortedRows[i] = rows[order[i]];
+            }
+            keys = sortedKeys;
+            rows = sortedRows;
+        }
+    }
+}
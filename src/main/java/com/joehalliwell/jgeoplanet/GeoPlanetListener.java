@@ -0,0 +1,37 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Receives notifications of the requests made by a {@link GeoPlanet}
+ * client, e.g. for metrics or tracing. Listeners are called on the thread
+ * that made the request, so they should be fast and thread safe. Any
+ * exception thrown by a listener is logged and otherwise ignored.
+ * <p>
+ * Example:
+ * <pre>
+ * MetricsRecorder metrics = new MetricsRecorder();
+ * client.addListener(metrics);
+ * </pre>
+ * </p>
+ *
+ * @author Joe Halliwell
+ * @see MetricsRecorder
+ */
+public interface GeoPlanetListener {
+
+    /**
+     * Called when a request to the service completes, whether or not it succeeded.
+     *
+     * @param event details of the request
+     */
+    void requestCompleted(RequestEvent event);
+
+    /**
+     * Called when a place is looked up by WOE ID in the place cache and
+     * persistent store, if the client has either.
+     *
+     * @param woeId the WOE ID looked up
+     * @param hit   true if the place was found; false if it must be fetched
+     */
+    default void cacheLookup(long woeId, boolean hit) {
+    }
+}
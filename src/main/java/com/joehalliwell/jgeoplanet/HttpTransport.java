@@ -0,0 +1,157 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+/**
+ * The HTTP layer underneath a {@link GeoPlanet} client.
+ * All network access made by a client goes through its transport, so
+ * alternative implementations can be swapped in e.g. for testing.
+ *
+ * @author Joe Halliwell
+ */
+interface HttpTransport {
+
+    /**
+     * Perform a GET request. Implementations must be thread safe.
+     *
+     * @param uri an encoded URI
+     * @return the response, whatever its status code
+     * @throws IOException on network errors
+     */
+    Response get(String uri) throws IOException;
+
+    /**
+     * Perform a GET request, leaving the body to be read as a stream.
+     * The caller must close the response. By default the body is read
+     * in full by {@link #get(String)}.
+     *
+     * @param uri an encoded URI
+     * @return the response, whatever its status code
+     * @throws IOException on network errors
+     */
+    default Response open(String uri) throws IOException {
+        return get(uri);
+    }
+
+    /**
+     * Release any resources (e.g. pooled connections) held by this transport.
+     */
+    void close();
+
+    /**
+     * An HTTP response, with its body either read in full or still
+     * to be streamed.
+     */
+    class Response implements Closeable {
+        final int statusCode;
+        final String statusLine;
+        private final String body;
+        private final long length;
+        private final CountingInputStream stream;
+        private final Charset charset;
+        private final Runnable release;
+
+        Response(int statusCode, String statusLine, String body) {
+            this(statusCode, statusLine, body, -1);
+        }
+
+        /**
+         * @param length the size of the body in bytes, or -1 if unknown
+         */
+        Response(int statusCode, String statusLine, String body, long length) {
+            this.statusCode = statusCode;
+            this.statusLine = statusLine;
+            this.body = body;
+            this.length = length;
+            this.stream = null;
+            this.charset = null;
+            this.release = null;
+        }
+
+        /**
+         * @param release called when the response is closed e.g. to return the connection to a pool
+         */
+        Response(int statusCode, String statusLine, InputStream stream, Charset charset, Runnable release) {
+            this.statusCode = statusCode;
+            this.statusLine = statusLine;
+            this.body = null;
+            this.length = -1;
+            this.stream = new CountingInputStream(stream);
+            this.charset = charset;
+            this.release = release;
+        }
+
+        /**
+         * @return the number of bytes of the body received so far, or -1 if unknown
+         */
+        long getBytesReceived() {
+            return (stream == null) ? length : stream.count;
+        }
+
+        /**
+         * @return the body as a reader. A streamed body can only be read once.
+         */
+        Reader getReader() {
+            if (stream == null) return new StringReader(body == null ? "" : body);
+            return new BufferedReader(new InputStreamReader(stream, charset));
+        }
+
+        /**
+         * @return the whole body as a string
+         */
+        String getBody() throws IOException {
+            if (stream == null) return body;
+            Reader reader = getReader();
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) sb.append(buffer, 0, n);
+            return sb.toString();
+        }
+
+        @Override
+        public void close() {
+            if (release != null) release.run();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Finds the place at a location from places held in memory, with no
+ * network access for the locations they cover.
+ * <p>
+ * The place found is the one with the smallest bounding box containing
+ * the location, among places of the specified types, e.g. towns and
+ * suburbs. Optionally, a location in no bounding box is matched to the
+ * nearest centroid within a distance. Other locations are passed to a
+ * fallback geocoder, if there is one.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceTable table = PlaceTable.read(client, new File("towns.dat"));
+ * LocalReverseGeocoder local = new LocalReverseGeocoder(table, new RemoteReverseGeocoder(),
+ *         client.getPlaceType("Town"), client.getPlaceType("Suburb"));
+ * client.setReverseGeocoder(local);
+ * </pre>
+ * </p>
+ * <p>
+ * The places may be loaded from a file saved by {@link PlaceTable#write(java.io.File)},
+ * or gathered from earlier requests. Places found locally are views of the
+ * table's rows. Like the indexes it uses, the geocoder is thread-safe
+ * provided the table is not modified.
+ * </p>
+ *
+ * @author Joe Halliwell
+ * @see PlaceIndex
+ * @see CentroidIndex
+ */
+public class LocalReverseGeocoder implements ReverseGeocoder {
+
+    private final PlaceIndex boxes;
+    private final CentroidIndex centroids;
+    private final ReverseGeocoder fallback;
+    private final boolean[] mask;
+    private volatile double maxDistance = 0;
+
+    /**
+     * @param client   the client to which the places are bound
+     * @param places   the places to search
+     * @param fallback the geocoder for locations not covered by the places, or null for none
+     * @param types    the place types to find, or none for all
+     */
+    public LocalReverseGeocoder(GeoPlanet client, Iterable<? extends Place> places, ReverseGeocoder fallback,
+                                PlaceType... types) {
+        this(PlaceIndex.table(client, places), fallback, types);
+    }
+
+    /**
+     * @param table    the places to search
+     * @param fallback the geocoder for locations not covered by the places, or null for none
+     * @param types    the place types to find, or none for all
+     */
+    public LocalReverseGeocoder(PlaceTable table, ReverseGeocoder fallback, PlaceType... types) {
+        this.boxes = new PlaceIndex(table);
+        this.centroids = new CentroidIndex(table);
+        this.fallback = fallback;
+        this.mask = PlaceIndex.mask(types);
+    }
+
+    /**
+     * Match locations which are in no bounding box to the nearest centroid
+     * within a distance, rather than passing them to the fallback geocoder.
+     * Zero, the default, turns this off.
+     *
+     * @param maxDistance the distance in kilometres
+     */
+    public void setMaxDistance(double maxDistance) {
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be >= 0");
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * @return the maximum distance to the nearest centroid in kilometres, or zero if unused
+     */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return the geocoder for locations not covered by the places, or null if there is none
+     */
+    public ReverseGeocoder getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return the index of the places searched
+     */
+    public PlaceIndex getIndex() {
+        return boxes;
+    }
+
+    /**
+     * Find the place at a location without using the fallback geocoder.
+     *
+     * @param location the location
+     * @return the place, or null if the location is not covered
+     */
+    public Place getLocalPlace(Location location) {
+        int row = boxes.getSmallestRowContaining(location.latitude, location.longitude, mask);
+        if (row >= 0) return boxes.getTable().get(row);
+        double distance = maxDistance;
+        if (distance == 0) return null;
+        row = centroids.getNearestRow(location.latitude, location.longitude, mask);
+        if (row < 0) return null;
+        PlaceTable table = boxes.getTable();
+        Location centroid = new Location(table.getLatitude(row), table.getLongitude(row));
+        return centroid.distance(location) <= distance ? table.get(row) : null;
+    }
+
+    @Override
+    public Place getPlace(GeoPlanet client, Location location) throws GeoPlanetException {
+        Place place = getLocalPlace(location);
+        if (place != null || fallback == null) return place;
+        return fallback.getPlace(client, location);
+    }
+
+    @Override
+    public String toString() {
+        return "LocalReverseGeocoder [size=" + boxes.size() + ", fallback=" + fallback + "]";
+    }
+}
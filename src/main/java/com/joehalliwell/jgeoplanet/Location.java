@@ -10,7 +10,7 @@ import org.json.JSONObject;
  */
 public class Location {
 
-    private final static double DIAMETER_OF_EARTH = 6378.1 * 2;
+    final static double DIAMETER_OF_EARTH = 6378.1 * 2;
 
     final double longitude;
     final double latitude;
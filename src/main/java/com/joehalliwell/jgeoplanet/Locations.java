@@ -0,0 +1,226 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.Collection;
+
+/**
+ * An immutable array of locations, for computing distances in bulk.
+ * <p>
+ * Each location is converted once, on construction, to a point on the
+ * unit sphere. The great-circle distance between two locations then
+ * needs only a square root and an arc sine, rather than the conversions
+ * and trigonometry of {@link Location#distance(Location)}, and the loops
+ * run over primitive arrays. Results agree with
+ * {@link Location#distance(Location)} to within rounding.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * Locations centroids = new Locations(latitudes, longitudes);
+ * double[] distances = centroids.distances(origin);
+ * </pre>
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class Locations {
+
+    // Coefficients for the arc sine, from fdlibm
+    private static final double PIO2_HI = 1.57079632679489655800e+00;
+    private static final double PIO2_LO = 6.12323399573676603587e-17;
+    private static final double PIO4_HI = 7.85398163397448278999e-01;
+    private static final double PS0 = 1.66666666666666657415e-01;
+    private static final double PS1 = -3.25565818622400915405e-01;
+    private static final double PS2 = 2.01212532134862925881e-01;
+    private static final double PS3 = -4.00555345006794114027e-02;
+    private static final double PS4 = 7.91534994289814532176e-04;
+    private static final double PS5 = 3.47933107596021167570e-05;
+    private static final double QS1 = -2.40339491173441421878e+00;
+    private static final double QS2 = 2.02094576023350569471e+00;
+    private static final double QS3 = -6.88283971605453293030e-01;
+    private static final double QS4 = 7.70381505559019352791e-02;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // x, y and z of each location on the unit sphere
+    private final double[] points;
+
+    /**
+     * @param latitudes  the latitude of each location
+     * @param longitudes the longitude of each location
+     * @throws IllegalArgumentException if the arrays differ in length, or the co-ordinates aren't valid
+     */
+    public Locations(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Mismatched latitudes and longitudes");
+        }
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        points = new double[latitudes.length * 3];
+        for (int i = 0; i < latitudes.length; i++) {
+            // Validates
+            new Location(latitudes[i], longitudes[i]);
+            CentroidIndex.toPoint(latitudes[i], longitudes[i], points, i * 3);
+        }
+    }
+
+    /**
+     * @param locations the locations
+     */
+    public Locations(Collection<Location> locations) {
+        int n = locations.size();
+        latitudes = new double[n];
+        longitudes = new double[n];
+        points = new double[n * 3];
+        int i = 0;
+        for (Location location : locations) {
+            latitudes[i] = location.latitude;
+            longitudes[i] = location.longitude;
+            CentroidIndex.toPoint(location.latitude, location.longitude, points, i * 3);
+            i++;
+        }
+    }
+
+    /**
+     * @return the number of locations
+     */
+    public int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * @return the location at the specified index
+     */
+    public Location get(int i) {
+        return new Location(latitudes[i], longitudes[i]);
+    }
+
+    /**
+     * @return the latitude of the location at the specified index
+     */
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    /**
+     * @return the longitude of the location at the specified index
+     */
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    /**
+     * Compute the distance from one location to each of these.
+     *
+     * @param from the location to measure from
+     * @return the distances in kilometres, in the same order as the locations
+     */
+    public double[] distances(Location from) {
+        double[] results = new double[size()];
+        distances(from, results);
+        return results;
+    }
+
+    /**
+     * Compute the distance from one location to each of these, without
+     * allocating.
+     *
+     * @param from    the location to measure from
+     * @param results receives the distances in kilometres, in the same order as the locations
+     * @throws IllegalArgumentException if the results array is too small
+     */
+    public void distances(Location from, double[] results) {
+        if (results.length < size()) throw new IllegalArgumentException("results must have length >= " + size());
+        double[] point = new double[3];
+        CentroidIndex.toPoint(from.latitude, from.longitude, point, 0);
+        distances(point[0], point[1], point[2], results, 0);
+    }
+
+    private void distances(double x, double y, double z, double[] results, int offset) {
+        int n = latitudes.length;
+        for (int i = 0; i < n; i++) {
+            double dx = points[i * 3] - x;
+            double dy = points[i * 3 + 1] - y;
+            double dz = points[i * 3 + 2] - z;
+            results[offset + i] = toDistance(dx * dx + dy * dy + dz * dz);
+        }
+    }
+
+    /**
+     * @return the great-circle distance in kilometres subtended by a squared chord
+     * of the unit sphere
+     */
+    private static double toDistance(double chordSquared) {
+        // Haversine: sqrt(hav(angle)) is half the chord
+        return Location.DIAMETER_OF_EARTH * asin(Math.min(1, Math.sqrt(chordSquared) / 2));
+    }
+
+    /**
+     * The arc sine of a number between 0 and 1, as computed by fdlibm.
+     * {@link Math#asin(double)} is a native call which the JIT compiler
+     * cannot inline, and dominates the cost of a distance.
+     */
+    static double asin(double x) {
+        if (x >= 1) return x == 1 ? PIO2_HI + PIO2_LO : Double.NaN;
+        if (x < 0.5) {
+            if (x < 0x1p-27) return x;
+            double t = x * x;
+            double p = t * (PS0 + t * (PS1 + t * (PS2 + t * (PS3 + t * (PS4 + t * PS5)))));
+            double q = 1 + t * (QS1 + t * (QS2 + t * (QS3 + t * QS4)));
+            return x + x * (p / q);
+        }
+        double t = (1 - x) * 0.5;
+        double p = t * (PS0 + t * (PS1 + t * (PS2 + t * (PS3 + t * (PS4 + t * PS5)))));
+        double q = 1 + t * (QS1 + t * (QS2 + t * (QS3 + t * QS4)));
+        double s = Math.sqrt(t);
+        if (x >= 0.975) {
+            return PIO2_HI - (2 * (s + s * (p / q)) - PIO2_LO);
+        }
+        // s split into high and low parts, for accuracy
+        double w = Double.longBitsToDouble(Double.doubleToRawLongBits(s) & 0xffffffff00000000L);
+        double c = (t - w * w) / (s + w);
+        double r = p / q;
+        p = 2 * s * r - (PIO2_LO - 2 * c);
+        q = PIO4_HI - 2 * w;
+        return PIO4_HI - (p - q);
+    }
+
+    /**
+     * Compute the distance from each of these locations to each of some
+     * others.
+     *
+     * @param others the locations to measure to
+     * @return the distances in kilometres, in row-major order: the distance from
+     * location i to other location j is at index i * others.size() + j
+     * @throws IllegalArgumentException if there are too many distances for one array
+     */
+    public double[] distances(Locations others) {
+        long n = (long) size() * others.size();
+        if (n > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Too many distances: " + n);
+        double[] results = new double[(int) n];
+        distances(others, results);
+        return results;
+    }
+
+    /**
+     * Compute the distance from each of these locations to each of some
+     * others, without allocating.
+     *
+     * @param others  the locations to measure to
+     * @param results receives the distances in kilometres, in row-major order
+     * @throws IllegalArgumentException if the results array is too small
+     * @see #distances(Locations)
+     */
+    public void distances(Locations others, double[] results) {
+        long n = (long) size() * others.size();
+        if (results.length < n) throw new IllegalArgumentException("results must have length >= " + n);
+        int m = others.size();
+        for (int i = 0; i < latitudes.length; i++) {
+            others.distances(points[i * 3], points[i * 3 + 1], points[i * 3 + 2], results, i * m);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Locations [size=" + size() + "]";
+    }
+}
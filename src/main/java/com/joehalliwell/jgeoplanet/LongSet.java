@@ -0,0 +1,95 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * A set of positive longs, such as WOE IDs, held in an open-addressing
+ * table of primitives: at most thirty-two bytes per member rather than the
+ * sixty or so of a {@link java.util.HashSet} of boxed Longs.
+ * <p>
+ * Zero marks an empty slot, so cannot be a member. Not thread-safe.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+class LongSet {
+
+    private long[] slots;
+    private int size;
+
+    LongSet() {
+        this(16);
+    }
+
+    /**
+     * @param expected the expected number of members
+     */
+    LongSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2L) capacity <<= 1;
+        slots = new long[capacity];
+    }
+
+    /**
+     * @return the number of members
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add a member.
+     *
+     * @return true if it was not already a member
+     * @throws IllegalArgumentException if the value is not positive
+     */
+    boolean add(long value) {
+        if (value <= 0) throw new IllegalArgumentException("Invalid value: " + value);
+        int slot = find(slots, value);
+        if (slots[slot] == value) return false;
+        slots[slot] = value;
+        if (++size * 2 > slots.length) grow();
+        return true;
+    }
+
+    /**
+     * @return true if the value is a member
+     */
+    boolean contains(long value) {
+        return value > 0 && slots[find(slots, value)] == value;
+    }
+
+    /**
+     * @return the members, in no particular order
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        for (long value : slots) {
+            if (value != 0) values[i++] = value;
+        }
+        return values;
+    }
+
+    /**
+     * @return the slot holding the value, or the empty slot where it belongs
+     */
+    private static int find(long[] slots, long value) {
+        int mask = slots.length - 1;
+        // Fibonacci hashing spreads consecutive IDs
+        int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (slots[slot] != 0 && slots[slot] != value) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        long[] grown = new long[slots.length * 2];
+        for (long value : slots) {
+            if (value != 0) grown[find(grown, value)] = value;
+        }
+        slots = grown;
+    }
+
+    @Override
+    public String toString() {
+        return "LongSet [size=" + size + "]";
+    }
+}
@@ -0,0 +1,152 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener which keeps lock-free counters and latency histograms for
+ * each kind of request, for export to a monitoring system.
+ * <p>
+ * Example:
+ * <pre>
+ * MetricsRecorder metrics = new MetricsRecorder();
+ * client.addListener(metrics);
+ * ...
+ * long p99 = metrics.getLatency(Endpoint.CHILDREN).getPercentile(99);
+ * </pre>
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class MetricsRecorder implements GeoPlanetListener {
+
+    private final Map<Endpoint, Stats> stats = new EnumMap<Endpoint, Stats>(Endpoint.class);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public MetricsRecorder() {
+        // Populated up front, so never modified afterwards
+        for (Endpoint endpoint : Endpoint.values()) stats.put(endpoint, new Stats());
+    }
+
+    @Override
+    public void requestCompleted(RequestEvent event) {
+        Stats s = stats.get(event.getEndpoint());
+        s.requests.increment();
+        if (!event.isSuccess()) s.errors.increment();
+        if (event.getBytesReceived() > 0) s.bytes.add(event.getBytesReceived());
+        s.latency.record(event.getLatency(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        s.parseTime.record(event.getParseTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void cacheLookup(long woeId, boolean hit) {
+        if (hit) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+    }
+
+    /**
+     * @return the number of requests made to the endpoint
+     */
+    public long getRequestCount(Endpoint endpoint) {
+        return stats.get(endpoint).requests.sum();
+    }
+
+    /**
+     * @return the number of requests to the endpoint which failed, including places not found
+     */
+    public long getErrorCount(Endpoint endpoint) {
+        return stats.get(endpoint).errors.sum();
+    }
+
+    /**
+     * @return the total size of the responses received from the endpoint, in bytes
+     */
+    public long getBytesReceived(Endpoint endpoint) {
+        return stats.get(endpoint).bytes.sum();
+    }
+
+    /**
+     * @return the histogram of request latencies for the endpoint
+     */
+    public LatencyHistogram getLatency(Endpoint endpoint) {
+        return stats.get(endpoint).latency;
+    }
+
+    /**
+     * @return the histogram of response parse times for the endpoint
+     */
+    public LatencyHistogram getParseTime(Endpoint endpoint) {
+        return stats.get(endpoint).parseTime;
+    }
+
+    /**
+     * @return the number of requests made to all endpoints
+     */
+    public long getRequestCount() {
+        long count = 0;
+        for (Stats s : stats.values()) count += s.requests.sum();
+        return count;
+    }
+
+    /**
+     * @return the number of places found in the place cache or persistent store
+     */
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of places not found in the place cache or persistent store
+     */
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * Reset all counters and histograms.
+     */
+    public void reset() {
+        for (Stats s : stats.values()) {
+            s.requests.reset();
+            s.errors.reset();
+            s.bytes.reset();
+            s.latency.reset();
+            s.parseTime.reset();
+        }
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    private static class Stats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram parseTime = new LatencyHistogram();
+    }
+
+    /**
+     * @return a summary of the endpoints which have been used, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MetricsRecorder [cacheHits=" + getCacheHitCount()
+                + ", cacheMisses=" + getCacheMissCount() + "]");
+        for (Map.Entry<Endpoint, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            if (s.requests.sum() == 0) continue;
+            sb.append("\n  ").append(e.getKey());
+            sb.append(": requests=").append(s.requests.sum());
+            sb.append(", errors=").append(s.errors.sum());
+            sb.append(", bytes=").append(s.bytes.sum());
+            sb.append(", latency=").append(s.latency);
+        }
+        return sb.toString();
+    }
+}
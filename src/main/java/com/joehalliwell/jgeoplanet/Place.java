@@ -3,7 +3,15 @@ package com.joehalliwell.jgeoplanet;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
 
 /**
  * A Place is a spatial entity associated with a Yahoo! GeoPlanet WOE ID.
@@ -18,13 +26,16 @@ import java.util.Comparator;
  * </p>
  * <p>
  * Places are considered equal() if they have the same woeId i.e. independent
- * of language.
+ * of language. This includes the views of places held in a {@link PlaceTable}.
  * </p>
  *
  * @author Joe Halliwell
  */
 public class Place extends GeoPlanetResource {
 
+    // The place and ten others
+    private static final int MAX_COMMON_ANCESTOR_PLACES = 11;
+
     private final long woeId;
     private final String name;
     private final PlaceType placeType;
@@ -57,7 +68,7 @@ public class Place extends GeoPlanetResource {
             // Sometimes the placeTypeName is not canonical
             placeTypeNameVariant = place.getString("placeTypeName");
             int placeTypeCode = place.getJSONObject("placeTypeName attrs").getInt("code");
-            this.placeType = client.getPlaceType(placeTypeCode);
+            this.placeType = client.placeType(placeTypeCode);
             if (!placeTypeNameVariant.equals(placeType.getName())) {
                 client.log.warn(
                         this + " has type name " + placeTypeNameVariant +
@@ -87,6 +98,152 @@ public class Place extends GeoPlanetResource {
         }
     }
 
+    /**
+     * Construct a short form place from its fields, e.g. a row of a
+     * {@link GeoPlanetDump}.
+     */
+    Place(GeoPlanet client, long woeId, String name, PlaceType placeType, String placeTypeNameVariant) {
+        super(client);
+        this.woeId = woeId;
+        this.name = name;
+        this.placeType = placeType;
+        this.placeTypeNameVariant = placeTypeNameVariant;
+    }
+
+    /**
+     * Construct a place whose getters are overridden, as a view of data
+     * held elsewhere.
+     *
+     * @see PlaceTable
+     */
+    Place(GeoPlanet client, long woeId) {
+        super(client);
+        this.woeId = woeId;
+        this.name = null;
+        this.placeType = null;
+        this.placeTypeNameVariant = null;
+    }
+
+    /**
+     * Read a place in the binary form written by {@link #write(DataOutput)}.
+     */
+    Place(GeoPlanet client, DataInput in) throws IOException, GeoPlanetException {
+        super(client);
+        this.woeId = in.readLong();
+        this.name = in.readUTF();
+        this.placeType = client.placeType(in.readInt());
+        this.placeTypeNameVariant = in.readUTF();
+
+        // Long fields
+        if (!in.readBoolean()) return;
+
+        this.centroid = new Location(in.readDouble(), in.readDouble());
+        Location northEast = new Location(in.readDouble(), in.readDouble());
+        Location southWest = new Location(in.readDouble(), in.readDouble());
+        this.bbox = new BoundingBox(northEast, southWest);
+
+        this.postal = in.readUTF();
+        this.locality1 = in.readUTF();
+        this.locality2 = in.readUTF();
+
+        this.country = readAdminRegion(in);
+        this.admin1 = readAdminRegion(in);
+        this.admin2 = readAdminRegion(in);
+        this.admin3 = readAdminRegion(in);
+
+        this.popRank = in.readInt();
+        this.areaRank = in.readInt();
+    }
+
+    /**
+     * Copy a place, binding it to another client which uses the same
+     * service and language.
+     *
+     * @see #bind(GeoPlanet)
+     */
+    private Place(GeoPlanet client, Place place) {
+        super(client);
+        this.woeId = place.getWoeId();
+        this.name = place.getName();
+        this.placeType = client.bind(place.getPlaceType());
+        this.placeTypeNameVariant = place.getPlaceTypeNameVariant();
+
+        // Long fields
+        if (!place.isLongForm()) return;
+
+        this.centroid = place.getCentroid();
+        this.bbox = place.getBoundingBox();
+
+        this.postal = place.getPostal();
+        this.locality1 = place.getLocality1();
+        this.locality2 = place.getLocality2();
+
+        this.country = copyAdminRegion(client, place.getCountry());
+        this.admin1 = copyAdminRegion(client, place.getAdmin1());
+        this.admin2 = copyAdminRegion(client, place.getAdmin2());
+        this.admin3 = copyAdminRegion(client, place.getAdmin3());
+
+        this.popRank = place.getPopulationRank();
+        this.areaRank = place.getAreaRank();
+    }
+
+    private static AdminRegion copyAdminRegion(GeoPlanet client, AdminRegion region) {
+        return (region == null) ? null : new AdminRegion(client, region);
+    }
+
+    /**
+     * @return this place if it is bound to the client; otherwise a copy which is
+     */
+    Place bind(GeoPlanet client) {
+        return (client == getClient()) ? this : new Place(client, this);
+    }
+
+    /**
+     * Write a compact binary form of this place.
+     *
+     * @see #Place(GeoPlanet, DataInput)
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(getWoeId());
+        out.writeUTF(getName());
+        out.writeInt(getPlaceType().getCode());
+        out.writeUTF(getPlaceTypeNameVariant());
+        out.writeBoolean(isLongForm());
+        if (!isLongForm()) return;
+
+        writeLocation(out, getCentroid());
+        BoundingBox bbox = getBoundingBox();
+        writeLocation(out, bbox.northEast);
+        writeLocation(out, bbox.southWest);
+
+        out.writeUTF(getPostal());
+        out.writeUTF(getLocality1());
+        out.writeUTF(getLocality2());
+
+        writeAdminRegion(out, getCountry());
+        writeAdminRegion(out, getAdmin1());
+        writeAdminRegion(out, getAdmin2());
+        writeAdminRegion(out, getAdmin3());
+
+        out.writeInt(getPopulationRank());
+        out.writeInt(getAreaRank());
+    }
+
+    private static void writeLocation(DataOutput out, Location location) throws IOException {
+        out.writeDouble(location.latitude);
+        out.writeDouble(location.longitude);
+    }
+
+    private AdminRegion readAdminRegion(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return new AdminRegion(getClient(), in);
+    }
+
+    private static void writeAdminRegion(DataOutput out, AdminRegion region) throws IOException {
+        out.writeBoolean(region != null);
+        if (region != null) region.write(out);
+    }
+
     private AdminRegion getAdminRegion(JSONObject place, String field) throws JSONException {
         String admin = place.getString(field);
         if (admin.equals("")) return null;
@@ -109,7 +266,7 @@ public class Place extends GeoPlanetResource {
      */
     public Place getLongForm() throws GeoPlanetException {
         if (isLongForm()) return this;
-        return getClient().getPlace(woeId);
+        return getClient().getPlace(getWoeId());
     }
 
     /**
@@ -175,7 +332,7 @@ public class Place extends GeoPlanetResource {
      * @return true if the location is within this place's bounding box. False otherwise.
      */
     public boolean contains(Location other) {
-        return bbox.contains(other);
+        return getBoundingBox().contains(other);
     }
 
     /**
@@ -187,7 +344,7 @@ public class Place extends GeoPlanetResource {
      * @return true if the other place is completely contained within this place's bounding box. False otherwise.
      */
     public boolean contains(Place other) {
-        return bbox.contains(other.bbox);
+        return getBoundingBox().contains(other.getBoundingBox());
     }
 
     public String getPostal() {
@@ -265,43 +422,116 @@ public class Place extends GeoPlanetResource {
      *
      * @return the parent of this place
      * @throws GeoPlanetException
+     * @see GeoPlanet#setPlaceHierarchy(PlaceHierarchy)
      */
     public Place getParent() throws GeoPlanetException {
+        PlaceHierarchy hierarchy = getClient().getPlaceHierarchy();
+        if (hierarchy != null) {
+            Place parent = hierarchy.getParent(getWoeId());
+            if (parent != null) return parent;
+        }
         StringBuilder uri = new StringBuilder("/place/");
-        uri.append(woeId);
+        uri.append(getWoeId());
         uri.append("/parent");
-        JSONObject parent = getClient().doGet(uri.toString(), false);
-        try {
-            return new Place(getClient(), parent.getJSONObject("place"));
-        } catch (JSONException e) {
-            throw new GeoPlanetException(e);
-        }
+        Place result = getClient().doGetPlace(uri.toString());
+        getClient().cache(result);
+        if (hierarchy != null) hierarchy.putParent(this, result);
+        return result;
     }
 
     /**
      * Return the smallest common ancestor of several places.
      * See <a href="http://developer.yahoo.com/geo/geoplanet/guide/api-reference.html#common">GeoPlanet docs</a>
+     * <p>
+     * The service accepts at most eleven places per request, so larger
+     * numbers are reduced in rounds: chunks of eleven are sent
+     * concurrently using the client's executor, and their common
+     * ancestors are reduced again until one remains. Duplicate places are
+     * only sent once, so a thousand places take three rounds at most.
+     * </p>
+     * <p>
+     * If the client has a {@link PlaceHierarchy}, the common ancestor is
+     * found locally instead, concurrently fetching the ancestors of any
+     * places not yet in the hierarchy.
+     * </p>
      *
      * @param the other children to consider
      * @return their smallest common ancestor
      * @throws GeoPlanetException
-     * @throws IllegalArgumentException if more than 10 other places are specified
+     * @see GeoPlanet#setPlaceHierarchy(PlaceHierarchy)
      */
     public Place getCommonAncestor(Place... others) throws GeoPlanetException {
         if (others.length == 0) return this;
-        if (others.length > 10) {
-            throw new IllegalArgumentException("Cannot find the common ancestor of more than ten places");
+        PlaceHierarchy hierarchy = getClient().getPlaceHierarchy();
+        if (hierarchy != null) return getCommonAncestor(hierarchy, others);
+
+        // Ordered by WOE ID, so that identical sets make identical requests
+        Map<Long, Place> level = new TreeMap<Long, Place>();
+        level.put(getWoeId(), this);
+        for (Place other : others) level.putIfAbsent(other.getWoeId(), other);
+        while (level.size() > MAX_COMMON_ANCESTOR_PLACES) {
+            List<Place> places = new ArrayList<Place>(level.values());
+            Map<Long, Place> next = new TreeMap<Long, Place>();
+            List<Future<Place>> partials = new ArrayList<Future<Place>>();
+            try {
+                for (int i = 0; i < places.size(); i += MAX_COMMON_ANCESTOR_PLACES) {
+                    List<Place> chunk = places.subList(i, Math.min(i + MAX_COMMON_ANCESTOR_PLACES, places.size()));
+                    if (chunk.size() == 1) {
+                        next.putIfAbsent(chunk.get(0).getWoeId(), chunk.get(0));
+                    } else {
+                        partials.add(getClient().submit(() -> requestCommonAncestor(chunk)));
+                    }
+                }
+                for (Future<Place> partial : partials) {
+                    Place ancestor = GeoPlanet.await(partial);
+                    next.putIfAbsent(ancestor.getWoeId(), ancestor);
+                }
+            } finally {
+                for (Future<Place> partial : partials) partial.cancel(true);
+            }
+            level = next;
         }
+        List<Place> places = new ArrayList<Place>(level.values());
+        return places.size() == 1 ? places.get(0) : requestCommonAncestor(places);
+    }
 
+    /**
+     * Ask the service for the common ancestor of at most eleven places.
+     */
+    private static Place requestCommonAncestor(List<Place> places) throws GeoPlanetException {
+        GeoPlanet client = places.get(0).getClient();
         StringBuilder uri = new StringBuilder("/place/");
-        uri.append(woeId);
+        uri.append(places.get(0).getWoeId());
         uri.append("/common");
-        for (int i = 0; i < others.length; i++) {
+        for (int i = 1; i < places.size(); i++) {
             uri.append("/");
-            uri.append(others[i].woeId);
+            uri.append(places.get(i).getWoeId());
+        }
+        return client.doGetPlace(uri.toString());
+    }
+
+    private Place getCommonAncestor(PlaceHierarchy hierarchy, Place... others) throws GeoPlanetException {
+        long[] woeIds = new long[others.length + 1];
+        woeIds[0] = getWoeId();
+        Map<Long, Place> missing = new TreeMap<Long, Place>();
+        if (!hierarchy.hasAncestors(getWoeId())) missing.put(getWoeId(), this);
+        for (int i = 0; i < others.length; i++) {
+            woeIds[i + 1] = others[i].getWoeId();
+            if (!hierarchy.hasAncestors(woeIds[i + 1])) missing.putIfAbsent(woeIds[i + 1], others[i]);
+        }
+        // Fetching the ancestors records them in the hierarchy
+        List<Future<List<Place>>> fetches = new ArrayList<Future<List<Place>>>();
+        try {
+            for (Place place : missing.values()) {
+                fetches.add(getClient().submit(() -> place.getAncestors().get()));
+            }
+            for (Future<List<Place>> fetch : fetches) GeoPlanet.await(fetch);
+        } finally {
+            for (Future<List<Place>> fetch : fetches) fetch.cancel(true);
         }
-        JSONObject parent = getClient().doGet(uri.toString(), false);
-        return new Place(getClient(), parent);
+        Place common = hierarchy.getCommonAncestor(woeIds);
+        if (common == null) throw new GeoPlanetException("No common ancestor for " + this);
+        return common;
     }
 
     /**
@@ -358,6 +588,7 @@ public class Place extends GeoPlanetResource {
      * ancestors of San Jose
      *
      * @return the ancestors of this place
+     * @see GeoPlanet#setPlaceHierarchy(PlaceHierarchy)
      */
     public PlaceCollection getAncestors() {
         return new PlaceCollection(this, "ancestors");
@@ -381,7 +612,7 @@ public class Place extends GeoPlanetResource {
     public static Comparator<Place> POPULATION_ORDER = new Comparator<Place>() {
         @Override
         public int compare(Place a, Place b) {
-            return new Integer(a.areaRank).compareTo(b.areaRank);
+            return Integer.compare(a.getPopulationRank(), b.getPopulationRank());
         }
     };
 
@@ -391,7 +622,7 @@ public class Place extends GeoPlanetResource {
     public static Comparator<Place> AREA_ORDER = new Comparator<Place>() {
         @Override
         public int compare(Place a, Place b) {
-            return new Integer(a.areaRank).compareTo(b.areaRank);
+            return Integer.compare(a.getAreaRank(), b.getAreaRank());
         }
     };
 
@@ -399,6 +630,7 @@ public class Place extends GeoPlanetResource {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        long woeId = getWoeId();
         result = prime * result + (int) (woeId ^ (woeId >>> 32));
         return result;
     }
@@ -409,19 +641,19 @@ public class Place extends GeoPlanetResource {
             return true;
         if (obj == null)
             return false;
-        if (getClass() != obj.getClass())
+        if (!(obj instanceof Place))
             return false;
         Place other = (Place) obj;
-        if (woeId != other.woeId)
+        if (getWoeId() != other.getWoeId())
             return false;
         return true;
     }
 
     @Override
     public String toString() {
-        return "Place [name=" + name + ", " +
+        return "Place [name=" + getName() + ", " +
                 //"placeTypeName=" + placeTypeNameVariant + ", " +
                 //"placeType=" + placeType + ", " +
-                "woeId=" + woeId + "]";
+                "woeId=" + getWoeId() + "]";
     }
 }
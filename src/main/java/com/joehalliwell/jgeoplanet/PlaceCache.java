@@ -0,0 +1,269 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least-recently-used cache of {@link Place} objects.
+ * <p>
+ * Places are keyed by WOE ID, service, language and form (long or short),
+ * so a single cache may be shared by several clients. A place found in the
+ * cache is bound to the client which looked it up, rather than the one
+ * which added it, which may since have been closed. WOE IDs are never
+ * recycled, but place details do change occasionally, so entries can
+ * be given a time to live.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceCache cache = new PlaceCache(100000);
+ * cache.setTimeToLive(1, TimeUnit.DAYS);
+ * client.setPlaceCache(cache);
+ * </pre>
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceCache {
+
+    private final LinkedHashMap<Key, Entry> map;
+    private int maxEntries;
+    private long maxWeight = Long.MAX_VALUE;
+    private long ttlNanos = 0;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a cache holding at most the specified number of places.
+     *
+     * @param maxEntries the maximum number of places to hold
+     */
+    public PlaceCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1");
+        this.maxEntries = maxEntries;
+        // Access order makes iteration order least-recently-used first
+        this.map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Limit the total weight of this cache. The weight of a place
+     * is a rough estimate of its size in bytes. Unlimited by default.
+     *
+     * @param maxWeight the maximum total weight
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        if (maxWeight < 1) throw new IllegalArgumentException("maxWeight must be >= 1");
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * @return the maximum total weight of this cache
+     */
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxEntries the maximum number of places to hold
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1");
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * @return the maximum number of places this cache will hold
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Expire places a fixed time after they were added. Zero, the
+     * default, means that places never expire.
+     *
+     * @param duration the time to live
+     * @param unit     the unit of the duration
+     */
+    public synchronized void setTimeToLive(long duration, TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException("Time to live must be >= 0");
+        this.ttlNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @return the time to live in milliseconds. Zero means no expiry.
+     */
+    public synchronized long getTimeToLive() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    /**
+     * @return the number of lookups that found a place
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find a place
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of places removed to make room, or because they expired
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of places currently held
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the current total weight of this cache
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Remove all places from this cache. Statistics are not reset.
+     */
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return the place, bound to the client, or null if it is not cached
+     */
+    Place get(GeoPlanet client, long woeId, boolean longForm) {
+        Place place = get(client.getServiceUri(), client.getLanguage(), woeId, longForm);
+        return (place == null) ? null : place.bind(client);
+    }
+
+    synchronized Place get(String serviceUri, String language, long woeId, boolean longForm) {
+        Key key = new Key(woeId, serviceUri, language, longForm);
+        Entry entry = map.get(key);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+            remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.place;
+    }
+
+    synchronized void put(Place place) {
+        GeoPlanet client = place.getClient();
+        Key key = new Key(place.getWoeId(), client.getServiceUri(), client.getLanguage(), place.isLongForm());
+        Entry entry = new Entry(place, weigh(place), System.nanoTime());
+        Entry previous = map.put(key, entry);
+        if (previous != null) weight -= previous.weight;
+        weight += entry.weight;
+        evict();
+    }
+
+    private void remove(Key key) {
+        Entry entry = map.remove(key);
+        if (entry != null) weight -= entry.weight;
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = map.values().iterator();
+        while ((map.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * A rough estimate of the heap occupied by a place, in bytes.
+     */
+    static int weigh(Place place) {
+        int weight = 64 + 2 * place.getName().length();
+        if (place.isLongForm()) {
+            // Locations, bounding box and admin regions
+            weight += 160;
+            weight += weigh(place.getCountry()) + weigh(place.getAdmin1())
+                    + weigh(place.getAdmin2()) + weigh(place.getAdmin3());
+        }
+        return weight;
+    }
+
+    private static int weigh(AdminRegion region) {
+        if (region == null) return 0;
+        return 48 + 2 * region.getName().length();
+    }
+
+    private static class Key {
+        final long woeId;
+        final String serviceUri;
+        final String language;
+        final boolean longForm;
+
+        Key(long woeId, String serviceUri, String language, boolean longForm) {
+            this.woeId = woeId;
+            this.serviceUri = serviceUri;
+            this.language = language;
+            this.longForm = longForm;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (woeId ^ (woeId >>> 32));
+            result = prime * result + serviceUri.hashCode();
+            result = prime * result + language.hashCode();
+            result = prime * result + (longForm ? 1231 : 1237);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return woeId == other.woeId && longForm == other.longForm
+                    && serviceUri.equals(other.serviceUri) && language.equals(other.language);
+        }
+    }
+
+    private static class Entry {
+        final Place place;
+        final int weight;
+        final long created;
+
+        Entry(Place place, int weight, long created) {
+            this.place = place;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceCache [size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+}
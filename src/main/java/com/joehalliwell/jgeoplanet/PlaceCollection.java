@@ -1,12 +1,17 @@
 package com.joehalliwell.jgeoplanet;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A collection of {@link Place} objects.
@@ -21,10 +26,22 @@ import java.util.List;
  * PlaceCollection returns Places in long form by default. Use {@link #shortForm(boolean)}
  * to change this behaviour.
  * </p>
+ * <p>
+ * Iterating over a collection fetches places a page at a time, so large
+ * collections can be processed without holding them in memory.
+ * See {@link #pageSize(int)} and {@link #prefetch(boolean)}.
+ * </p>
  *
  * @author Joe Halliwell
  */
 public class PlaceCollection extends GeoPlanetResource implements Iterable<Place> {
+
+    /**
+     * The number of places fetched per request when iterating, unless
+     * otherwise specified.
+     */
+    public final static int defaultPageSize = 100;
+
     Place base;
     /**
      * Can be a test string to search for, or a relation e.g. children, belongtos
@@ -32,8 +49,10 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
     String query;
     PlaceType[] types;
     boolean useShortForm = false;
-    int total = -1;
+    volatile int total = -1;
     Integer degree = null;
+    int pageSize = defaultPageSize;
+    boolean prefetch = false;
 
     PlaceCollection(GeoPlanet client, String query) {
         super(client);
@@ -54,6 +73,8 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         this.total = other.total;
         this.types = other.types;
         this.degree = other.degree;
+        this.pageSize = other.pageSize;
+        this.prefetch = other.prefetch;
     }
 
     /**
@@ -106,7 +127,7 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         assert placeTypeNames != null;
         PlaceType[] placeTypes = new PlaceType[placeTypeNames.length];
         for (int i = 0; i < placeTypeNames.length; i++) {
-            placeTypes[i] = getClient().getPlaceType(placeTypeNames[i].trim());
+            placeTypes[i] = getClient().placeType(placeTypeNames[i].trim());
         }
         return type(placeTypes);
     }
@@ -175,6 +196,50 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         return useShortForm;
     }
 
+    /**
+     * Set the number of places fetched per request when iterating over
+     * this collection. The default is {@link #defaultPageSize}.
+     *
+     * @param pageSize the number of places per request
+     * @return a version of this collection using the specified page size
+     */
+    public PlaceCollection pageSize(int pageSize) {
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize must be >= 1");
+        if (pageSize == this.pageSize) return this;
+        PlaceCollection variant = new PlaceCollection(this);
+        variant.pageSize = pageSize;
+        return variant;
+    }
+
+    /**
+     * @return the number of places fetched per request when iterating
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Fetch the next page in the background while the current one is
+     * being consumed. Off by default. Uses the client's executor.
+     *
+     * @param prefetch true to prefetch pages; false otherwise
+     * @return a version of this collection with the specified prefetch behaviour
+     * @see GeoPlanet#getExecutor()
+     */
+    public PlaceCollection prefetch(boolean prefetch) {
+        if (prefetch == this.prefetch) return this;
+        PlaceCollection variant = new PlaceCollection(this);
+        variant.prefetch = prefetch;
+        return variant;
+    }
+
+    /**
+     * @return true if iterators over this collection prefetch pages; false otherwise
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
     /**
      * Return the relationship represented by this collection, or null
      * if it is a places query.
@@ -242,6 +307,15 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         if (start < 0) throw new IllegalArgumentException("start parameter must be >= 0");
         if (count < 0) throw new IllegalArgumentException("count parameter must be >= 0");
         assert count >= 0;
+        PlaceHierarchy hierarchy = base == null || degree != null ? null : getClient().getPlaceHierarchy();
+        if (hierarchy != null && types == null && query.equals("ancestors")) {
+            List<Place> ancestors = hierarchy.getAncestors(base.getWoeId());
+            if (ancestors != null && (useShortForm || isLongForm(ancestors))) {
+                total = ancestors.size();
+                int end = count == 0 ? total : Math.min(total, start + count);
+                return new ArrayList<Place>(ancestors.subList(Math.min(start, end), end));
+            }
+        }
         StringBuilder uri = new StringBuilder();
         if (base == null) {
             uri = new StringBuilder("/places");
@@ -272,13 +346,32 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         uri.append(";count=");
         uri.append(count);
         // Results
-        JSONObject tmp;
+        List<Place> results = new ArrayList<Place>(count == 0 ? 10 : Math.min(count, pageSize));
         try {
-            tmp = getClient().doGet(uri.toString(), useShortForm);
+            boolean small = count > 0 && count <= GeoPlanet.maxCoalescedCount;
+            int size = getClient().doGetPlaces(uri.toString(), useShortForm, small, place -> {
+                getClient().cache(place);
+                results.add(place);
+            });
+            if (size >= 0) total = size;
         } catch (PlaceNotFoundException e) {
             return new ArrayList<Place>();
         }
-        return processResults(tmp);
+        if (hierarchy != null) {
+            if (query.equals("children")) {
+                for (Place child : results) hierarchy.putParent(child, base);
+            } else if (query.equals("ancestors") && types == null && start == 0) {
+                hierarchy.putAncestors(base, results, results.size() == total);
+            }
+        }
+        return results;
+    }
+
+    private static boolean isLongForm(List<Place> places) {
+        for (Place place : places) {
+            if (!place.isLongForm()) return false;
+        }
+        return true;
     }
 
     /**
@@ -292,6 +385,57 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         return get(0, 0);
     }
 
+    /**
+     * Get all places in this collection, fetching pages in parallel.
+     * <p>
+     * The first page is fetched to discover the size of the collection.
+     * The remaining pages are then fetched concurrently using the client's
+     * executor, with at most <code>parallelism</code> requests in flight.
+     * Places are returned in collection order. If the server doesn't report
+     * the size, pages are fetched one after another until a short page
+     * marks the end of the collection.
+     * Requires network access.
+     * </p>
+     *
+     * @param parallelism the maximum number of concurrent requests
+     * @return all the places in this collection
+     * @throws GeoPlanetException for general errors
+     * @see #pageSize(int)
+     */
+    public List<Place> getAll(int parallelism) throws GeoPlanetException {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1");
+        List<Place> first = get(0, pageSize);
+        if (first.size() < pageSize) return first;
+        int size = total;
+        if (size == -1) {
+            List<Place> results = new ArrayList<Place>(first);
+            for (List<Place> page = first; page.size() == pageSize; ) {
+                page = get(results.size(), pageSize);
+                results.addAll(page);
+            }
+            return results;
+        }
+        if (size <= first.size()) return first;
+
+        List<Place> results = new ArrayList<Place>(size);
+        results.addAll(first);
+        Deque<Future<List<Place>>> inFlight = new ArrayDeque<Future<List<Place>>>();
+        int next = first.size();
+        try {
+            while (next < size || !inFlight.isEmpty()) {
+                while (inFlight.size() < parallelism && next < size) {
+                    final int start = next;
+                    inFlight.add(getClient().submit(() -> get(start, pageSize)));
+                    next += pageSize;
+                }
+                results.addAll(GeoPlanet.await(inFlight.removeFirst()));
+            }
+        } finally {
+            for (Future<List<Place>> page : inFlight) page.cancel(true);
+        }
+        return results;
+    }
+
     /**
      * Get a specific place from this collection.
      * Cosmetic method calling <code>get(index, 1).get(0)</code>
@@ -304,42 +448,88 @@ public class PlaceCollection extends GeoPlanetResource implements Iterable<Place
         return get(index, 1).get(0);
     }
 
-    private List<Place> processResults(JSONObject tmp) throws GeoPlanetException {
-        try {
-            tmp = tmp.getJSONObject("places");
-            total = tmp.getInt("total");
-            assert total >= 0;
-            if (total == 0) {
-                return new ArrayList<Place>(0);
-            }
+    /**
+     * Get an iterator over this collection. Places are fetched lazily,
+     * one page at a time. Requires network access.
+     * <p>
+     * The iterator's methods throw a RuntimeException wrapping a
+     * {@link GeoPlanetException} in case of error.
+     * </p>
+     *
+     * @see #pageSize(int)
+     */
+    @Override
+    public Iterator<Place> iterator() {
+        return new PageIterator();
+    }
 
-            int start = tmp.getInt("start");
-            int count = tmp.getInt("count");
-            assert start >= 0;
-            assert (count >= 0);
-            assert (start + count) <= total;
-            List<Place> results = new ArrayList<Place>(count);
-            JSONArray array = tmp.getJSONArray("place");
-            for (int i = 0; i < count; i++) {
-                results.add(new Place(getClient(), array.getJSONObject(i)));
-            }
-            return results;
-        } catch (JSONException e) {
-            throw new GeoPlanetException(e);
-        }
+    /**
+     * @see #iterator()
+     */
+    @Override
+    public Spliterator<Place> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
     }
 
     /**
-     * Get an iterator over this collection.
+     * Return a sequential stream of the places in this collection.
+     * Places are fetched lazily, as by {@link #iterator()}.
      *
-     * @throws RuntimeException wrapping a {@link GeoPlanetException} in case of error
+     * @return a stream of places
      */
-    @Override
-    public Iterator<Place> iterator() {
-        try {
-            return get().iterator();
-        } catch (GeoPlanetException e) {
-            throw new RuntimeException(e);
+    public Stream<Place> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Iterates over the collection a page at a time using the
+     * start and count matrix parameters.
+     */
+    private class PageIterator implements Iterator<Place> {
+        private List<Place> page = Collections.emptyList();
+        private int index = 0;
+        private int start = 0;
+        private boolean exhausted = false;
+        private Future<List<Place>> pending;
+
+        @Override
+        public boolean hasNext() {
+            while (index >= page.size()) {
+                if (exhausted) return false;
+                try {
+                    fetchPage();
+                } catch (GeoPlanetException e) {
+                    exhausted = true;
+                    throw new RuntimeException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Place next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Place place = page.get(index);
+            page.set(index++, null); // Let the place be collected once consumed
+            return place;
+        }
+
+        private void fetchPage() throws GeoPlanetException {
+            if (pending != null) {
+                Future<List<Place>> future = pending;
+                pending = null;
+                page = GeoPlanet.await(future);
+            } else {
+                page = get(start, pageSize);
+            }
+            index = 0;
+            start += page.size();
+            if (page.size() < pageSize || (total != -1 && start >= total)) {
+                exhausted = true;
+            } else if (prefetch) {
+                final int nextStart = start;
+                pending = getClient().submit(() -> get(nextStart, pageSize));
+            }
         }
     }
 }
@@ -0,0 +1,299 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Crawls all the descendants of a place, breadth first, fetching the
+ * children of several places at once.
+ * <p>
+ * Each place found is passed to a {@link Sink} once, on the thread that
+ * called {@link #crawl(Place, Sink)}, level by level. Places reachable by
+ * more than one route are only reported the first time, using a compact
+ * set of WOE IDs. At most {@link #getParallelism()} places are expanded at
+ * once, using the client's executor.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceCrawler crawler = new PlaceCrawler(client);
+ * crawler.setCheckpoint(new File("uk.crawl"), 1000);
+ * crawler.crawl(client.getPlace(23424975), place -&gt; writer.write(place));
+ * </pre>
+ * </p>
+ * <p>
+ * If a checkpoint file is set, the state of the crawl is saved to it
+ * periodically, and when a request fails. A crawl of the same place then
+ * resumes from the last checkpoint instead of starting again, and the
+ * file is deleted when the crawl completes. Places found after the last
+ * checkpoint of a crawl that died are reported again when it resumes.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceCrawler {
+
+    /**
+     * Receives the places found by a crawl.
+     */
+    public interface Sink {
+
+        /**
+         * @param place a newly found place
+         * @throws IOException to stop the crawl
+         */
+        void accept(Place place) throws IOException;
+    }
+
+    private static final int MAGIC = 0x4A47434B; // JGCK
+    private static final int VERSION = 1;
+
+    private final GeoPlanet client;
+    private int parallelism = GeoPlanet.defaultParallelism;
+    private int maxDepth = Integer.MAX_VALUE;
+    private boolean shortForm = false;
+    private File checkpoint = null;
+    private int checkpointInterval = 1000;
+
+    /**
+     * @param client the client with which to fetch places
+     */
+    public PlaceCrawler(GeoPlanet client) {
+        this.client = client;
+    }
+
+    /**
+     * @return the client with which places are fetched
+     */
+    public GeoPlanet getClient() {
+        return client;
+    }
+
+    /**
+     * Set the maximum number of places whose children are fetched at once.
+     * Requests are also limited by the client's executor and concurrency limit.
+     *
+     * @param parallelism the maximum number of concurrent requests
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of places whose children are fetched at once
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Limit the crawl to places at most a number of levels below the
+     * place crawled. By default there is no limit.
+     *
+     * @param maxDepth the maximum depth, where 1 is the children of the place crawled
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) throw new IllegalArgumentException("maxDepth must be >= 1");
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the maximum depth of the crawl
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param shortForm true to fetch places in short form
+     * @see PlaceCollection#shortForm(boolean)
+     */
+    public void setShortForm(boolean shortForm) {
+        this.shortForm = shortForm;
+    }
+
+    /**
+     * @return true if places are fetched in short form
+     */
+    public boolean isShortForm() {
+        return shortForm;
+    }
+
+    /**
+     * Save the state of crawls to a file, so that they can be resumed.
+     *
+     * @param checkpoint the file, or null for none
+     * @param interval   the number of places to expand between checkpoints
+     */
+    public void setCheckpoint(File checkpoint, int interval) {
+        if (interval < 1) throw new IllegalArgumentException("interval must be >= 1");
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * @return the checkpoint file, or null if there is none
+     */
+    public File getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Crawl the descendants of a place, resuming from the checkpoint file
+     * if there is one.
+     *
+     * @param root the place whose descendants to find; it is not itself passed to the sink
+     * @param sink receives each place found
+     * @return the number of places found, including any found before resuming
+     * @throws GeoPlanetException if a request fails
+     * @throws IOException        if the sink fails, or the checkpoint cannot be read or written
+     */
+    public long crawl(Place root, Sink sink) throws GeoPlanetException, IOException {
+        Crawl crawl = checkpoint != null && checkpoint.exists() ? read(root) : new Crawl(root);
+        int sinceCheckpoint = 0;
+        Deque<Future<List<Place>>> inFlight = new ArrayDeque<Future<List<Place>>>();
+        try {
+            while (crawl.depth < maxDepth) {
+                if (crawl.next == crawl.level.size()) {
+                    if (crawl.children.isEmpty()) break;
+                    crawl.level = crawl.children;
+                    crawl.children = new ArrayList<Place>();
+                    crawl.next = 0;
+                    crawl.depth++;
+                    continue;
+                }
+                // Keep the window full
+                while (inFlight.size() < parallelism && crawl.next + inFlight.size() < crawl.level.size()) {
+                    Place place = crawl.level.get(crawl.next + inFlight.size());
+                    inFlight.addLast(client.submit(() -> place.getChildren().shortForm(shortForm).get()));
+                }
+                List<Place> children;
+                try {
+                    children = GeoPlanet.await(inFlight.peekFirst());
+                } catch (GeoPlanetException e) {
+                    // Nothing from the window has been reported, so the state is exact
+                    if (checkpoint != null) write(crawl);
+                    throw e;
+                }
+                inFlight.removeFirst();
+                // Only the unexpanded places need be kept
+                crawl.level.set(crawl.next++, null);
+                for (Place child : children) {
+                    if (!crawl.seen.add(child.getWoeId())) continue;
+                    crawl.found++;
+                    sink.accept(child);
+                    if (crawl.depth + 1 < maxDepth) crawl.children.add(child);
+                }
+                if (checkpoint != null && ++sinceCheckpoint >= checkpointInterval) {
+                    write(crawl);
+                    sinceCheckpoint = 0;
+                }
+            }
+        } finally {
+            for (Future<List<Place>> future : inFlight) future.cancel(true);
+        }
+        if (checkpoint != null) Files.deleteIfExists(checkpoint.toPath());
+        return crawl.found;
+    }
+
+    /**
+     * Write the state of a crawl, atomically replacing the checkpoint file.
+     * <p>
+     * Format: magic, version, root WOE ID, depth, places found, WOE IDs
+     * seen, then the unexpanded places of the current and next levels.
+     * </p>
+     */
+    private void write(Crawl crawl) throws IOException {
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(crawl.root);
+            out.writeInt(crawl.depth);
+            out.writeLong(crawl.found);
+            long[] seen = crawl.seen.toArray();
+            out.writeInt(seen.length);
+            for (long woeId : seen) out.writeLong(woeId);
+            writePlaces(out, crawl.level.subList(crawl.next, crawl.level.size()));
+            writePlaces(out, crawl.children);
+        }
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writePlaces(DataOutputStream out, List<Place> places) throws IOException {
+        out.writeInt(places.size());
+        for (Place place : places) place.write(out);
+    }
+
+    private Crawl read(Place root) throws IOException, GeoPlanetException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a crawl checkpoint: " + checkpoint);
+            }
+            long woeId = in.readLong();
+            if (woeId != root.getWoeId()) {
+                throw new IOException("Checkpoint " + checkpoint + " is for a crawl of WOE ID " + woeId);
+            }
+            Crawl crawl = new Crawl(root.getWoeId());
+            crawl.depth = in.readInt();
+            crawl.found = in.readLong();
+            int seen = in.readInt();
+            crawl.seen = new LongSet(seen);
+            for (int i = 0; i < seen; i++) crawl.seen.add(in.readLong());
+            crawl.level = readPlaces(in);
+            crawl.children = readPlaces(in);
+            return crawl;
+        }
+    }
+
+    private List<Place> readPlaces(DataInputStream in) throws IOException, GeoPlanetException {
+        int size = in.readInt();
+        List<Place> places = new ArrayList<Place>(size);
+        for (int i = 0; i < size; i++) places.add(new Place(client, in));
+        return places;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceCrawler [parallelism=" + parallelism + ", checkpoint=" + checkpoint + "]";
+    }
+
+    /**
+     * The state of a crawl.
+     */
+    private static class Crawl {
+        final long root;
+        LongSet seen = new LongSet();
+        // The places at the current depth, of which those before next have been expanded
+        List<Place> level = new ArrayList<Place>();
+        int next;
+        // The places found at the next depth
+        List<Place> children = new ArrayList<Place>();
+        int depth;
+        long found;
+
+        Crawl(long root) {
+            this.root = root;
+        }
+
+        Crawl(Place root) {
+            this(root.getWoeId());
+            seen.add(root.getWoeId());
+            level.add(root);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local copy of the parts of the place hierarchy that have been fetched,
+ * so that parents, ancestors and common ancestors can be found without
+ * network access.
+ * <p>
+ * The hierarchy is filled in as a side effect of
+ * {@link Place#getParent()}, and of fetching the ancestors or children
+ * of a place. Once the chain of parents from a place up to the root is
+ * known, {@link Place#getAncestors()} and {@link Place#getCommonAncestor(Place...)}
+ * are answered from memory, and the latter accepts any number of places.
+ * Places whose chains are not yet known are looked up once.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * client.setPlaceHierarchy(new PlaceHierarchy());
+ * Place common = first.getCommonAncestor(others);
+ * </pre>
+ * </p>
+ * <p>
+ * Nodes are held in arrays of parent pointers, so a common ancestor is
+ * found by walking up from each place, a few steps at most for GeoPlanet's
+ * shallow hierarchy. Hierarchies are thread-safe. A hierarchy should only
+ * be shared between clients with the same language, since it holds the
+ * places themselves.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceHierarchy {
+
+    private static final int UNKNOWN = -1;
+    private static final int NONE = -2;
+
+    private final Map<Long, Integer> nodes = new HashMap<Long, Integer>();
+    private Place[] places = new Place[16];
+    // The node of the parent of each node, or UNKNOWN, or NONE for the root
+    private int[] parents = new int[16];
+    // The number of steps from each node to the root, or UNKNOWN
+    private int[] depths = new int[16];
+    private int size;
+
+    /**
+     * @return the number of places in this hierarchy
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Remove all places from this hierarchy.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        Arrays.fill(places, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return the node for a place, adding it if necessary
+     */
+    private int node(Place place) {
+        Integer node = nodes.get(place.getWoeId());
+        if (node != null) {
+            // Prefer the long form
+            if (place.isLongForm() && !places[node].isLongForm()) places[node] = place;
+            return node;
+        }
+        if (size == places.length) {
+            places = Arrays.copyOf(places, size * 2);
+            parents = Arrays.copyOf(parents, size * 2);
+            depths = Arrays.copyOf(depths, size * 2);
+        }
+        places[size] = place;
+        parents[size] = UNKNOWN;
+        depths[size] = UNKNOWN;
+        nodes.put(place.getWoeId(), size);
+        return size++;
+    }
+
+    private void link(int child, int parent) {
+        if (parents[child] == parent) return;
+        boolean changed = parents[child] != UNKNOWN;
+        parents[child] = parent;
+        if (changed) {
+            // The hierarchy has been revised, so depths below the child are stale
+            Arrays.fill(depths, 0, size, UNKNOWN);
+        }
+    }
+
+    /**
+     * Record that a place is the parent of another.
+     */
+    synchronized void putParent(Place child, Place parent) {
+        link(node(child), node(parent));
+    }
+
+    /**
+     * Record the ancestors of a place, ordered from smallest to largest.
+     *
+     * @param complete true if the largest is the root of the hierarchy
+     */
+    synchronized void putAncestors(Place place, List<Place> ancestors, boolean complete) {
+        int child = node(place);
+        for (Place ancestor : ancestors) {
+            int parent = node(ancestor);
+            link(child, parent);
+            child = parent;
+        }
+        if (complete) link(child, NONE);
+    }
+
+    /**
+     * @return the parent of the place with the specified WOE ID, or null if
+     * it is not known or the place is the root
+     */
+    public synchronized Place getParent(long woeId) {
+        Integer node = nodes.get(woeId);
+        if (node == null || parents[node] < 0) return null;
+        return places[parents[node]];
+    }
+
+    /**
+     * @return true if the chain of parents from the place with the
+     * specified WOE ID to the root is known; false otherwise
+     */
+    public synchronized boolean hasAncestors(long woeId) {
+        Integer node = nodes.get(woeId);
+        return node != null && depth(node) != UNKNOWN;
+    }
+
+    /**
+     * @return the ancestors of the place with the specified WOE ID, ordered
+     * from smallest to largest, or null if they are not all known
+     */
+    public synchronized List<Place> getAncestors(long woeId) {
+        Integer node = nodes.get(woeId);
+        if (node == null) return null;
+        int depth = depth(node);
+        if (depth == UNKNOWN) return null;
+        List<Place> ancestors = new ArrayList<Place>(depth);
+        for (int n = parents[node]; n != NONE; n = parents[n]) ancestors.add(places[n]);
+        return ancestors;
+    }
+
+    /**
+     * Find the smallest common ancestor of several places. As for
+     * {@link Place#getCommonAncestor(Place...)}, a place counts as an
+     * ancestor of itself.
+     *
+     * @param woeIds the WOE IDs of the places
+     * @return the common ancestor, or null if the ancestors of any of the places are not known
+     */
+    public synchronized Place getCommonAncestor(long... woeIds) {
+        if (woeIds.length == 0) throw new IllegalArgumentException("No places specified");
+        int common = UNKNOWN;
+        for (long woeId : woeIds) {
+            Integer node = nodes.get(woeId);
+            if (node == null || depth(node) == UNKNOWN) return null;
+            common = common == UNKNOWN ? node : commonAncestor(common, node);
+            if (common == UNKNOWN) return null;
+        }
+        return places[common];
+    }
+
+    /**
+     * @see #getCommonAncestor(long...)
+     */
+    public Place getCommonAncestor(Collection<? extends Place> places) {
+        long[] woeIds = new long[places.size()];
+        int i = 0;
+        for (Place place : places) woeIds[i++] = place.getWoeId();
+        return getCommonAncestor(woeIds);
+    }
+
+    /**
+     * @return the depth of a node, or UNKNOWN if its chain to the root is not known
+     */
+    private int depth(int node) {
+        // Walk up to the root, or the nearest node of known depth
+        int top = node;
+        int steps = 0;
+        while (depths[top] == UNKNOWN) {
+            int parent = parents[top];
+            if (parent == UNKNOWN) return UNKNOWN;
+            if (parent == NONE) {
+                depths[top] = 0;
+            } else {
+                // Guard against cycles, which the service shouldn't produce
+                if (++steps > size) return UNKNOWN;
+                top = parent;
+            }
+        }
+        // Then fill in the depths on the way
+        int depth = depths[top] + steps;
+        for (int n = node; n != top; n = parents[n]) depths[n] = depth--;
+        return depths[node];
+    }
+
+    /**
+     * @return the common ancestor of two nodes whose depths are known, or
+     * UNKNOWN if they have different roots
+     */
+    private int commonAncestor(int a, int b) {
+        int depthA = depths[a];
+        int depthB = depths[b];
+        while (depthA > depthB) {
+            a = parents[a];
+            depthA--;
+        }
+        while (depthB > depthA) {
+            b = parents[b];
+            depthB--;
+        }
+        while (a != b) {
+            if (parents[a] == NONE) return UNKNOWN;
+            a = parents[a];
+            b = parents[b];
+        }
+        return a;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaceHierarchy [size=" + size + "]";
+    }
+}
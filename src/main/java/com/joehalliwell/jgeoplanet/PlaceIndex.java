@@ -0,0 +1,361 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * An in-memory spatial index over the bounding boxes of places, for
+ * answering point-in-place and box queries locally.
+ * <p>
+ * The index is a packed R-tree, bulk loaded using Sort-Tile-Recursive
+ * ordering, so it is compact and fast to query but immutable: it reflects
+ * the rows of the {@link PlaceTable} at the time it was built. Boxes which
+ * cross the antimeridian are indexed as two halves. Short form places have
+ * no bounding box, so are not indexed.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceIndex index = new PlaceIndex(client, earth.getDescendents().get());
+ * Place town = index.getSmallestPlaceContaining(location, client.getPlaceType("Town"));
+ * </pre>
+ * </p>
+ * <p>
+ * Indexes are thread-safe, provided the underlying table is not modified.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    // Offsets of the bounds of each entry or node
+    private static final int SOUTH = 0;
+    private static final int NORTH = 1;
+    private static final int WEST = 2;
+    private static final int EAST = 3;
+    private static final int BOUNDS = 4;
+
+    private final PlaceTable table;
+    // The row of each entry, in tree order
+    private final int[] rows;
+    // Level 0 holds the entries, and the last level the root nodes
+    private final double[][] levels;
+    private final int[] counts;
+    private final int size;
+
+    /**
+     * Build an index over some places.
+     *
+     * @param client the client to which the places are bound
+     * @param places the places to index
+     */
+    public PlaceIndex(GeoPlanet client, Iterable<? extends Place> places) {
+        this(table(client, places));
+    }
+
+    static PlaceTable table(GeoPlanet client, Iterable<? extends Place> places) {
+        PlaceTable table = new PlaceTable(client);
+        table.addAll(places);
+        table.trimToSize();
+        return table;
+    }
+
+    /**
+     * Build an index over the places in a table.
+     *
+     * @param table the places to index
+     */
+    public PlaceIndex(PlaceTable table) {
+        this.table = table;
+        int n = 0;
+        int size = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (!table.isLongForm(row)) continue;
+            n += crossesAntimeridian(table, row) ? 2 : 1;
+            size++;
+        }
+        this.size = size;
+        double[] bounds = new double[n * BOUNDS];
+        int[] entryRows = new int[n];
+        int i = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (!table.isLongForm(row)) continue;
+            if (crossesAntimeridian(table, row)) {
+                // Halves which meet at the antimeridian, as 180 in the west and -180 in the east
+                set(bounds, i, table.getSouth(row), table.getNorth(row), table.getWest(row), 180);
+                entryRows[i++] = row;
+                set(bounds, i, table.getSouth(row), table.getNorth(row), -180, table.getEast(row));
+            } else {
+                set(bounds, i, table.getSouth(row), table.getNorth(row), table.getWest(row), table.getEast(row));
+            }
+            entryRows[i++] = row;
+        }
+
+        Integer[] order = sortTileRecursive(bounds, n);
+        rows = new int[n];
+        double[] sorted = new double[n * BOUNDS];
+        for (i = 0; i < n; i++) {
+            rows[i] = entryRows[order[i]];
+            System.arraycopy(bounds, order[i] * BOUNDS, sorted, i * BOUNDS, BOUNDS);
+        }
+
+        List<double[]> levels = new ArrayList<double[]>();
+        List<Integer> counts = new ArrayList<Integer>();
+        levels.add(sorted);
+        counts.add(n);
+        while (counts.get(counts.size() - 1) > NODE_SIZE) {
+            double[] children = levels.get(levels.size() - 1);
+            int childCount = counts.get(counts.size() - 1);
+            int count = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+            double[] nodes = new double[count * BOUNDS];
+            for (int node = 0; node < count; node++) {
+                int from = node * NODE_SIZE;
+                int to = Math.min(childCount, from + NODE_SIZE);
+                double south = Double.POSITIVE_INFINITY, north = Double.NEGATIVE_INFINITY;
+                double west = Double.POSITIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+                for (int child = from; child < to; child++) {
+                    int c = child * BOUNDS;
+                    south = Math.min(south, children[c + SOUTH]);
+                    north = Math.max(north, children[c + NORTH]);
+                    west = Math.min(west, children[c + WEST]);
+                    east = Math.max(east, children[c + EAST]);
+                }
+                set(nodes, node, south, north, west, east);
+            }
+            levels.add(nodes);
+            counts.add(count);
+        }
+        this.levels = levels.toArray(new double[levels.size()][]);
+        this.counts = new int[counts.size()];
+        for (i = 0; i < this.counts.length; i++) this.counts[i] = counts.get(i);
+    }
+
+    private static boolean crossesAntimeridian(PlaceTable table, int row) {
+        return BoundingBox.crossesAntimeridian(table.getEast(row), table.getWest(row));
+    }
+
+    private static void set(double[] bounds, int i, double south, double north, double west, double east) {
+        int b = i * BOUNDS;
+        bounds[b + SOUTH] = south;
+        bounds[b + NORTH] = north;
+        bounds[b + WEST] = west;
+        bounds[b + EAST] = east;
+    }
+
+    /**
+     * Order the entries so that each run of NODE_SIZE is spatially compact:
+     * sort by longitude into vertical slices, then each slice by latitude.
+     */
+    private static Integer[] sortTileRecursive(final double[] bounds, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(
+                i -> bounds[i * BOUNDS + WEST] + bounds[i * BOUNDS + EAST]));
+        int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for (int from = 0; from < n; from += sliceSize) {
+            Arrays.sort(order, from, Math.min(n, from + sliceSize), Comparator.comparingDouble(
+                    i -> bounds[i * BOUNDS + SOUTH] + bounds[i * BOUNDS + NORTH]));
+        }
+        return order;
+    }
+
+    /**
+     * @return the table of indexed places
+     */
+    public PlaceTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return the number of places in the index, excluding short form places
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the places whose bounding boxes contain a point.
+     *
+     * @param location the point
+     * @param types    the place types to include, or none for all
+     * @return the places, smallest first
+     */
+    public List<Place> getPlacesContaining(Location location, PlaceType... types) {
+        final boolean[] mask = mask(types);
+        final List<Integer> rows = new ArrayList<Integer>();
+        forEachContaining(location.latitude, location.longitude, row -> {
+            if (matches(mask, row)) rows.add(row);
+        });
+        Collections.sort(rows, Comparator.comparingDouble(this::area));
+        List<Place> places = new ArrayList<Place>(rows.size());
+        for (int row : rows) places.add(table.get(row));
+        return places;
+    }
+
+    /**
+     * Find the smallest place whose bounding box contains a point.
+     * This is usually the most specific, e.g. a suburb rather than the
+     * town it lies within.
+     *
+     * @param location the point
+     * @param types    the place types to include, or none for all
+     * @return the place, or null if there is none
+     */
+    public Place getSmallestPlaceContaining(Location location, PlaceType... types) {
+        int row = getSmallestRowContaining(location.latitude, location.longitude, mask(types));
+        return row < 0 ? null : table.get(row);
+    }
+
+    /**
+     * @return the row of the smallest place containing the point, or -1 if there is none
+     */
+    int getSmallestRowContaining(double latitude, double longitude, boolean[] mask) {
+        int top = levels.length - 1;
+        return smallest(top, 0, counts[top], latitude, longitude, mask, -1);
+    }
+
+    private int smallest(int level, int from, int to, double latitude, double longitude,
+                         boolean[] mask, int best) {
+        double[] bounds = levels[level];
+        for (int i = from; i < to; i++) {
+            int b = i * BOUNDS;
+            if (latitude < bounds[b + SOUTH] || latitude > bounds[b + NORTH]
+                    || longitude < bounds[b + WEST] || longitude > bounds[b + EAST]) continue;
+            if (level == 0) {
+                int row = rows[i];
+                if (matches(mask, row) && (best < 0 || area(row) < area(best))) best = row;
+            } else {
+                int childFrom = i * NODE_SIZE;
+                best = smallest(level - 1, childFrom, Math.min(counts[level - 1], childFrom + NODE_SIZE),
+                        latitude, longitude, mask, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the places whose bounding boxes intersect a box.
+     *
+     * @param bbox  the box, which may cross the antimeridian
+     * @param types the place types to include, or none for all
+     * @return the places, in no particular order
+     */
+    public List<Place> getPlacesIntersecting(BoundingBox bbox, PlaceType... types) {
+        final boolean[] mask = mask(types);
+        final List<Place> places = new ArrayList<Place>();
+        forEachIntersecting(bbox.southWest.latitude, bbox.northEast.latitude,
+                bbox.southWest.longitude, bbox.northEast.longitude, row -> {
+                    if (matches(mask, row)) places.add(table.get(row));
+                });
+        return places;
+    }
+
+    /**
+     * Visit the rows of the places whose bounding boxes contain a point,
+     * without creating any objects. Each row is visited once.
+     *
+     * @param latitude  the latitude of the point
+     * @param longitude the longitude of the point
+     * @param visitor   receives the rows, in no particular order
+     */
+    public void forEachContaining(double latitude, double longitude, IntConsumer visitor) {
+        // A split box's west half spans [west, 180] and its east half [-180, east]. Since
+        // east < 0 <= west, no longitude is in both, so unlike a box query this needs no dedupe
+        int top = levels.length - 1;
+        search(top, 0, counts[top], latitude, latitude, longitude, longitude, visitor);
+    }
+
+    /**
+     * Visit the rows of the places whose bounding boxes intersect a box.
+     * Each row is visited once.
+     *
+     * @param south   the latitude of the south edge of the box
+     * @param north   the latitude of the north edge of the box
+     * @param west    the longitude of the west edge of the box
+     * @param east    the longitude of the east edge of the box, which is less than
+     *                the west edge if the box crosses the antimeridian
+     * @param visitor receives the rows, in ascending order
+     */
+    public void forEachIntersecting(double south, double north, double west, double east, IntConsumer visitor) {
+        final int[][] found = {new int[16]};
+        final int[] count = {0};
+        IntConsumer collector = row -> {
+            if (count[0] == found[0].length) found[0] = Arrays.copyOf(found[0], count[0] * 2);
+            found[0][count[0]++] = row;
+        };
+        int top = levels.length - 1;
+        if (west > east) {
+            search(top, 0, counts[top], south, north, west, 180, collector);
+            search(top, 0, counts[top], south, north, -180, east, collector);
+        } else {
+            search(top, 0, counts[top], south, north, west, east, collector);
+        }
+        // Split boxes may be found twice
+        int[] rows = found[0];
+        Arrays.sort(rows, 0, count[0]);
+        for (int i = 0; i < count[0]; i++) {
+            if (i == 0 || rows[i] != rows[i - 1]) visitor.accept(rows[i]);
+        }
+    }
+
+    private void search(int level, int from, int to, double south, double north, double west, double east,
+                        IntConsumer visitor) {
+        double[] bounds = levels[level];
+        for (int i = from; i < to; i++) {
+            int b = i * BOUNDS;
+            if (north < bounds[b + SOUTH] || south > bounds[b + NORTH]
+                    || east < bounds[b + WEST] || west > bounds[b + EAST]) continue;
+            if (level == 0) {
+                visitor.accept(rows[i]);
+            } else {
+                int childFrom = i * NODE_SIZE;
+                search(level - 1, childFrom, Math.min(counts[level - 1], childFrom + NODE_SIZE),
+                        south, north, west, east, visitor);
+            }
+        }
+    }
+
+    /**
+     * @return a mask of place type codes to include, or null for all
+     */
+    static boolean[] mask(PlaceType... types) {
+        if (types == null || types.length == 0) return null;
+        int max = 0;
+        for (PlaceType type : types) max = Math.max(max, type.getCode());
+        boolean[] mask = new boolean[max + 1];
+        for (PlaceType type : types) mask[type.getCode()] = true;
+        return mask;
+    }
+
+    private boolean matches(boolean[] mask, int row) {
+        if (mask == null) return true;
+        int code = table.getPlaceTypeCode(row);
+        return code < mask.length && mask[code];
+    }
+
+    private double area(int row) {
+        return area(table.getNorth(row), table.getEast(row), table.getSouth(row), table.getWest(row));
+    }
+
+    /**
+     * @return the area of a box in square degrees, which is enough to rank boxes
+     * which contain the same point
+     */
+    static double area(double north, double east, double south, double west) {
+        double width = east - west;
+        if (width < 0) width += 360;
+        return (north - south) * width;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceIndex [size=" + size + ", height=" + levels.length + "]";
+    }
+}
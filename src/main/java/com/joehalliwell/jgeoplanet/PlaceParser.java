@@ -0,0 +1,123 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+
+/**
+ * Parses collections of places as they are read, rather than building
+ * a JSON tree of the whole response first. Only one place is held as
+ * JSON at a time, so memory use does not depend on the size of the
+ * response.
+ * <p>
+ * Expects a response of the form
+ * <code>{"places":{"place":[...],"start":0,"count":10,"total":20}}</code>,
+ * with the fields in any order.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+class PlaceParser {
+
+    /**
+     * Receives each place as soon as it has been parsed.
+     */
+    interface Handler {
+        void place(Place place) throws GeoPlanetException;
+    }
+
+    private interface FieldHandler {
+        void field(String key, JSONTokener x) throws JSONException, GeoPlanetException;
+    }
+
+    private final GeoPlanet client;
+    private final Handler handler;
+    private int total = -1;
+
+    private PlaceParser(GeoPlanet client, Handler handler) {
+        this.client = client;
+        this.handler = handler;
+    }
+
+    /**
+     * Parse a collection of places.
+     *
+     * @param client  the client the places belong to
+     * @param reader  the response body
+     * @param handler receives each place in turn
+     * @return the total size of the collection, or -1 if the response did not say
+     */
+    static int parsePlaces(GeoPlanet client, Reader reader, Handler handler) throws JSONException, GeoPlanetException {
+        final PlaceParser parser = new PlaceParser(client, handler);
+        final JSONTokener x = new JSONTokener(reader);
+        readObject(x, (key, y) -> {
+            if (key.equals("places")) {
+                readObject(y, parser::placesField);
+            } else {
+                y.nextValue();
+            }
+        });
+        return parser.total;
+    }
+
+    private void placesField(String key, JSONTokener x) throws JSONException, GeoPlanetException {
+        if (key.equals("place")) {
+            readPlaces(x);
+        } else if (key.equals("total")) {
+            total = toInt(x.nextValue());
+        } else {
+            x.nextValue();
+        }
+    }
+
+    private void readPlaces(JSONTokener x) throws JSONException, GeoPlanetException {
+        char c = x.nextClean();
+        if (c != '[') {
+            // A single place may not be wrapped in an array
+            x.back();
+            handler.place(new Place(client, (JSONObject) x.nextValue()));
+            return;
+        }
+        if (x.nextClean() == ']') return;
+        x.back();
+        for (; ; ) {
+            Object value = x.nextValue();
+            if (!(value instanceof JSONObject)) throw x.syntaxError("Expected a place");
+            handler.place(new Place(client, (JSONObject) value));
+            c = x.nextClean();
+            if (c == ']') return;
+            if (c != ',') throw x.syntaxError("Expected ',' or ']'");
+        }
+    }
+
+    /**
+     * Read an object, passing each field to the handler. The handler must
+     * consume the field's value.
+     */
+    private static void readObject(JSONTokener x, FieldHandler handler) throws JSONException, GeoPlanetException {
+        if (x.nextClean() != '{') throw x.syntaxError("Expected '{'");
+        if (x.nextClean() == '}') return;
+        x.back();
+        for (; ; ) {
+            char c = x.nextClean();
+            if (c != '"' && c != '\'') throw x.syntaxError("Expected a key");
+            String key = x.nextString(c);
+            if (x.nextClean() != ':') throw x.syntaxError("Expected ':' after " + key);
+            handler.field(key, x);
+            c = x.nextClean();
+            if (c == '}') return;
+            if (c != ',') throw x.syntaxError("Expected ',' or '}'");
+        }
+    }
+
+    private static int toInt(Object value) throws JSONException {
+        if (value instanceof Number) return ((Number) value).intValue();
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new JSONException("Expected a number but found " + value);
+        }
+    }
+}
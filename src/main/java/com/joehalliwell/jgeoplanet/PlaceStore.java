@@ -0,0 +1,401 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent store of {@link Place} objects, which survives restarts.
+ * <p>
+ * Places are appended to a data file in a compact binary form, and found
+ * again through a memory-mapped hash index keyed by WOE ID, so only the
+ * places actually requested are read onto the heap. Each service URI
+ * and language has its own data and index files, so clients of different
+ * services can share a store. The localised place types are stored
+ * alongside, so that a client constructed with a warm store needs no
+ * network access at all.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceStore store = new PlaceStore(new File("/var/cache/geoplanet"));
+ * GeoPlanet client = new GeoPlanet(appId, "en", GeoPlanet.defaultServiceUri, store);
+ * </pre>
+ * </p>
+ * <p>
+ * The data file is append-only. If the process dies part way through a
+ * write the store recovers on reopening, though the last few places
+ * written may be lost. Use one store per directory and process.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceStore implements Closeable {
+
+    private static final int MAGIC = 0x4A475053; // JGPS
+    private static final int VERSION = 1;
+    private static final int DATA_HEADER = 8;
+    private static final int INDEX_HEADER = 32;
+    private static final int SLOT = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final File directory;
+    private final Map<String, Segment> segments = new HashMap<String, Segment>();
+    private boolean closed = false;
+
+    /**
+     * Open or create a store in the specified directory.
+     *
+     * @param directory the directory holding the store files
+     * @throws IOException if the directory cannot be created
+     */
+    public PlaceStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory holding the store files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param serviceUri the service URI e.g. {@link GeoPlanet#defaultServiceUri}
+     * @param language   a language code e.g. "en"
+     * @return the number of places stored for the service and language
+     * @throws IOException on error
+     */
+    public synchronized int size(String serviceUri, String language) throws IOException {
+        return segment(serviceUri, language).size;
+    }
+
+    /**
+     * Look up a place by WOE ID. The place is decoded outside the store's
+     * lock, since resolving its type may load the place types, which are
+     * read from the store under the place type registry's lock.
+     *
+     * @return the stored place, or null if there is none
+     */
+    Place get(GeoPlanet client, long woeId) throws IOException, GeoPlanetException {
+        byte[] record;
+        synchronized (this) {
+            record = segment(client.getServiceUri(), client.getLanguage()).read(woeId);
+        }
+        if (record == null) return null;
+        return new Place(client, new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * Add a place to the store, replacing any previous version.
+     */
+    synchronized void put(Place place) throws IOException {
+        if (place.getWoeId() <= 0) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        place.write(new DataOutputStream(bytes));
+        GeoPlanet client = place.getClient();
+        segment(client.getServiceUri(), client.getLanguage()).append(place.getWoeId(), bytes.toByteArray());
+    }
+
+    /**
+     * @return the stored place types response for the service and language, or null
+     */
+    synchronized String getPlaceTypes(String serviceUri, String language) throws IOException {
+        File file = new File(directory, "placetypes-" + name(serviceUri, language) + ".json");
+        if (!file.exists()) return null;
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Store the place types response for the service and language.
+     */
+    synchronized void putPlaceTypes(String serviceUri, String language, String json) throws IOException {
+        File file = new File(directory, "placetypes-" + name(serviceUri, language) + ".json");
+        File tmp = new File(directory, file.getName() + ".tmp");
+        Files.write(tmp.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Segment segment(String serviceUri, String language) throws IOException {
+        if (closed) throw new IllegalStateException("Store has been closed");
+        String name = name(serviceUri, language);
+        Segment segment = segments.get(name);
+        if (segment == null) {
+            segment = new Segment(new File(directory, "places-" + name + ".dat"),
+                    new File(directory, "places-" + name + ".idx"));
+            segments.put(name, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * @return a file name part for the service and language,
+     * e.g. "http_where.yahooapis.com_v1-en"
+     */
+    static String name(String serviceUri, String language) {
+        return serviceUri.replaceAll("[^A-Za-z0-9.]+", "_") + "-" + language;
+    }
+
+    /**
+     * Flush all data to disk and close the store.
+     *
+     * @throws IOException on error
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (Segment segment : segments.values()) segment.close();
+        segments.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceStore [directory=" + directory + "]";
+    }
+
+    /**
+     * The data and index files for a single service and language.
+     * <p>
+     * Data file: header (magic, version) then records of the form
+     * [int length][place bytes], where the place bytes start with the WOE ID.
+     * </p>
+     * <p>
+     * Index file: header (magic, version, capacity, size, length of data
+     * indexed) then an open-addressing table of [long woeId][long offset]
+     * slots. A WOE ID of zero marks an empty slot.
+     * </p>
+     */
+    private static class Segment {
+        final File indexFile;
+        final RandomAccessFile dataFile;
+        final FileChannel data;
+        MappedByteBuffer index;
+        int capacity;
+        int size;
+
+        Segment(File dataPath, File indexPath) throws IOException {
+            this.indexFile = indexPath;
+            this.dataFile = new RandomAccessFile(dataPath, "rw");
+            this.data = dataFile.getChannel();
+            if (data.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                writeFully(header, 0);
+            } else {
+                ByteBuffer header = readFully(0, DATA_HEADER);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not a place store: " + dataPath);
+                }
+            }
+            long indexed = openIndex();
+            if (indexed > data.size()) {
+                // The index covers data which was lost, so rebuild it
+                rebuild(capacity, DATA_HEADER);
+                indexed = DATA_HEADER;
+            }
+            recover(indexed);
+        }
+
+        /**
+         * Map the index file, creating a fresh one if it is missing or invalid.
+         *
+         * @return the length of the data file covered by the index
+         */
+        private long openIndex() throws IOException {
+            if (indexFile.length() > INDEX_HEADER) {
+                MappedByteBuffer existing = map(indexFile, indexFile.length());
+                if (existing.getInt(0) == MAGIC && existing.getInt(4) == VERSION
+                        && INDEX_HEADER + (long) existing.getInt(8) * SLOT == indexFile.length()) {
+                    index = existing;
+                    capacity = index.getInt(8);
+                    size = index.getInt(12);
+                    return index.getLong(16);
+                }
+            }
+            indexFile.delete();
+            index = createIndex(indexFile, INITIAL_CAPACITY);
+            capacity = INITIAL_CAPACITY;
+            size = 0;
+            return DATA_HEADER;
+        }
+
+        /**
+         * Index any records appended after the index was last updated,
+         * and discard a partially written final record, along with any
+         * index entries for records which were never completely written.
+         */
+        private void recover(long from) throws IOException {
+            long length = data.size();
+            long position = from;
+            while (position + 12 <= length) {
+                ByteBuffer header = readFully(position, 12);
+                int recordLength = header.getInt();
+                if (recordLength < 8 || position + 4 + recordLength > length) break;
+                insert(header.getLong(), position);
+                position += 4 + recordLength;
+            }
+            if (position < length) data.truncate(position);
+            index.putLong(16, position);
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = index.getLong(INDEX_HEADER + slot * SLOT);
+                if (key != 0 && index.getLong(INDEX_HEADER + slot * SLOT + 8) >= position) {
+                    rebuild(capacity, position);
+                    break;
+                }
+            }
+        }
+
+        byte[] read(long woeId) throws IOException {
+            long offset = find(woeId);
+            if (offset < 0) return null;
+            int length = readFully(offset, 4).getInt();
+            byte[] record = readFully(offset + 4, length).array();
+            // Records start with the WOE ID, so a stale index entry can't return the wrong place
+            if (length < 8 || ByteBuffer.wrap(record).getLong() != woeId) return null;
+            return record;
+        }
+
+        void append(long woeId, byte[] record) throws IOException {
+            long position = data.size();
+            ByteBuffer buffer = ByteBuffer.allocate(4 + record.length);
+            buffer.putInt(record.length).put(record).flip();
+            writeFully(buffer, position);
+            insert(woeId, position);
+            index.putLong(16, position + 4 + record.length);
+        }
+
+        private long find(long woeId) {
+            int mask = capacity - 1;
+            for (int slot = hash(woeId) & mask; ; slot = (slot + 1) & mask) {
+                long key = index.getLong(INDEX_HEADER + slot * SLOT);
+                if (key == 0) return -1;
+                if (key == woeId) return index.getLong(INDEX_HEADER + slot * SLOT + 8);
+            }
+        }
+
+        private void insert(long woeId, long offset) throws IOException {
+            if ((size + 1) * 2 > capacity) grow();
+            if (put(index, capacity, woeId, offset)) {
+                size++;
+                index.putInt(12, size);
+            }
+        }
+
+        /**
+         * @return true if a new slot was used; false if an existing one was updated
+         */
+        private static boolean put(MappedByteBuffer index, int capacity, long woeId, long offset) {
+            int mask = capacity - 1;
+            for (int slot = hash(woeId) & mask; ; slot = (slot + 1) & mask) {
+                int position = INDEX_HEADER + slot * SLOT;
+                long key = index.getLong(position);
+                if (key == 0 || key == woeId) {
+                    index.putLong(position, woeId);
+                    index.putLong(position + 8, offset);
+                    return key == 0;
+                }
+            }
+        }
+
+        /**
+         * Double the capacity of the index.
+         */
+        private void grow() throws IOException {
+            rebuild(capacity * 2, Long.MAX_VALUE);
+        }
+
+        /**
+         * Rebuild the index in a new file, keeping only the entries for
+         * records before the specified offset.
+         */
+        private void rebuild(int newCapacity, long limit) throws IOException {
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            tmp.delete();
+            MappedByteBuffer rebuilt = createIndex(tmp, newCapacity);
+            int kept = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = index.getLong(INDEX_HEADER + slot * SLOT);
+                long offset = index.getLong(INDEX_HEADER + slot * SLOT + 8);
+                if (key != 0 && offset < limit) {
+                    put(rebuilt, newCapacity, key, offset);
+                    kept++;
+                }
+            }
+            rebuilt.putInt(12, kept);
+            rebuilt.putLong(16, Math.min(index.getLong(16), Math.max(limit, DATA_HEADER)));
+            rebuilt.force();
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            index = rebuilt;
+            capacity = newCapacity;
+            size = kept;
+        }
+
+        private static MappedByteBuffer createIndex(File file, int capacity) throws IOException {
+            // Mapping extends the new file with zeros, so every slot starts empty
+            new FileOutputStream(file).close();
+            MappedByteBuffer index = map(file, INDEX_HEADER + (long) capacity * SLOT);
+            index.putInt(0, MAGIC);
+            index.putInt(4, VERSION);
+            index.putInt(8, capacity);
+            index.putInt(12, 0);
+            index.putLong(16, DATA_HEADER);
+            return index;
+        }
+
+        private static MappedByteBuffer map(File file, long length) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // The mapping remains valid after the file is closed
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } finally {
+                raf.close();
+            }
+        }
+
+        private static int hash(long woeId) {
+            long h = woeId * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private ByteBuffer readFully(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (data.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of place store");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                data.write(buffer, position + buffer.position());
+            }
+        }
+
+        void close() throws IOException {
+            data.force(false);
+            index.force();
+            dataFile.close();
+        }
+    }
+}
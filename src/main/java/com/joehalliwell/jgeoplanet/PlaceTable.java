@@ -0,0 +1,478 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, columnar store of places for bulk workloads.
+ * <p>
+ * Each field is held in a primitive array, or an array of references to
+ * shared strings and admin regions, rather than in a graph of objects per
+ * place. A long-form place takes around a hundred bytes rather than
+ * several hundred, so millions of them fit comfortably in the heap.
+ * Strings and admin regions are interned as rows are added, so e.g. each
+ * country is held once however many places lie within it.
+ * </p>
+ * <p>
+ * {@link #get(int)} returns a lightweight {@link Place} view of a row,
+ * with all the usual getters. Views are created on demand and hold only
+ * the row number, so they should not be retained in bulk. For the tightest
+ * loops the columns can be read directly, e.g. {@link #getLatitude(int)}.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceTable table = new PlaceTable(client);
+ * table.addAll(earth.getDescendents().get());
+ * for (Place place : table) {
+ *     ...
+ * }
+ * </pre>
+ * </p>
+ * <p>
+ * Tables are not thread-safe: they may be read concurrently, but not
+ * while rows are being added.
+ * </p>
+ * <p>
+ * A table can be saved to a file with {@link #write(File)} and loaded
+ * again with {@link #read(GeoPlanet, File)}, e.g. to build a
+ * {@link PlaceIndex} without network access.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceTable implements Iterable<Place> {
+
+    private static final int MAGIC = 0x4A475054; // JGPT
+    private static final int VERSION = 1;
+
+    // Offsets of the coordinates of each row
+    private static final int CENTROID_LAT = 0;
+    private static final int CENTROID_LON = 1;
+    private static final int NORTH = 2;
+    private static final int EAST = 3;
+    private static final int SOUTH = 4;
+    private static final int WEST = 5;
+    private static final int COORDINATES = 6;
+
+    private static final int COUNTRY = 0;
+    private static final int ADMIN1 = 1;
+    private static final int ADMIN2 = 2;
+    private static final int ADMIN3 = 3;
+    private static final int ADMINS = 4;
+
+    private final GeoPlanet client;
+    private int size;
+    private long[] woeIds;
+    private short[] placeTypeCodes;
+    private int[] popRanks;
+    private int[] areaRanks;
+    // NaN centroid latitude for short form places
+    private double[] coordinates;
+    private String[] names;
+    private String[] placeTypeNameVariants;
+    private String[] postals;
+    private String[] localities1;
+    private String[] localities2;
+    private AdminRegion[] admins;
+    // Indexed by code, like the client's own
+    private PlaceType[] placeTypes = new PlaceType[0];
+    private Map<Object, Object> pool = new HashMap<Object, Object>();
+
+    /**
+     * @param client the client to which views of the places are bound
+     */
+    public PlaceTable(GeoPlanet client) {
+        this(client, 16);
+    }
+
+    /**
+     * @param client          the client to which views of the places are bound
+     * @param initialCapacity the number of places to allocate space for
+     */
+    public PlaceTable(GeoPlanet client, int initialCapacity) {
+        if (client == null) throw new NullPointerException("client");
+        if (initialCapacity < 0) throw new IllegalArgumentException("initialCapacity must be >= 0");
+        this.client = client;
+        allocate(initialCapacity);
+    }
+
+    private void allocate(int capacity) {
+        woeIds = Arrays.copyOf(woeIds == null ? new long[0] : woeIds, capacity);
+        placeTypeCodes = Arrays.copyOf(placeTypeCodes == null ? new short[0] : placeTypeCodes, capacity);
+        popRanks = Arrays.copyOf(popRanks == null ? new int[0] : popRanks, capacity);
+        areaRanks = Arrays.copyOf(areaRanks == null ? new int[0] : areaRanks, capacity);
+        coordinates = Arrays.copyOf(coordinates == null ? new double[0] : coordinates, capacity * COORDINATES);
+        names = Arrays.copyOf(names == null ? new String[0] : names, capacity);
+        placeTypeNameVariants = Arrays.copyOf(placeTypeNameVariants == null ? new String[0] : placeTypeNameVariants, capacity);
+        postals = Arrays.copyOf(postals == null ? new String[0] : postals, capacity);
+        localities1 = Arrays.copyOf(localities1 == null ? new String[0] : localities1, capacity);
+        localities2 = Arrays.copyOf(localities2 == null ? new String[0] : localities2, capacity);
+        admins = Arrays.copyOf(admins == null ? new AdminRegion[0] : admins, capacity * ADMINS);
+    }
+
+    /**
+     * Add a place to the end of the table. A place which is already in the
+     * table is added again.
+     *
+     * @param place the place to add
+     * @return the row of the place
+     */
+    public int add(Place place) {
+        if (size == woeIds.length) allocate(Math.max(16, size + (size >> 1)));
+        int row = size;
+        woeIds[row] = place.getWoeId();
+        PlaceType placeType = place.getPlaceType();
+        int code = placeType.getCode();
+        if (code >= placeTypes.length) placeTypes = Arrays.copyOf(placeTypes, code + 1);
+        placeTypes[code] = placeType;
+        placeTypeCodes[row] = (short) code;
+        names[row] = intern(place.getName());
+        placeTypeNameVariants[row] = intern(place.getPlaceTypeNameVariant());
+        int c = row * COORDINATES;
+        if (place.isLongForm()) {
+            coordinates[c + CENTROID_LAT] = place.getCentroid().latitude;
+            coordinates[c + CENTROID_LON] = place.getCentroid().longitude;
+            BoundingBox bbox = place.getBoundingBox();
+            coordinates[c + NORTH] = bbox.northEast.latitude;
+            coordinates[c + EAST] = bbox.northEast.longitude;
+            coordinates[c + SOUTH] = bbox.southWest.latitude;
+            coordinates[c + WEST] = bbox.southWest.longitude;
+            postals[row] = intern(place.getPostal());
+            localities1[row] = intern(place.getLocality1());
+            localities2[row] = intern(place.getLocality2());
+            int a = row * ADMINS;
+            admins[a + COUNTRY] = intern(place.getCountry());
+            admins[a + ADMIN1] = intern(place.getAdmin1());
+            admins[a + ADMIN2] = intern(place.getAdmin2());
+            admins[a + ADMIN3] = intern(place.getAdmin3());
+        } else {
+            Arrays.fill(coordinates, c, c + COORDINATES, Double.NaN);
+        }
+        popRanks[row] = place.getPopulationRank();
+        areaRanks[row] = place.getAreaRank();
+        size++;
+        return row;
+    }
+
+    /**
+     * Add several places to the end of the table.
+     *
+     * @param places the places to add
+     */
+    public void addAll(Iterable<? extends Place> places) {
+        for (Place place : places) add(place);
+    }
+
+    /**
+     * Save the places in this table to a file, in the same compact binary
+     * form as a {@link PlaceStore}. The file is replaced atomically.
+     *
+     * @param file the file to write
+     * @throws IOException on error
+     * @see #read(GeoPlanet, File)
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int row = 0; row < size; row++) get(row).write(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Load a table saved by {@link #write(File)}.
+     *
+     * @param client the client to which views of the places are bound
+     * @param file   the file to read
+     * @return the table
+     * @throws IOException        if the file cannot be read, or is not a saved table
+     * @throws GeoPlanetException if the client's place types cannot be loaded
+     */
+    public static PlaceTable read(GeoPlanet client, File file) throws IOException, GeoPlanetException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a place table: " + file);
+            }
+            int size = in.readInt();
+            PlaceTable table = new PlaceTable(client, size);
+            for (int i = 0; i < size; i++) table.add(new Place(client, in));
+            return table;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T intern(T value) {
+        if (value == null) return null;
+        T interned = (T) pool.get(value);
+        if (interned != null) return interned;
+        pool.put(value, value);
+        return value;
+    }
+
+    /**
+     * Release any spare capacity, and the pool used to intern strings.
+     * Places added afterwards only share strings with each other.
+     */
+    public void trimToSize() {
+        if (woeIds.length > size) allocate(size);
+        pool = new HashMap<Object, Object>();
+    }
+
+    /**
+     * @return the number of places in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the client to which views of the places are bound
+     */
+    public GeoPlanet getClient() {
+        return client;
+    }
+
+    /**
+     * Returns a view of a row as a place. The view reads the table
+     * on each call, and is equal to the place that was added.
+     *
+     * @param row the row
+     * @return a view of the place in the row
+     * @throws IndexOutOfBoundsException if there is no such row
+     */
+    public Place get(int row) {
+        return new Row(checkRow(row));
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        return row;
+    }
+
+    /**
+     * @return the WOE ID of the place in the row
+     */
+    public long getWoeId(int row) {
+        return woeIds[checkRow(row)];
+    }
+
+    /**
+     * @return the place type code of the place in the row
+     */
+    public int getPlaceTypeCode(int row) {
+        return placeTypeCodes[checkRow(row)];
+    }
+
+    /**
+     * @return true if the place in the row is long form, so has coordinates; false otherwise
+     */
+    public boolean isLongForm(int row) {
+        return !Double.isNaN(coordinates[checkRow(row) * COORDINATES + CENTROID_LAT]);
+    }
+
+    /**
+     * @return the latitude of the centroid of the place in the row, or NaN if it is short form
+     */
+    public double getLatitude(int row) {
+        return coordinates[checkRow(row) * COORDINATES + CENTROID_LAT];
+    }
+
+    /**
+     * @return the longitude of the centroid of the place in the row, or NaN if it is short form
+     */
+    public double getLongitude(int row) {
+        return coordinates[checkRow(row) * COORDINATES + CENTROID_LON];
+    }
+
+    /**
+     * @return the latitude of the north edge of the bounding box of the place in the row,
+     * or NaN if it is short form
+     */
+    public double getNorth(int row) {
+        return coordinates[checkRow(row) * COORDINATES + NORTH];
+    }
+
+    /**
+     * @return the longitude of the east edge of the bounding box of the place in the row,
+     * or NaN if it is short form
+     */
+    public double getEast(int row) {
+        return coordinates[checkRow(row) * COORDINATES + EAST];
+    }
+
+    /**
+     * @return the latitude of the south edge of the bounding box of the place in the row,
+     * or NaN if it is short form
+     */
+    public double getSouth(int row) {
+        return coordinates[checkRow(row) * COORDINATES + SOUTH];
+    }
+
+    /**
+     * @return the longitude of the west edge of the bounding box of the place in the row,
+     * or NaN if it is short form
+     */
+    public double getWest(int row) {
+        return coordinates[checkRow(row) * COORDINATES + WEST];
+    }
+
+    /**
+     * Determine whether a point lies within the bounding box of the place
+     * in the row, without creating any objects.
+     *
+     * @return true if the point is within the bounding box; false otherwise, or if the place is short form
+     * @see Place#contains(Location)
+     */
+    public boolean contains(int row, double latitude, double longitude) {
+        int c = checkRow(row) * COORDINATES;
+        if (Double.isNaN(coordinates[c + CENTROID_LAT])) return false;
+        return BoundingBox.contains(coordinates[c + NORTH], coordinates[c + EAST],
+                coordinates[c + SOUTH], coordinates[c + WEST], latitude, longitude);
+    }
+
+    /**
+     * @return views of all the places in the table, in row order
+     */
+    @Override
+    public Iterator<Place> iterator() {
+        return new Iterator<Place>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public Place next() {
+                if (row >= size) throw new NoSuchElementException();
+                return new Row(row++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceTable [size=" + size + "]";
+    }
+
+    /**
+     * A view of a row as a place.
+     */
+    private class Row extends Place {
+
+        private final int row;
+
+        Row(int row) {
+            super(client, woeIds[row]);
+            this.row = row;
+        }
+
+        @Override
+        public String getName() {
+            return names[row];
+        }
+
+        @Override
+        public PlaceType getPlaceType() {
+            return placeTypes[placeTypeCodes[row]];
+        }
+
+        @Override
+        public String getPlaceTypeNameVariant() {
+            return placeTypeNameVariants[row];
+        }
+
+        @Override
+        public boolean isLongForm() {
+            return !Double.isNaN(coordinates[row * COORDINATES + CENTROID_LAT]);
+        }
+
+        @Override
+        public Location getCentroid() {
+            if (!isLongForm()) return null;
+            int c = row * COORDINATES;
+            return new Location(coordinates[c + CENTROID_LAT], coordinates[c + CENTROID_LON]);
+        }
+
+        @Override
+        public BoundingBox getBoundingBox() {
+            if (!isLongForm()) return null;
+            int c = row * COORDINATES;
+            return new BoundingBox(new Location(coordinates[c + NORTH], coordinates[c + EAST]),
+                    new Location(coordinates[c + SOUTH], coordinates[c + WEST]));
+        }
+
+        @Override
+        public boolean contains(Location location) {
+            return PlaceTable.this.contains(row, location.latitude, location.longitude);
+        }
+
+        @Override
+        public String getPostal() {
+            return postals[row];
+        }
+
+        @Override
+        public String getLocality1() {
+            return localities1[row];
+        }
+
+        @Override
+        public String getLocality2() {
+            return localities2[row];
+        }
+
+        @Override
+        public AdminRegion getCountry() {
+            return admins[row * ADMINS + COUNTRY];
+        }
+
+        @Override
+        public AdminRegion getAdmin1() {
+            return admins[row * ADMINS + ADMIN1];
+        }
+
+        @Override
+        public AdminRegion getAdmin2() {
+            return admins[row * ADMINS + ADMIN2];
+        }
+
+        @Override
+        public AdminRegion getAdmin3() {
+            return admins[row * ADMINS + ADMIN3];
+        }
+
+        @Override
+        public int getPopulationRank() {
+            return popRanks[row];
+        }
+
+        @Override
+        public int getAreaRank() {
+            return areaRanks[row];
+        }
+    }
+}
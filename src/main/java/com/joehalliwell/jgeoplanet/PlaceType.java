@@ -5,6 +5,10 @@ import org.json.JSONObject;
 
 /**
  * A type of place such as: Country, Ocean, Town.
+ * <p>
+ * Place types are immutable. The types for a service and language are
+ * parsed once, then bound to each client which uses them.
+ * </p>
  *
  * @author Joe Halliwell
  */
@@ -13,14 +17,34 @@ public class PlaceType extends GeoPlanetResource {
     private final int code;
     private final String name;
     private final String description;
+    private final String language;
+    private final String serviceUri;
 
-    PlaceType(GeoPlanet client, JSONObject placeType) throws JSONException {
-        super(client);
+    /**
+     * Construct a place type which is not yet bound to a client.
+     */
+    PlaceType(String serviceUri, String language, JSONObject placeType) throws JSONException {
+        super(null);
+        this.serviceUri = serviceUri;
+        this.language = language;
         code = placeType.getJSONObject("placeTypeName attrs").getInt("code");
         name = placeType.getString("placeTypeName");
         description = placeType.getString("placeTypeDescription");
     }
 
+    /**
+     * Copy a place type, binding it to a client which uses the same
+     * service and language.
+     */
+    PlaceType(GeoPlanet client, PlaceType placeType) {
+        super(client);
+        this.serviceUri = placeType.serviceUri;
+        this.language = placeType.language;
+        this.code = placeType.code;
+        this.name = placeType.name;
+        this.description = placeType.description;
+    }
+
     /**
      * Returns the numerical code corresponding to the place type e.g. 7 for a "Town"
      *
@@ -49,13 +73,29 @@ public class PlaceType extends GeoPlanetResource {
         return description;
     }
 
+    /**
+     * Returns the language of this place type's name e.g. "en"
+     *
+     * @return the language of this place type
+     */
+    public String getLanguage() {
+        return language;
+    }
+
     /**
      * Return a URI corresponding to this placeType
      *
      * @return the URI of this place type
      */
     public String getUri() {
-        return getClient().getServiceUri() + "/placetype/" + code;
+        return serviceUri + "/placetype/" + code;
+    }
+
+    /**
+     * @return true if this place type has the same name and description as another
+     */
+    boolean sameAs(PlaceType other) {
+        return code == other.code && name.equals(other.name) && description.equals(other.description);
     }
 
     /**
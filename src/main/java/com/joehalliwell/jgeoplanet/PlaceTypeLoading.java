@@ -0,0 +1,40 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * When a {@link GeoPlanet} client loads the localised place types, which
+ * it needs in order to construct places. A client with a persistent
+ * store loads them from the store if it can. Place types are shared
+ * between clients, so are only loaded once for each service and language.
+ *
+ * @author Joe Halliwell
+ * @see GeoPlanet#GeoPlanet(String, String, String, PlaceTypeLoading)
+ */
+public enum PlaceTypeLoading {
+
+    /**
+     * Load the place types from the service during construction, unless
+     * another client using the same service and language already has.
+     * This checks the application ID, but blocks until the service responds.
+     * The default.
+     */
+    EAGER,
+
+    /**
+     * Load the place types from the service when they are first needed.
+     */
+    LAZY,
+
+    /**
+     * Use the snapshot of the place types bundled with the library, so
+     * they are never requested. If there is no snapshot for the client's
+     * language this is the same as {@link #LAZY}.
+     */
+    SNAPSHOT,
+
+    /**
+     * Use the bundled snapshot until the place types have been loaded from
+     * the service, on a background thread. If there is no snapshot for the
+     * client's language, lookups wait for the service.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,229 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The place types for one service and language, shared by every client
+ * in the process which uses them, so the types are parsed only once.
+ * Each client sees them through a {@link View}, which binds them to it.
+ * <p>
+ * Types are held in an array indexed by code, which is dense, so looking
+ * one up by code is an array access. Reads take no locks: updates build
+ * new tables and publish them through a single volatile reference.
+ * Types which an update leaves unchanged keep their identity.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+class PlaceTypeRegistry {
+
+    private static final ConcurrentMap<String, PlaceTypeRegistry> registries =
+            new ConcurrentHashMap<String, PlaceTypeRegistry>();
+
+    private final String serviceUri;
+    private final String language;
+    private volatile Table table = new Table(new PlaceType[0], Collections.<String, PlaceType>emptyMap(), false);
+    // Application IDs which the service has accepted for a /placetypes request
+    private final Set<String> checkedAppIds = ConcurrentHashMap.newKeySet();
+
+    private PlaceTypeRegistry(String serviceUri, String language) {
+        this.serviceUri = serviceUri;
+        this.language = language;
+    }
+
+    /**
+     * @return the registry for the service and language, created if necessary
+     */
+    static PlaceTypeRegistry get(String serviceUri, String language) {
+        String key = serviceUri + " " + language;
+        PlaceTypeRegistry registry = registries.get(key);
+        if (registry == null) {
+            registries.putIfAbsent(key, new PlaceTypeRegistry(serviceUri, language));
+            registry = registries.get(key);
+        }
+        return registry;
+    }
+
+    /**
+     * Forget all registries. For tests.
+     */
+    static void clear() {
+        registries.clear();
+    }
+
+    /**
+     * @return the type with the code, or null if there is none
+     */
+    PlaceType get(int code) {
+        PlaceType[] byCode = table.byCode;
+        return (code >= 0 && code < byCode.length) ? byCode[code] : null;
+    }
+
+    /**
+     * @return the type with the name, or null if there is none
+     */
+    PlaceType get(String name) {
+        return table.byName.get(name);
+    }
+
+    /**
+     * @return all the types
+     */
+    Collection<PlaceType> getAll() {
+        return table.byName.values();
+    }
+
+    /**
+     * @return true if no types have been registered
+     */
+    boolean isEmpty() {
+        return table.byName.isEmpty();
+    }
+
+    /**
+     * @return true if the types have come from the service (or a store of
+     * its responses) rather than the bundled snapshot
+     */
+    boolean isLoaded() {
+        return table.loaded;
+    }
+
+    /**
+     * @return true if the service has accepted the application ID
+     */
+    boolean isChecked(String appId) {
+        return checkedAppIds.contains(appId);
+    }
+
+    /**
+     * Record that the service has accepted an application ID.
+     */
+    void checked(String appId) {
+        checkedAppIds.add(appId);
+    }
+
+    /**
+     * Replace the types with those in a /placetypes response.
+     *
+     * @param placeTypes the response
+     * @param loaded     true if the response is from the service; false if it is a snapshot
+     */
+    synchronized void update(JSONObject placeTypes, boolean loaded) throws JSONException {
+        Table old = table;
+        JSONArray types = placeTypes.getJSONObject("placeTypes").getJSONArray("placeType");
+        List<PlaceType> parsed = new ArrayList<PlaceType>(types.length());
+        for (int i = 0; i < types.length(); i++) {
+            parsed.add(new PlaceType(serviceUri, language, types.getJSONObject(i)));
+        }
+        table = new Table(null, old, parsed, loaded);
+    }
+
+    /**
+     * @param client  the client to bind the types to
+     * @param current the client's current view, or null if it has none
+     * @return a view of the types bound to the client; the current view if it is up to date
+     */
+    View view(GeoPlanet client, View current) {
+        Table source = table;
+        if (current != null && current.source == source) return current;
+        return new View(source, new Table(client, (current == null) ? null : current.types,
+                Arrays.asList(source.byCode), source.loaded));
+    }
+
+    /**
+     * The types as seen by one client.
+     */
+    static class View {
+        // The registry's types when the view was made
+        private final Table source;
+        private final Table types;
+
+        private View(Table source, Table types) {
+            this.source = source;
+            this.types = types;
+        }
+
+        /**
+         * @return the type with the code, or null if there is none
+         */
+        PlaceType get(int code) {
+            PlaceType[] byCode = types.byCode;
+            return (code >= 0 && code < byCode.length) ? byCode[code] : null;
+        }
+
+        /**
+         * @return the type with the name, or null if there is none
+         */
+        PlaceType get(String name) {
+            return types.byName.get(name);
+        }
+
+        /**
+         * @return all the types
+         */
+        Collection<PlaceType> getAll() {
+            return types.byName.values();
+        }
+    }
+
+    /**
+     * An immutable set of types.
+     */
+    private static class Table {
+        final PlaceType[] byCode;
+        final Map<String, PlaceType> byName;
+        final boolean loaded;
+
+        Table(PlaceType[] byCode, Map<String, PlaceType> byName, boolean loaded) {
+            this.byCode = byCode;
+            this.byName = byName;
+            this.loaded = loaded;
+        }
+
+        /**
+         * Make a table of types, keeping those in the old table which are the same.
+         *
+         * @param client the client to bind the types to, or null to leave them unbound
+         * @param old    the previous table, or null
+         * @param types  the types, with nulls for unused codes
+         */
+        Table(GeoPlanet client, Table old, List<PlaceType> types, boolean loaded) {
+            PlaceType[] byCode = new PlaceType[0];
+            Map<String, PlaceType> byName = new HashMap<String, PlaceType>();
+            for (PlaceType type : types) {
+                if (type == null) continue;
+                PlaceType existing = (old != null && type.getCode() < old.byCode.length) ? old.byCode[type.getCode()] : null;
+                if (existing != null && existing.sameAs(type)) {
+                    type = existing;
+                } else if (client != null) {
+                    type = new PlaceType(client, type);
+                }
+                if (type.getCode() >= byCode.length) byCode = Arrays.copyOf(byCode, type.getCode() + 1);
+                byCode[type.getCode()] = type;
+                byName.put(type.getName(), type);
+            }
+            this.byCode = byCode;
+            this.byName = Collections.unmodifiableMap(byName);
+            this.loaded = loaded;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceTypeRegistry [serviceUri=" + serviceUri + ", lang=" + language
+                + ", types=" + table.byName.size() + ", loaded=" + table.loaded + "]";
+    }
+}
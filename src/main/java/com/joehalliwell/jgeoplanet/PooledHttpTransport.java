@@ -0,0 +1,126 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The default transport: a single {@link HttpClient} backed by a pool of
+ * persistent (keep-alive) connections.
+ *
+ * @author Joe Halliwell
+ */
+class PooledHttpTransport implements HttpTransport {
+
+    static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+    static final int DEFAULT_CONNECTION_TIMEOUT = 10000;
+    static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final HttpClient httpClient;
+    private volatile boolean keepAlive = true;
+
+    PooledHttpTransport() {
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(DEFAULT_MAX_TOTAL_CONNECTIONS);
+        params.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+        params.setSoTimeout(DEFAULT_READ_TIMEOUT);
+        params.setStaleCheckingEnabled(true);
+        httpClient = new HttpClient(connectionManager);
+    }
+
+    @Override
+    public Response get(String uri) throws IOException {
+        GetMethod get = new GetMethod(uri);
+        if (!keepAlive) get.setRequestHeader("Connection", "close");
+        try {
+            httpClient.executeMethod(get);
+            byte[] body = get.getResponseBody();
+            if (body == null) body = new byte[0];
+            return new Response(get.getStatusCode(), String.valueOf(get.getStatusLine()),
+                    new String(body, charset(get.getResponseCharSet())), body.length);
+        } finally {
+            // Returns the connection to the pool
+            get.releaseConnection();
+        }
+    }
+
+    @Override
+    public Response open(String uri) throws IOException {
+        GetMethod get = new GetMethod(uri);
+        if (!keepAlive) get.setRequestHeader("Connection", "close");
+        try {
+            httpClient.executeMethod(get);
+            InputStream body = get.getResponseBodyAsStream();
+            if (body == null) body = new ByteArrayInputStream(new byte[0]);
+            return new Response(get.getStatusCode(), String.valueOf(get.getStatusLine()), body,
+                    charset(get.getResponseCharSet()), get::releaseConnection);
+        } catch (IOException e) {
+            get.releaseConnection();
+            throw e;
+        } catch (RuntimeException e) {
+            get.releaseConnection();
+            throw e;
+        }
+    }
+
+    private static Charset charset(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    void setMaxConnectionsPerHost(int maxConnections) {
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        if (params.getMaxTotalConnections() < maxConnections) {
+            params.setMaxTotalConnections(maxConnections);
+        }
+    }
+
+    int getMaxConnectionsPerHost() {
+        return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    void setConnectionTimeout(int millis) {
+        connectionManager.getParams().setConnectionTimeout(millis);
+    }
+
+    int getConnectionTimeout() {
+        return connectionManager.getParams().getConnectionTimeout();
+    }
+
+    void setReadTimeout(int millis) {
+        connectionManager.getParams().setSoTimeout(millis);
+    }
+
+    int getReadTimeout() {
+        return connectionManager.getParams().getSoTimeout();
+    }
+
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        if (!keepAlive) connectionManager.closeIdleConnections(0);
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    @Override
+    public void close() {
+        connectionManager.shutdown();
+    }
+}
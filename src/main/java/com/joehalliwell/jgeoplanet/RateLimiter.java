@@ -0,0 +1,59 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * A token bucket. Tokens accrue at a fixed rate up to the size of the
+ * bucket, and each request takes one. Requests which find the bucket
+ * empty reserve a future token, so waiting requests are released in
+ * order at exactly the configured rate.
+ *
+ * @author Joe Halliwell
+ */
+class RateLimiter {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the number of requests which may be sent at once after a quiet period
+     */
+    RateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be > 0");
+        if (burst < 1) throw new IllegalArgumentException("burst must be >= 1");
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take a token, reserving one in the future if none are available now.
+     * Nothing is reserved if the wait would be too long.
+     *
+     * @param maxWaitNanos the longest acceptable wait
+     * @return how long to wait before sending the request in nanoseconds,
+     * or -1 if that would exceed the maximum
+     */
+    synchronized long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        long wait = (long) Math.ceil((1 - tokens) / permitsPerNano);
+        if (wait > maxWaitNanos) return -1;
+        tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * @return the sustained rate in requests per second
+     */
+    double getRate() {
+        return permitsPerNano * 1e9;
+    }
+}
@@ -0,0 +1,26 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Finds the place at a location using the Yahoo! Geocode service.
+ * http://developer.yahoo.com/geo/placefinder/guide/requests.html#latitude-longitude
+ * <p>
+ * This takes two requests: one to find the WOE ID of the location, and
+ * one to fetch the place itself, unless it is already in the client's
+ * place cache or store.
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class RemoteReverseGeocoder implements ReverseGeocoder {
+
+    @Override
+    public Place getPlace(GeoPlanet client, Location location) throws GeoPlanetException {
+        long woeId = client.geocode(location);
+        return woeId == 0 ? null : client.getPlace(woeId);
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteReverseGeocoder";
+    }
+}
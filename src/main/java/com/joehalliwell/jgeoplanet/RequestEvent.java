@@ -0,0 +1,105 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Details of a single completed request, passed to a {@link GeoPlanetListener}.
+ *
+ * @author Joe Halliwell
+ */
+public class RequestEvent {
+
+    private final Endpoint endpoint;
+    private final String uri;
+    private final int statusCode;
+    private final long latencyNanos;
+    private final long parseNanos;
+    private final long bytesReceived;
+    private final Throwable failure;
+
+    RequestEvent(Endpoint endpoint, String uri, int statusCode, long latencyNanos, long parseNanos,
+                 long bytesReceived, Throwable failure) {
+        this.endpoint = endpoint;
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.latencyNanos = latencyNanos;
+        this.parseNanos = parseNanos;
+        this.bytesReceived = bytesReceived;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the kind of request
+     */
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the URI requested, with the application ID removed
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the HTTP status code, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return true if the request succeeded; false otherwise
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * Returns the exception thrown by the request. A 404 response is
+     * reported as a {@link PlaceNotFoundException}.
+     *
+     * @return the exception, or null if the request succeeded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the total time taken by the request, including parsing.
+     *
+     * @param unit the unit to use
+     * @return the latency
+     */
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent parsing the response. Collections of places
+     * are parsed as they are read, so for them this includes the time
+     * spent reading the body.
+     *
+     * @param unit the unit to use
+     * @return the parse time
+     */
+    public long getParseTime(TimeUnit unit) {
+        return unit.convert(parseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the size of the response body in bytes, or -1 if unknown
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestEvent [endpoint=" + endpoint + ", status=" + statusCode
+                + ", latency=" + getLatency(TimeUnit.MICROSECONDS) + "us"
+                + ", parse=" + getParseTime(TimeUnit.MICROSECONDS) + "us"
+                + ", bytes=" + bytesReceived + ", uri=" + uri + "]";
+    }
+}
@@ -0,0 +1,97 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a client retries requests which fail for reasons that may be
+ * transient: network errors, server errors and throttling by the service.
+ * Requests for places which don't exist, or with an invalid application ID,
+ * are never retried.
+ * <p>
+ * The wait before each retry doubles, up to a maximum, and is jittered so
+ * that clients which failed together don't retry together: half of it is
+ * fixed and the other half random.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * client.setRetryPolicy(new RetryPolicy(5, 200, 5000, TimeUnit.MILLISECONDS));
+ * </pre>
+ * </p>
+ *
+ * @author Joe Halliwell
+ */
+public class RetryPolicy {
+
+    /**
+     * Make a single attempt at each request.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, TimeUnit.MILLISECONDS);
+
+    /**
+     * The default policy: up to three attempts, waiting about 100ms then 200ms.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 2000, TimeUnit.MILLISECONDS);
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    /**
+     * @param maxAttempts    the most attempts to make at each request, including the first
+     * @param initialBackoff the wait before the first retry
+     * @param maxBackoff     the longest wait before any retry
+     * @param unit           the unit of the waits
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be >= 1");
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Need 0 <= initialBackoff <= maxBackoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+    }
+
+    /**
+     * @return the most attempts made at each request, including the first
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param unit the unit to use
+     * @return the wait before the first retry, before jitter
+     */
+    public long getInitialBackoff(TimeUnit unit) {
+        return unit.convert(initialBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit the unit to use
+     * @return the longest wait before any retry
+     */
+    public long getMaxBackoff(TimeUnit unit) {
+        return unit.convert(maxBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param attempt the number of the attempt which failed, starting from one
+     * @return how long to wait before the next attempt in nanoseconds
+     */
+    long backoffNanos(int attempt) {
+        long backoff = initialBackoffNanos << Math.min(attempt - 1, 30);
+        if (backoff < 0 || backoff > maxBackoffNanos) backoff = maxBackoffNanos;
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [maxAttempts=" + maxAttempts
+                + ", initialBackoff=" + getInitialBackoff(TimeUnit.MILLISECONDS)
+                + "ms, maxBackoff=" + getMaxBackoff(TimeUnit.MILLISECONDS) + "ms]";
+    }
+}
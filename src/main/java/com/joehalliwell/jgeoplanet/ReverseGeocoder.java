@@ -0,0 +1,37 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Finds the place at a location, for {@link GeoPlanet#getPlace(Location)}.
+ * <p>
+ * By default clients use a {@link RemoteReverseGeocoder}, which asks the
+ * Yahoo! geocoding service. A {@link LocalReverseGeocoder} answers from
+ * places held in memory instead, falling back to another geocoder for
+ * locations it doesn't cover. A {@link CachingReverseGeocoder} reuses
+ * the places found by another for nearby locations.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * PlaceTable towns = PlaceTable.read(client, new File("towns.dat"));
+ * client.setReverseGeocoder(new LocalReverseGeocoder(towns, new RemoteReverseGeocoder()));
+ * Place place = client.getPlace(new Location(55.95, -3.19));
+ * </pre>
+ * </p>
+ * <p>
+ * Reverse geocoders may be called from several threads at once, so
+ * should be thread-safe.
+ * </p>
+ *
+ * @author Joe Halliwell
+ * @see GeoPlanet#setReverseGeocoder(ReverseGeocoder)
+ */
+public interface ReverseGeocoder {
+
+    /**
+     * @param client   the client on whose behalf the place is found
+     * @param location the location
+     * @return a place at the location, or null if none could be found
+     * @throws GeoPlanetException on error
+     */
+    Place getPlace(GeoPlanet client, Location location) throws GeoPlanetException;
+}
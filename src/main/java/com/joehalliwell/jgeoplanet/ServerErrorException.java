@@ -0,0 +1,26 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Thrown when the GeoPlanet server responds with an unexpected error,
+ * e.g. a 500 Internal Server Error.
+ *
+ * @author Joe Halliwell
+ */
+public class ServerErrorException extends GeoPlanetException {
+
+    private static final long serialVersionUID = 5164312285236734418L;
+
+    private final int statusCode;
+
+    ServerErrorException(int statusCode, String statusLine) {
+        super("Unexpected response from GeoPlanet server: " + statusLine);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status code of the response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
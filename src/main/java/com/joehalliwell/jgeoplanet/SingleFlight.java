@@ -0,0 +1,102 @@
+package com.joehalliwell.jgeoplanet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical requests. While a request for a key is
+ * in flight, further requests for the same key wait for it and share its
+ * result (or exception) instead of making their own. Nothing is cached:
+ * once a request completes the next one for its key starts afresh.
+ *
+ * @author Joe Halliwell
+ */
+class SingleFlight<V> {
+
+    /**
+     * A blocking request.
+     */
+    interface Request<V> {
+        V call() throws GeoPlanetException;
+    }
+
+    private final ConcurrentMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<String, CompletableFuture<V>>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Make a request, or wait for an identical one already in flight.
+     *
+     * @param key     identifies the request e.g. its URI
+     * @param request makes the request
+     * @return the result of the request
+     * @throws GeoPlanetException the exception thrown by the request
+     */
+    V execute(String key, Request<V> request) throws GeoPlanetException {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+        requests.incrementAndGet();
+        try {
+            V result = request.call();
+            future.complete(result);
+            return result;
+        } catch (GeoPlanetException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Wait for a future, rethrowing its exception as thrown.
+     */
+    static <V> V await(CompletableFuture<V> future) throws GeoPlanetException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoPlanetException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeoPlanetException) throw (GeoPlanetException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new GeoPlanetException(e);
+        }
+    }
+
+    /**
+     * @return the number of requests actually made
+     */
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests which shared the result of one already in flight
+     */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of requests currently in flight
+     */
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,35 @@
+package com.joehalliwell.jgeoplanet;
+
+/**
+ * Thrown when a request is refused because the client or the GeoPlanet
+ * service is throttling requests. Either the server responded that its
+ * quota had been exceeded, or the client could not send the request
+ * within its maximum queue wait.
+ *
+ * @author Joe Halliwell
+ * @see GeoPlanet#setRateLimit(double)
+ * @see GeoPlanet#setMaxQueueWait(long, java.util.concurrent.TimeUnit)
+ */
+public class ThrottledException extends GeoPlanetException {
+
+    private static final long serialVersionUID = -2308553307170317425L;
+
+    private final int statusCode;
+
+    ThrottledException(String message) {
+        this(message, -1);
+    }
+
+    ThrottledException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status code with which the server refused the request,
+     * or -1 if the client refused to send it
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,82 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the asynchronous facade
+ *
+ * @author Joe Halliwell
+ */
+public class AsyncTest extends OfflineTest {
+
+    @Test
+    public void testGetPlace() throws Exception {
+        GeoPlanetAsync async = new GeoPlanetAsync(client);
+        Place edinburgh = async.getPlace(19344).get();
+        assertThat(edinburgh.getName(), is("Edinburgh"));
+    }
+
+    @Test
+    public void testComposition() throws Exception {
+        GeoPlanetAsync async = new GeoPlanetAsync(client);
+        Place county = async.getPlace(19344).thenCompose(async::getParent).get();
+        assertThat(county.getName(), is("City of Edinburgh"));
+        List<Place> ancestors = async.getPlace(20089).thenCompose(async::getAncestors).get();
+        assertThat(ancestors.size(), is(6));
+        assertThat(ancestors.get(ancestors.size() - 1).getWoeId(), is(1L));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        GeoPlanetAsync async = new GeoPlanetAsync(client);
+        try {
+            async.getPlace(999).get();
+            assert false;
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(PlaceNotFoundException.class));
+        }
+    }
+
+    @Test
+    public void testGetAllInParallel() throws Exception {
+        PlaceCollection descendants = client.getPlace(1).getDescendents().pageSize(2);
+        List<Place> all = descendants.get(0, 100);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (GeoPlanetAsync async = new GeoPlanetAsync(client, executor)) {
+            server.reset();
+            server.delayMillis = 100;
+            // The pages are fetched on the client's executor, not one by one
+            assertThat(async.getAll(descendants, 4).get(), is(all));
+            assertThat(server.requests.get(), is(8));
+            assert server.peakConcurrent.get() > 1 : server.peakConcurrent.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testManyInFlight() throws Exception {
+        long coalesced = client.getCoalescedRequestCount();
+        try (GeoPlanetAsync async = GeoPlanetAsync.withVirtualThreads(client)) {
+            List<CompletableFuture<Place>> futures = new ArrayList<CompletableFuture<Place>>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(async.getPlace(i % 2 == 0 ? 19344 : 44418));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            assertThat(futures.get(1).get().getName(), is("London"));
+            // Identical requests in flight together share a response
+            assertThat(server.requests.get() + client.getCoalescedRequestCount() - coalesced, is(200L));
+        }
+    }
+}
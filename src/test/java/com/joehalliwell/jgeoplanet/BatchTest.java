@@ -0,0 +1,65 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for batch lookups by WOE ID
+ *
+ * @author Joe Halliwell
+ */
+public class BatchTest extends OfflineTest {
+
+    @Test
+    public void testBatch() throws GeoPlanetException {
+        Map<Long, Place> places = client.getPlaces(19344, 44418, 1);
+        assertThat(places.size(), is(3));
+        assertThat(places.get(19344L).getName(), is("Edinburgh"));
+        assertThat(places.get(44418L).getName(), is("London"));
+        assert places.get(1L).isLongForm();
+        assertThat(new ArrayList<Long>(places.keySet()).get(0), is(19344L));
+        assertThat(server.requests.get(), is(1));
+    }
+
+    @Test
+    public void testMissingIds() throws GeoPlanetException {
+        Map<Long, Place> places = client.getPlaces(19344, 999, -1);
+        assertThat(places.size(), is(1));
+        assert places.containsKey(19344L);
+        assert client.getPlaces(999).isEmpty();
+    }
+
+    @Test
+    public void testLargeBatchIsSplit() throws GeoPlanetException {
+        List<Long> ids = new ArrayList<Long>();
+        for (long i = 0; i < 3 * GeoPlanet.maxBatchSize; i++) ids.add(1000000 + i);
+        ids.addAll(server.getWoeIds());
+        Map<Long, Place> places = client.getPlaces(ids);
+        assertThat(places.size(), is(server.getWoeIds().size()));
+        assertThat(server.batches.get(), is(4));
+    }
+
+    @Test
+    public void testBatchUsesCache() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setPlaceCache(new PlaceCache(100));
+            g.getPlace(19344);
+            server.reset();
+            Map<Long, Place> places = g.getPlaces(19344, 44418);
+            assertThat(places.size(), is(2));
+            assertThat(server.requests.get(), is(1));
+            server.reset();
+            g.getPlaces(19344, 44418);
+            assertThat(server.requests.get(), is(0));
+        } finally {
+            g.close();
+        }
+    }
+}
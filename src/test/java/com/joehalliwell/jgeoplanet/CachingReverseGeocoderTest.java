@@ -0,0 +1,136 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the geohash-keyed reverse geocoding cache
+ *
+ * @author Joe Halliwell
+ */
+public class CachingReverseGeocoderTest extends OfflineTest {
+
+    private LocalReverseGeocoder local;
+    private AtomicInteger calls;
+    private ReverseGeocoder counting;
+
+    @Before
+    public void setUp() throws GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) places.add(client.getPlace(woeId));
+        local = new LocalReverseGeocoder(client, places, null,
+                client.getPlaceType("Town"), client.getPlaceType("Suburb"));
+        calls = new AtomicInteger();
+        counting = (client, location) -> {
+            calls.incrementAndGet();
+            return local.getPlace(client, location);
+        };
+    }
+
+    @Test
+    public void testGeohash() {
+        assertThat(CachingReverseGeocoder.geohash(new Location(57.64911, 10.40744), 11), is("u4pruydqqvj"));
+        assertThat(CachingReverseGeocoder.geohash(new Location(55.948238, -3.19253), 6), is("gcvwr3"));
+        assertThat(CachingReverseGeocoder.geohash(new Location(-90, -180), 3), is("000"));
+        assertThat(CachingReverseGeocoder.geohash(new Location(90, 180), 3), is("zzz"));
+    }
+
+    @Test
+    public void testNearbyLocations() throws GeoPlanetException {
+        CachingReverseGeocoder cache = new CachingReverseGeocoder(counting, 5, 100);
+        // Within a few hundred metres of one another, in central Edinburgh
+        Location a = new Location(55.9500, -3.1900);
+        Location b = new Location(55.9510, -3.1880);
+        Location c = new Location(55.9490, -3.1920);
+        assertThat(cache.getPlace(client, a).getName(), is("Edinburgh"));
+        assertThat(cache.getPlace(client, b).getName(), is("Edinburgh"));
+        assertThat(cache.getPlace(client, c).getName(), is("Edinburgh"));
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void testVerification() throws GeoPlanetException {
+        // A coarse cell covering Edinburgh and Bruntsfield
+        CachingReverseGeocoder cache = new CachingReverseGeocoder(counting, 4, 100);
+        Location bruntsfield = new Location(55.935, -3.205);
+        Location leith = new Location(55.975, -3.17);
+        assertThat(CachingReverseGeocoder.geohash(bruntsfield, 4), is(CachingReverseGeocoder.geohash(leith, 4)));
+        assertThat(cache.getPlace(client, bruntsfield).getName(), is("Bruntsfield"));
+        // Outside Bruntsfield's bounding box, so not answered from the cache
+        assertThat(cache.getPlace(client, leith).getName(), is("Edinburgh"));
+        assertThat(calls.get(), is(2));
+        // Both are now cached
+        assertThat(cache.getPlace(client, new Location(55.936, -3.206)).getName(), is("Bruntsfield"));
+        assertThat(cache.getPlace(client, leith).getName(), is("Edinburgh"));
+        assertThat(calls.get(), is(2));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void testEviction() throws GeoPlanetException {
+        CachingReverseGeocoder cache = new CachingReverseGeocoder(counting, 6, 2);
+        Location edinburgh = new Location(55.95, -3.19);
+        cache.getPlace(client, edinburgh);
+        cache.getPlace(client, new Location(55.86, -4.25));
+        cache.getPlace(client, new Location(51.5, -0.12));
+        assertThat(cache.size(), is(2));
+        cache.getPlace(client, edinburgh);
+        assertThat(calls.get(), is(4));
+
+        // Not found, so not cached
+        Location atlantic = new Location(0, -30);
+        assertThat(cache.getPlace(client, atlantic), is(nullValue()));
+        assertThat(cache.getPlace(client, atlantic), is(nullValue()));
+        assertThat(calls.get(), is(6));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        CachingReverseGeocoder cache = new CachingReverseGeocoder(counting, 5, 100);
+        cache.setNotFoundTimeToLive(200, TimeUnit.MILLISECONDS);
+        assertThat(cache.getNotFoundTimeToLive(TimeUnit.MILLISECONDS), is(200L));
+        Location atlantic = new Location(0, -30);
+        assertThat(cache.getPlace(client, atlantic), is(nullValue()));
+        assertThat(cache.getPlace(client, new Location(0.001, -30.001)), is(nullValue()));
+        assertThat(calls.get(), is(1));
+        assertThat(cache.getHitCount(), is(1L));
+        Thread.sleep(300);
+        assertThat(cache.getPlace(client, atlantic), is(nullValue()));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void testSharedBetweenClients() throws GeoPlanetException {
+        CachingReverseGeocoder cache = new CachingReverseGeocoder(counting, 5, 100);
+        Location edinburgh = new Location(55.95, -3.19);
+        GeoPlanet g = newClient();
+        GeoPlanet french = new GeoPlanet(appId, "fr", server.getServiceUri());
+        try {
+            assertThat(cache.getPlace(client, edinburgh).getClient(), is(sameInstance(client)));
+            // Bound to the client which looked it up
+            Place place = cache.getPlace(g, edinburgh);
+            assertThat(place.getClient(), is(sameInstance(g)));
+            assertThat(place.getName(), is("Edinburgh"));
+            assertThat(calls.get(), is(1));
+            // Held separately for each language
+            cache.getPlace(french, edinburgh);
+            assertThat(calls.get(), is(2));
+            assertThat(cache.size(), is(2));
+        } finally {
+            g.close();
+            french.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for nearest neighbour search over place centroids
+ *
+ * @author Joe Halliwell
+ */
+public class CentroidIndexTest extends OfflineTest {
+
+    private List<Place> places() throws GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) places.add(client.getPlace(woeId));
+        return places;
+    }
+
+    @Test
+    public void testNearest() throws GeoPlanetException {
+        CentroidIndex index = new CentroidIndex(client, places());
+        PlaceType town = client.getPlaceType(7);
+        Location leith = new Location(55.975, -3.17);
+        assertThat(index.getNearestPlace(leith, town).getName(), is("Edinburgh"));
+        Location bath = new Location(51.38, -2.36);
+        assertThat(index.getNearestPlace(bath, town).getName(), is("London"));
+
+        List<Place> nearest = index.getNearestPlaces(leith, 3, town);
+        assertThat(nearest.size(), is(3));
+        assertThat(nearest.get(0).getName(), is("Edinburgh"));
+        assertThat(nearest.get(1).getName(), is("Glasgow"));
+        assertThat(nearest.get(2).getName(), is("London"));
+        assertThat(index.getNearestPlaces(leith, 100).size(), is(index.size()));
+        assertThat(index.getNearestPlaces(leith, 0).size(), is(0));
+    }
+
+    @Test
+    public void testWithin() throws GeoPlanetException {
+        CentroidIndex index = new CentroidIndex(client, places());
+        Location edinburgh = client.getPlace(19344).getCentroid();
+        List<String> names = new ArrayList<String>();
+        for (Place place : index.getPlacesWithin(edinburgh, 100)) names.add(place.getName());
+        assertThat(names.get(0), is("Edinburgh"));
+        assert names.contains("Glasgow");
+        assert names.contains("Bruntsfield");
+        assert !names.contains("London");
+        // Exactly the distance to Glasgow
+        double distance = edinburgh.distance(client.getPlace(21125).getCentroid());
+        assert index.getPlacesWithin(edinburgh, distance, client.getPlaceType(7)).size() == 2;
+        assertThat(index.getPlacesWithin(edinburgh, 30000).size(), is(index.size()));
+    }
+
+    @Test
+    public void testAntimeridian() throws GeoPlanetException {
+        CentroidIndex index = new CentroidIndex(client, places());
+        // Across the antimeridian from Suva, and near nothing else
+        Location location = new Location(-18.14, -179.9);
+        assertThat(index.getNearestPlace(location).getName(), is("Suva"));
+        assert index.getPlacesWithin(location, 300).size() == 2;
+    }
+
+    @Test
+    public void testAgainstScan() throws Exception {
+        Random random = new Random(42);
+        JSONObject json = new JSONObject(server.route("/place/19344", false)).getJSONObject("place");
+        PlaceTable table = new PlaceTable(client);
+        // Random places across the whole world, including the poles and the antimeridian
+        for (int i = 0; i < 2000; i++) {
+            json.put("woeid", i + 1);
+            json.put("centroid", new JSONObject()
+                    .put("latitude", Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1)))
+                    .put("longitude", random.nextDouble() * 360 - 180));
+            table.add(new Place(client, json));
+        }
+        CentroidIndex index = new CentroidIndex(table);
+        for (int i = 0; i < 500; i++) {
+            Location location = new Location(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            double[] distances = new double[table.size()];
+            for (int row = 0; row < table.size(); row++) {
+                distances[row] = table.get(row).getCentroid().distance(location);
+            }
+            Arrays.sort(distances);
+
+            int k = 1 + random.nextInt(50);
+            List<Place> nearest = index.getNearestPlaces(location, k);
+            assertThat(nearest.size(), is(k));
+            for (int j = 0; j < k; j++) {
+                double distance = nearest.get(j).getCentroid().distance(location);
+                assert Math.abs(distance - distances[j]) < 1e-6 : distance + " != " + distances[j];
+            }
+
+            double radius = random.nextDouble() * 1000;
+            int within = 0;
+            while (within < distances.length && distances[within] <= radius) within++;
+            assertThat(index.getPlacesWithin(location, radius).size(), is(within));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for coalescing of concurrent identical requests
+ *
+ * @author Joe Halliwell
+ */
+public class CoalescingTest extends OfflineTest {
+
+    private static final int threads = 10;
+
+    /**
+     * Run the same call on several threads at once.
+     */
+    private <T> List<Future<T>> concurrently(Callable<T> call) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch ready = new CountDownLatch(threads);
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    return call.call();
+                }));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Checked by the caller
+                }
+            }
+            return futures;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetPlaceIsCoalesced() throws Exception {
+        server.delayMillis = 500;
+        long before = client.getCoalescedRequestCount();
+        for (Future<Place> place : concurrently(() -> client.getPlace(19344))) {
+            assertThat(place.get().getName(), is("Edinburgh"));
+        }
+        assertThat(server.requests.get(), is(1));
+        assertThat(client.getCoalescedRequestCount() - before, is((long) threads - 1));
+    }
+
+    @Test
+    public void testSmallPageIsCoalesced() throws Exception {
+        final Place scotland = client.getPlace(12578048);
+        server.reset();
+        server.delayMillis = 500;
+        for (Future<List<Place>> children : concurrently(() -> scotland.getChildren().get(0, 10))) {
+            assertThat(children.get().size(), is(2));
+        }
+        assertThat(server.requests.get(), is(1));
+    }
+
+    @Test
+    public void testLargePageIsNotCoalesced() throws Exception {
+        final Place scotland = client.getPlace(12578048);
+        server.reset();
+        server.delayMillis = 200;
+        // Streamed to each caller rather than held for sharing
+        for (Future<List<Place>> children : concurrently(() -> scotland.getChildren().get())) {
+            assertThat(children.get().size(), is(2));
+        }
+        concurrently(() -> scotland.getChildren().get(0, GeoPlanet.maxCoalescedCount + 1));
+        assertThat(server.requests.get(), is(2 * threads));
+    }
+
+    @Test
+    public void testExceptionIsShared() throws Exception {
+        server.delayMillis = 500;
+        for (Future<Place> place : concurrently(() -> client.getPlace(999))) {
+            try {
+                place.get();
+                fail("Expected PlaceNotFoundException");
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof PlaceNotFoundException;
+            }
+        }
+        assertThat(server.requests.get(), is(1));
+    }
+
+    @Test
+    public void testSequentialRequestsAreNotCoalesced() throws GeoPlanetException {
+        client.getPlace(19344);
+        client.getPlace(19344);
+        assertThat(server.requests.get(), is(2));
+    }
+
+    @Test
+    public void testCoalescingOff() throws Exception {
+        final GeoPlanet g = newClient();
+        try {
+            g.setCoalescing(false);
+            assert !g.isCoalescing();
+            server.reset();
+            server.delayMillis = 200;
+            concurrently(() -> g.getPlace(19344));
+            assertThat(server.requests.get(), is(threads));
+            assertThat(g.getCoalescedRequestCount(), is(0L));
+        } finally {
+            g.close();
+        }
+    }
+}
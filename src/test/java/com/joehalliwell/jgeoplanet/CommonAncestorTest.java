@@ -0,0 +1,67 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for common ancestors found by the service, without a place hierarchy
+ *
+ * @author Joe Halliwell
+ */
+public class CommonAncestorTest extends OfflineTest {
+
+    private static Place[] array(List<Place> places) {
+        return places.toArray(new Place[places.size()]);
+    }
+
+    @Test
+    public void testFew() throws GeoPlanetException {
+        Place bruntsfield = client.getPlace(20089);
+        Place glasgow = client.getPlace(21125);
+        Place london = client.getPlace(44418);
+        int requests = server.requests.get();
+        assertThat(bruntsfield.getCommonAncestor(glasgow).getName(), is("Scotland"));
+        assertThat(bruntsfield.getCommonAncestor(glasgow, london).getName(), is("United Kingdom"));
+        assertThat(bruntsfield.getCommonAncestor(bruntsfield).getName(), is("Bruntsfield"));
+        assertThat(server.requests.get() - requests, is(2));
+    }
+
+    @Test
+    public void testMany() throws GeoPlanetException {
+        Place bruntsfield = client.getPlace(20089);
+        List<Place> others = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) {
+            if (woeId == 1 || woeId == 20089) continue;
+            others.add(client.getPlace(woeId));
+        }
+        assert others.size() > 10;
+        int requests = server.requests.get();
+        assertThat(bruntsfield.getCommonAncestor(array(others)).getName(), is("Earth"));
+        // Two chunks, then their common ancestor
+        assertThat(server.requests.get() - requests, is(3));
+
+        List<Place> scottish = new ArrayList<Place>();
+        for (Place place : others) {
+            if (place.getName().contains("Glasgow")) scottish.add(place);
+        }
+        assertThat(bruntsfield.getCommonAncestor(array(scottish)).getName(), is("Scotland"));
+    }
+
+    @Test
+    public void testThousand() throws GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : new long[]{20089, 19344, 21125, 44418}) places.add(client.getPlace(woeId));
+        List<Place> others = new ArrayList<Place>();
+        for (int i = 0; i < 1000; i++) others.add(places.get(i % places.size()));
+        int requests = server.requests.get();
+        Place common = places.get(0).getCommonAncestor(array(others));
+        assertThat(common.getName(), is("United Kingdom"));
+        // Duplicates are only sent once
+        assertThat(server.requests.get() - requests, is(1));
+    }
+}
@@ -0,0 +1,226 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the offline client backed by the sample data dump
+ *
+ * @author Joe Halliwell
+ */
+public class GeoPlanetDumpTest {
+
+    static GeoPlanetDump dump;
+    static GeoPlanet client;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadDump() throws Exception {
+        dump = new GeoPlanetDump(new File(ClassLoader.getSystemResource("dump").toURI()));
+        client = new GeoPlanet(dump);
+    }
+
+    @AfterClass
+    public static void closeClient() {
+        client.close();
+    }
+
+    @Test
+    public void testLoad() {
+        assertThat(dump.size(), is(17));
+        assert dump.contains(19344);
+        assert !dump.contains(999);
+    }
+
+    @Test
+    public void testGetPlace() throws GeoPlanetException {
+        Place edinburgh = client.getPlace(19344);
+        assertThat(edinburgh.getName(), is("Edinburgh"));
+        assertThat(edinburgh.getPlaceType(), is(client.getPlaceType("Town")));
+        assert !edinburgh.isLongForm();
+    }
+
+    @Test
+    public void testDumpPlaceTypeNames() throws GeoPlanetException {
+        assertThat(client.getPlace(26354343).getPlaceType().getCode(), is(11));
+        assertThat(client.getPlace(1).getPlaceType().getName(), is("Supername"));
+    }
+
+    @Test(expected = PlaceNotFoundException.class)
+    public void testMissingPlace() throws GeoPlanetException {
+        client.getPlace(999);
+    }
+
+    @Test
+    public void testParent() throws GeoPlanetException {
+        assertThat(client.getPlace(19344).getParent().getWoeId(), is(12602191L));
+    }
+
+    @Test(expected = PlaceNotFoundException.class)
+    public void testNoParent() throws GeoPlanetException {
+        client.getPlace(1).getParent();
+    }
+
+    @Test
+    public void testChildren() throws GeoPlanetException {
+        assertThat(names(client.getPlace(12578048).getChildren().get()), is("City of Edinburgh, Glasgow City"));
+        assertThat(names(client.getPlace(19344).getChildren().type(client.getPlaceType("Suburb")).get()),
+                is("Bruntsfield"));
+        assertThat(client.getPlace(20089).getChildren().get().size(), is(0));
+    }
+
+    @Test
+    public void testAncestors() throws GeoPlanetException {
+        assertThat(names(client.getPlace(20089).getAncestors().get()),
+                is("Edinburgh, City of Edinburgh, Scotland, United Kingdom, Europe, Earth"));
+        assertThat(names(client.getPlace(20089).getBelongTos().get()),
+                is(names(client.getPlace(20089).getAncestors().get())));
+    }
+
+    @Test
+    public void testDescendants() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(23424975).getDescendents();
+        assertThat(descendants.size(), is(10));
+        assertThat(descendants.get(0, 3).size(), is(3));
+        assertThat(descendants.getAll(4).size(), is(10));
+    }
+
+    @Test
+    public void testSiblingsAndNeighbors() throws GeoPlanetException {
+        // The postcode shares Bruntsfield's parent, but not its type
+        assertThat(client.getPlace(20089).getSiblings().get().size(), is(0));
+        assertThat(names(client.getPlace(23424975).getSiblings().get()), is("France"));
+        assertThat(names(client.getPlace(12578048).getNeighbors().get()), is("England"));
+        assertThat(client.getPlace(1062605).getNeighbors().get().size(), is(0));
+    }
+
+    @Test
+    public void testCommonAncestor() throws GeoPlanetException {
+        Place bruntsfield = client.getPlace(20089);
+        assertThat(bruntsfield.getCommonAncestor(client.getPlace(21125)).getName(), is("Scotland"));
+        assertThat(bruntsfield.getCommonAncestor(client.getPlace(44418), client.getPlace(615702)).getName(),
+                is("Europe"));
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        // Corrupt data in which two places are each other's parent
+        Writer out = new OutputStreamWriter(new FileOutputStream(
+                new File(folder.getRoot(), "geoplanet_places_7.10.0.tsv")), "UTF-8");
+        try {
+            out.write("\"WOE_ID\"\t\"ISO\"\t\"Name\"\t\"Language\"\t\"PlaceType\"\t\"Parent_ID\"\n");
+            out.write("\"1\"\t\"\"\t\"Earth\"\t\"ENG\"\t\"Supername\"\t\"0\"\n");
+            out.write("\"10\"\t\"\"\t\"A\"\t\"ENG\"\t\"Town\"\t\"11\"\n");
+            out.write("\"11\"\t\"\"\t\"B\"\t\"ENG\"\t\"Town\"\t\"10\"\n");
+            out.write("\"12\"\t\"\"\t\"C\"\t\"ENG\"\t\"Suburb\"\t\"10\"\n");
+        } finally {
+            out.close();
+        }
+        GeoPlanetDump cyclic = new GeoPlanetDump(folder.getRoot());
+        int c = cyclic.row(12);
+        assert cyclic.ancestors(c).length <= cyclic.size();
+        assert cyclic.descendants(cyclic.row(10)).length <= cyclic.size();
+        assertThat(cyclic.commonAncestor(new int[]{c, cyclic.row(1)}), is(-1));
+        int common = cyclic.commonAncestor(new int[]{c, cyclic.row(11)});
+        assert common == cyclic.row(10) || common == cyclic.row(11) : common;
+    }
+
+    @Test
+    public void testConnectionSettingsIgnored() {
+        client.setMaxConnectionsPerHost(4);
+        client.setConnectionTimeout(100);
+        client.setReadTimeout(100);
+        client.setKeepAlive(false);
+        assertThat(client.getMaxConnectionsPerHost(), is(PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        assertThat(client.getConnectionTimeout(), is(PooledHttpTransport.DEFAULT_CONNECTION_TIMEOUT));
+        assertThat(client.getReadTimeout(), is(PooledHttpTransport.DEFAULT_READ_TIMEOUT));
+        assert client.isKeepAlive();
+    }
+
+    @Test
+    public void testNoRequestLimits() throws Exception {
+        GeoPlanet g = new GeoPlanet(dump);
+        AtomicInteger events = new AtomicInteger();
+        g.addListener(event -> events.incrementAndGet());
+        // Any request through the service machinery would be throttled at once
+        g.setRateLimit(1, 1);
+        g.setMaxConcurrency(1);
+        g.setMaxQueueWait(0, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> {
+                    Place bruntsfield = g.getPlace(20089);
+                    return bruntsfield.getParent().getChildren().get().size()
+                            + bruntsfield.getAncestors().get().size()
+                            + bruntsfield.getBelongTos().get().size()
+                            + bruntsfield.getSiblings().get().size()
+                            + g.getPlace(12578048).getNeighbors().get().size()
+                            + g.getPlaces(44418, 19344).size();
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS), is(17));
+            }
+            assertThat(g.getThrottledRequestCount(), is(0L));
+            assertThat(g.getQueuedRequestCount(), is(0L));
+            assertThat(g.getRetryCount(), is(0L));
+            assertThat(events.get(), is(0));
+        } finally {
+            executor.shutdownNow();
+            g.close();
+        }
+    }
+
+    @Test
+    public void testBatch() throws GeoPlanetException {
+        Map<Long, Place> places = client.getPlaces(44418, 999, 19344);
+        assertThat(new ArrayList<Long>(places.keySet()), is(Arrays.asList(44418L, 19344L)));
+    }
+
+    @Test
+    public void testSearch() throws GeoPlanetException {
+        assertThat(client.getPlace("edinburgh").getWoeId(), is(19344L));
+        assertThat(client.getPlace("Auld Reekie").getWoeId(), is(19344L));
+        assertThat(client.getPlace("Londres").getWoeId(), is(44418L));
+        assertThat(names(client.getPlaces("Glas*").get()), is("Glasgow, Glasgow City"));
+        assertThat(names(client.getPlaces("Glas*").type(client.getPlaceType("Town")).get()), is("Glasgow"));
+    }
+
+    @Test(expected = PlaceNotFoundException.class)
+    public void testSearchNotFound() throws GeoPlanetException {
+        client.getPlace("Atlantis");
+    }
+
+    private static String names(List<Place> places) {
+        StringBuilder sb = new StringBuilder();
+        for (Place place : places) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(place.getName());
+        }
+        return sb.toString();
+    }
+}
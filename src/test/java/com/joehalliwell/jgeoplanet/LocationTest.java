@@ -3,6 +3,7 @@ package com.joehalliwell.jgeoplanet;
 
 import org.junit.Test;
 import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.is;
 
 
 /**
@@ -77,5 +78,12 @@ public class LocationTest extends GeoPlanetTest {
         assert b.intersects(a);
     }
 
+    @Test
+    public void testCorners() {
+        BoundingBox a = new BoundingBox(new Location(60, 30), new Location(35, -10));
+        assertThat(a.getNorthWest(), is(new Location(60, -10)));
+        assertThat(a.getSouthEast(), is(new Location(35, 30)));
+    }
+
 
 }
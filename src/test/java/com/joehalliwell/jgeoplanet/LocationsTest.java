@@ -0,0 +1,134 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for bulk distance and containment, which need no server
+ *
+ * @author Joe Halliwell
+ */
+public class LocationsTest {
+
+    private static Locations random(Random random, int n) {
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = random.nextDouble() * 180 - 90;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+        }
+        return new Locations(latitudes, longitudes);
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assert Math.abs(actual - expected) <= 1e-9 * Math.max(1, expected) : actual + " != " + expected;
+    }
+
+    @Test
+    public void testDistances() {
+        Random random = new Random(42);
+        Locations locations = random(random, 1000);
+        for (int i = 0; i < 20; i++) {
+            Location from = random(random, 1).get(0);
+            double[] distances = locations.distances(from);
+            for (int j = 0; j < locations.size(); j++) {
+                assertClose(distances[j], from.distance(locations.get(j)));
+            }
+        }
+        // Nearby, antipodal and identical
+        Location edinburgh = new Location(55.948238, -3.19253);
+        List<Location> list = Arrays.asList(edinburgh, new Location(55.948239, -3.19253),
+                new Location(-55.948238, 176.80747), new Location(0, 180), new Location(0, -180));
+        double[] distances = new Locations(list).distances(edinburgh);
+        assertThat(distances[0], is(0.0));
+        assertClose(distances[1], edinburgh.distance(list.get(1)));
+        assertClose(distances[2], edinburgh.distance(list.get(2)));
+        assertClose(distances[3], distances[4]);
+    }
+
+    @Test
+    public void testMatrix() {
+        Random random = new Random(42);
+        Locations a = random(random, 30);
+        Locations b = random(random, 40);
+        double[] matrix = a.distances(b);
+        assertThat(matrix.length, is(30 * 40));
+        for (int i = 0; i < a.size(); i++) {
+            for (int j = 0; j < b.size(); j++) {
+                assertClose(matrix[i * b.size() + j], a.get(i).distance(b.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testContains() {
+        Random random = new Random(42);
+        Locations locations = random(random, 10000);
+        List<BoundingBox> boxes = new ArrayList<BoundingBox>();
+        boxes.add(new BoundingBox(new Location(60, 30), new Location(35, -10)));
+        // Fiji
+        boxes.add(new BoundingBox(new Location(-12.48, -178.2), new Location(-20.68, 177.0)));
+        boxes.add(new BoundingBox(new Location(90, 180), new Location(-90, -180)));
+        boolean[] results = new boolean[locations.size()];
+        for (BoundingBox box : boxes) {
+            int count = box.contains(locations, results);
+            int expected = 0;
+            for (int i = 0; i < locations.size(); i++) {
+                boolean contains = box.contains(locations.get(i));
+                assertThat(results[i], is(contains));
+                if (contains) expected++;
+            }
+            assertThat(count, is(expected));
+        }
+    }
+
+    @Test
+    public void testIntersects() {
+        BoundingBox a = new BoundingBox(new Location(10, 10), new Location(-10, -10));
+        assert a.intersects(new BoundingBox(new Location(15, 15), new Location(5, 5)));
+        // No corners within each other
+        BoundingBox wide = new BoundingBox(new Location(5, 20), new Location(-5, -20));
+        assert a.intersects(wide);
+        assert wide.intersects(a);
+        // Containment
+        BoundingBox big = new BoundingBox(new Location(20, 20), new Location(-20, -20));
+        assert a.intersects(big);
+        assert big.intersects(a);
+        assert !a.intersects(new BoundingBox(new Location(10, 30), new Location(-10, 20)));
+        assert !a.intersects(new BoundingBox(new Location(30, 10), new Location(20, -10)));
+
+        BoundingBox fiji = new BoundingBox(new Location(-12.48, -178.2), new Location(-20.68, 177.0));
+        assert fiji.intersects(new BoundingBox(new Location(-15, 179), new Location(-16, 178)));
+        assert fiji.intersects(new BoundingBox(new Location(-15, -179), new Location(-16, -179.5)));
+        assert fiji.intersects(new BoundingBox(new Location(-15, -170), new Location(-16, 170)));
+        assert new BoundingBox(new Location(-15, -179), new Location(-16, -179.5)).intersects(fiji);
+        assert !fiji.intersects(new BoundingBox(new Location(-15, -170), new Location(-16, -175)));
+        assert !fiji.intersects(new BoundingBox(new Location(-15, 170), new Location(-16, 160)));
+    }
+
+    @Test
+    public void testArcSine() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double x = i % 2 == 0 ? random.nextDouble() : Math.pow(random.nextDouble(), 20);
+            double expected = Math.asin(x);
+            assert Math.abs(Locations.asin(x) - expected) <= Math.ulp(expected) : x;
+        }
+        assertThat(Locations.asin(0), is(0.0));
+        assertThat(Locations.asin(1), is(Math.asin(1)));
+        assertThat(Locations.asin(0.975), is(Math.asin(0.975)));
+        assertThat(Locations.asin(0.5), is(Math.asin(0.5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        new Locations(new double[]{0, 91}, new double[]{0, 0});
+    }
+}
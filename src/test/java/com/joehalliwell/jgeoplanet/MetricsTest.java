@@ -0,0 +1,135 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for request listeners and metrics
+ *
+ * @author Joe Halliwell
+ */
+public class MetricsTest extends OfflineTest {
+
+    @Test
+    public void testEndpoints() {
+        assertThat(Endpoint.forPath("/place/19344"), is(Endpoint.PLACE));
+        assertThat(Endpoint.forPath("/place/19344/parent"), is(Endpoint.PARENT));
+        assertThat(Endpoint.forPath("/place/19344/children.type('Town');start=0;count=10"), is(Endpoint.CHILDREN));
+        assertThat(Endpoint.forPath("/place/19344/belongtos;start=0"), is(Endpoint.BELONGTOS));
+        assertThat(Endpoint.forPath("/place/19344/common/44418"), is(Endpoint.COMMON));
+        assertThat(Endpoint.forPath("/places.q('London');start=0;count=1"), is(Endpoint.PLACES));
+        assertThat(Endpoint.forPath("/places.woeid(1,2)"), is(Endpoint.PLACES));
+        assertThat(Endpoint.forPath("/placetypes"), is(Endpoint.PLACETYPES));
+        assertThat(Endpoint.forPath("/place/19344/unknown"), is(Endpoint.OTHER));
+    }
+
+    @Test
+    public void testEvents() throws GeoPlanetException {
+        final List<RequestEvent> events = new CopyOnWriteArrayList<RequestEvent>();
+        GeoPlanetListener listener = events::add;
+        client.addListener(listener);
+        try {
+            client.getPlace(19344).getChildren().get();
+            try {
+                client.getPlace(999);
+            } catch (PlaceNotFoundException e) {
+                // Expected
+            }
+        } finally {
+            client.removeListener(listener);
+        }
+        assertThat(events.size(), is(3));
+
+        RequestEvent place = events.get(0);
+        assertThat(place.getEndpoint(), is(Endpoint.PLACE));
+        assertThat(place.getStatusCode(), is(200));
+        assert place.isSuccess();
+        assert place.getBytesReceived() > 100;
+        assert place.getLatency(TimeUnit.NANOSECONDS) >= place.getParseTime(TimeUnit.NANOSECONDS);
+        assert place.getUri().contains("appid=REDACTED");
+        assert !place.getUri().contains(appId);
+
+        RequestEvent children = events.get(1);
+        assertThat(children.getEndpoint(), is(Endpoint.CHILDREN));
+        assert children.getBytesReceived() > 0;
+
+        RequestEvent missing = events.get(2);
+        assertThat(missing.getStatusCode(), is(404));
+        assert !missing.isSuccess();
+        assertThat(missing.getFailure(), instanceOf(PlaceNotFoundException.class));
+    }
+
+    @Test
+    public void testRecorder() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            MetricsRecorder metrics = new MetricsRecorder();
+            g.addListener(metrics);
+            g.setPlaceCache(new PlaceCache(10));
+            g.getPlace(19344);
+            g.getPlace(19344);
+            g.getPlace(19344).getAncestors().get();
+            assertThat(metrics.getRequestCount(Endpoint.PLACE), is(1L));
+            assertThat(metrics.getRequestCount(Endpoint.ANCESTORS), is(1L));
+            assertThat(metrics.getRequestCount(), is(2L));
+            assertThat(metrics.getErrorCount(Endpoint.PLACE), is(0L));
+            assertThat(metrics.getCacheHitCount(), is(2L));
+            assertThat(metrics.getCacheMissCount(), is(1L));
+            assertThat(metrics.getLatency(Endpoint.PLACE).getCount(), is(1L));
+            assert metrics.getBytesReceived(Endpoint.ANCESTORS) > 0;
+            assert metrics.toString().contains("ANCESTORS");
+            metrics.reset();
+            assertThat(metrics.getRequestCount(), is(0L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testFailingListener() throws GeoPlanetException {
+        GeoPlanetListener listener = event -> {
+            throw new RuntimeException("Listener failure");
+        };
+        client.addListener(listener);
+        try {
+            assertThat(client.getPlace(19344).getName(), is("Edinburgh"));
+        } finally {
+            client.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getPercentile(99), is(0L));
+        for (int i = 1; i <= 1000; i++) histogram.record(i, TimeUnit.MICROSECONDS);
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMax(), is(1000L));
+        assert Math.abs(histogram.getMean() - 500.5) < 0.01;
+        long p50 = histogram.getPercentile(50);
+        assert p50 >= 500 && p50 <= 500 * 1.125 : p50;
+        long p99 = histogram.getPercentile(99);
+        assert p99 >= 990 && p99 <= 1000 : p99;
+        assertThat(histogram.getPercentile(100), is(1000L));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (int bucket = 0; bucket < 400; bucket++) {
+            long upper = LatencyHistogram.upperBound(bucket);
+            assert upper > previous;
+            assertThat(LatencyHistogram.bucket(upper), is(bucket));
+            assertThat(LatencyHistogram.bucket(previous + 1), is(bucket));
+            previous = upper;
+        }
+        assertThat(LatencyHistogram.bucket(Long.MAX_VALUE) >= 0, is(true));
+    }
+}
@@ -0,0 +1,39 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+/**
+ * Base class for tests which run against a local {@link StubServer}
+ * rather than the live GeoPlanet service.
+ *
+ * @author Joe Halliwell
+ */
+public abstract class OfflineTest {
+
+    final static String appId = "offline-test";
+    static StubServer server;
+    static GeoPlanet client;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new StubServer();
+        client = new GeoPlanet(appId, GeoPlanet.defaultLanguage, server.getServiceUri());
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        client.close();
+        server.stop();
+    }
+
+    @Before
+    public void resetServer() {
+        server.reset();
+    }
+
+    GeoPlanet newClient() throws GeoPlanetException {
+        return new GeoPlanet(appId, GeoPlanet.defaultLanguage, server.getServiceUri());
+    }
+}
@@ -0,0 +1,124 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for place caching
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceCacheTest extends OfflineTest {
+
+    @Test
+    public void testCacheHit() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            PlaceCache cache = new PlaceCache(100);
+            g.setPlaceCache(cache);
+            server.reset();
+            Place a = g.getPlace(19344);
+            Place b = g.getPlace(19344);
+            assertThat(b, is(sameInstance(a)));
+            assertThat(server.requests.get(), is(1));
+            assertThat(cache.getHitCount(), is(1L));
+            assertThat(cache.getMissCount(), is(1L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testLongFormUsesCache() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setPlaceCache(new PlaceCache(100));
+            Place edinburgh = g.getPlace(19344);
+            Place shortForm = g.getPlace(12602191).getChildren().shortForm(true).get(0);
+            assert !shortForm.isLongForm();
+            server.reset();
+            assertThat(shortForm.getLongForm(), is(sameInstance(edinburgh)));
+            assertThat(server.requests.get(), is(0));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testSharedBetweenClients() throws GeoPlanetException {
+        PlaceCache cache = new PlaceCache(100);
+        GeoPlanet g1 = newClient();
+        GeoPlanet g2 = newClient();
+        try {
+            g1.setPlaceCache(cache);
+            g2.setPlaceCache(cache);
+            Place edinburgh = g1.getPlace(19344);
+            g1.close();
+            server.reset();
+            // Bound to the client which looked it up, not the closed one
+            Place cached = g2.getPlace(19344);
+            assertThat(server.requests.get(), is(0));
+            assertThat(cached.getClient(), is(sameInstance(g2)));
+            assertThat(cached.getCountry().getClient(), is(sameInstance(g2)));
+            assertThat(cached.getPlaceType().getClient(), is(sameInstance(g2)));
+            assertThat(cached, is(edinburgh));
+            assertThat(cached.getBoundingBox(), is(edinburgh.getBoundingBox()));
+            assertThat(cached.getParent().getName(), is("City of Edinburgh"));
+        } finally {
+            g1.close();
+            g2.close();
+        }
+    }
+
+    @Test
+    public void testMaxEntries() throws GeoPlanetException {
+        PlaceCache cache = new PlaceCache(2);
+        cache.put(client.getPlace(1));
+        cache.put(client.getPlace(19344));
+        assert cache.get(client, 1, true) != null;
+        cache.put(client.getPlace(44418));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        // Edinburgh was least recently used
+        assert cache.get(client, 19344, true) == null;
+        assert cache.get(client, 1, true) != null;
+    }
+
+    @Test
+    public void testMaxWeight() throws GeoPlanetException {
+        PlaceCache cache = new PlaceCache(100);
+        Place edinburgh = client.getPlace(19344);
+        cache.setMaxWeight(PlaceCache.weigh(edinburgh));
+        cache.put(edinburgh);
+        assertThat(cache.size(), is(1));
+        cache.put(client.getPlace(44418));
+        assertThat(cache.size(), is(1));
+        assert cache.getWeight() <= cache.getMaxWeight();
+    }
+
+    @Test
+    public void testKeyedByForm() throws GeoPlanetException {
+        PlaceCache cache = new PlaceCache(100);
+        cache.put(client.getPlace(19344));
+        assert cache.get(client, 19344, false) == null;
+        assert cache.get(server.getServiceUri(), "fr", 19344, true) == null;
+        assert cache.get("http://example.com/v1", "en", 19344, true) == null;
+        assert cache.get(client, 19344, true) != null;
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        PlaceCache cache = new PlaceCache(100);
+        cache.setTimeToLive(10, TimeUnit.MILLISECONDS);
+        cache.put(client.getPlace(19344));
+        Thread.sleep(20);
+        assert cache.get(client, 19344, true) == null;
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.size(), is(0));
+    }
+}
@@ -0,0 +1,116 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for paged iteration over place collections
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceCollectionPagingTest extends OfflineTest {
+
+    @Test
+    public void testPagedIteration() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(1).getDescendents();
+        List<Place> all = descendants.get();
+        server.reset();
+        List<Place> paged = new ArrayList<Place>();
+        for (Place place : descendants.pageSize(4)) paged.add(place);
+        assertThat(paged, is(all));
+        // 15 descendants in pages of 4
+        assertThat(server.requests.get(), is(4));
+    }
+
+    @Test
+    public void testLazy() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(1).getDescendents().pageSize(2);
+        server.reset();
+        Iterator<Place> iterator = descendants.iterator();
+        assertThat(server.requests.get(), is(0));
+        iterator.next();
+        iterator.next();
+        assertThat(server.requests.get(), is(1));
+        iterator.next();
+        assertThat(server.requests.get(), is(2));
+    }
+
+    @Test
+    public void testExactMultipleOfPageSize() throws GeoPlanetException {
+        PlaceCollection children = client.getPlace(1).getChildren();
+        assertThat(children.size(), is(2));
+        server.reset();
+        List<Place> paged = new ArrayList<Place>();
+        for (Place place : children.pageSize(2)) paged.add(place);
+        assertThat(paged.size(), is(2));
+        assertThat(server.requests.get(), is(1));
+    }
+
+    @Test
+    public void testPrefetch() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(1).getDescendents();
+        List<Place> all = descendants.get();
+        List<Place> paged = descendants.pageSize(3).prefetch(true).stream().collect(Collectors.toList());
+        assertThat(paged, is(all));
+    }
+
+    @Test
+    public void testEmpty() throws GeoPlanetException {
+        assert !client.getPlace(20089).getChildren().iterator().hasNext();
+    }
+
+    @Test
+    public void testVariantsKeepPaging() throws GeoPlanetException {
+        PlaceCollection c = client.getPlace(1).getChildren().pageSize(7).prefetch(true).shortForm(true);
+        assertThat(c.getPageSize(), is(7));
+        assert c.isPrefetch();
+    }
+
+    @Test
+    public void testParallelGetAll() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(1).getDescendents();
+        List<Place> all = descendants.get();
+        server.reset();
+        assertThat(descendants.pageSize(2).getAll(3), is(all));
+        assertThat(server.requests.get(), is(8));
+    }
+
+    @Test
+    public void testGetAllWithoutTotal() throws GeoPlanetException {
+        PlaceCollection descendants = client.getPlace(1).getDescendents();
+        List<Place> all = descendants.get();
+        server.reset();
+        server.omitTotal = true;
+        PlaceCollection paged = client.getPlace(1).getDescendents().pageSize(2);
+        assertThat(paged.getAll(3), is(all));
+        assertThat(paged.size(), is(-1));
+    }
+
+    @Test
+    public void testParallelGetAllSinglePage() throws GeoPlanetException {
+        PlaceCollection children = client.getPlace(1).getChildren();
+        assertThat(children.getAll(4), is(children.get()));
+    }
+
+    @Test
+    public void testParallelGetAllFromWorker() throws Exception {
+        // Nested parallel requests from a saturated pool must not deadlock
+        PlaceCollection descendants = client.getPlace(1).getDescendents().pageSize(1);
+        List<Future<List<Place>>> futures = new ArrayList<Future<List<Place>>>();
+        for (int i = 0; i < 2 * GeoPlanet.defaultParallelism; i++) {
+            futures.add(client.submit(() -> descendants.getAll(4)));
+        }
+        for (Future<List<Place>> future : futures) {
+            assertThat(future.get(10, TimeUnit.SECONDS).size(), is(15));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the breadth-first place crawler
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceCrawlerTest extends OfflineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GeoPlanet g;
+    private Place earth;
+
+    @Before
+    public void setUp() throws GeoPlanetException {
+        g = newClient();
+        g.setRetryPolicy(RetryPolicy.NONE);
+        earth = g.getPlace(1);
+    }
+
+    @After
+    public void tearDown() {
+        g.close();
+    }
+
+    private Set<Long> descendants() {
+        Set<Long> woeIds = new HashSet<Long>(server.getWoeIds());
+        woeIds.remove(1L);
+        return woeIds;
+    }
+
+    private static Set<Long> woeIds(List<Place> places) {
+        Set<Long> woeIds = new HashSet<Long>();
+        for (Place place : places) woeIds.add(place.getWoeId());
+        return woeIds;
+    }
+
+    @Test
+    public void testCrawl() throws Exception {
+        PlaceCrawler crawler = new PlaceCrawler(g);
+        crawler.setParallelism(3);
+        List<Place> found = new ArrayList<Place>();
+        assertThat(crawler.crawl(earth, found::add), is(15L));
+        assertThat(found.size(), is(15));
+        assertThat(woeIds(found), is(descendants()));
+        // Level by level
+        assertThat(woeIds(found.subList(0, 2)), is(woeIds(earth.getChildren().get())));
+        for (Place place : found) assertThat(place.isLongForm(), is(true));
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        PlaceCrawler crawler = new PlaceCrawler(g);
+        crawler.setMaxDepth(2);
+        crawler.setShortForm(true);
+        List<Place> found = new ArrayList<Place>();
+        crawler.crawl(earth, found::add);
+        Set<Long> expected = new HashSet<Long>();
+        for (long woeId : new long[]{24865675, 23424813, 23424975, 23424819, 1062605}) expected.add(woeId);
+        assertThat(woeIds(found), is(expected));
+        assertThat(found.get(0).isLongForm(), is(false));
+    }
+
+    @Test
+    public void testResumeAfterSinkFailure() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "earth.crawl");
+        PlaceCrawler crawler = new PlaceCrawler(g);
+        crawler.setCheckpoint(checkpoint, 1);
+        List<Place> found = new ArrayList<Place>();
+        try {
+            crawler.crawl(earth, place -> {
+                if (found.size() == 6) throw new IOException("Disk full");
+                found.add(place);
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertThat(checkpoint.exists(), is(true));
+
+        // A new crawler, as if after a restart
+        int requests = server.requests.get();
+        crawler = new PlaceCrawler(g);
+        crawler.setCheckpoint(checkpoint, 1);
+        List<Place> resumed = new ArrayList<Place>();
+        assertThat(crawler.crawl(earth, resumed::add) >= 15, is(true));
+        assert resumed.size() < 15 : resumed.size();
+        assert server.requests.get() - requests < 15;
+        Set<Long> all = woeIds(found);
+        all.addAll(woeIds(resumed));
+        assertThat(all, is(descendants()));
+        assertThat(checkpoint.exists(), is(false));
+    }
+
+    @Test
+    public void testResumeAfterRequestFailure() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "earth.crawl");
+        PlaceCrawler crawler = new PlaceCrawler(g);
+        crawler.setParallelism(1);
+        crawler.setCheckpoint(checkpoint, 1000);
+        List<Place> found = new ArrayList<Place>();
+        try {
+            crawler.crawl(earth, place -> {
+                found.add(place);
+                if (found.size() == 5) server.faults.set(1);
+            });
+            fail("Expected GeoPlanetException");
+        } catch (GeoPlanetException e) {
+            // Expected
+        }
+
+        // The checkpoint is exact, so nothing is found twice
+        List<Place> resumed = new ArrayList<Place>();
+        assertThat(crawler.crawl(earth, resumed::add), is(15L));
+        assertThat(found.size() + resumed.size(), is(15));
+        Set<Long> all = woeIds(found);
+        all.addAll(woeIds(resumed));
+        assertThat(all, is(descendants()));
+    }
+
+    @Test
+    public void testLongSet() {
+        LongSet set = new LongSet();
+        Set<Long> expected = new HashSet<Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = 1 + random.nextInt(20000);
+            assertThat(set.add(value), is(expected.add(value)));
+        }
+        assertThat(set.size(), is(expected.size()));
+        for (long value = 0; value <= 20001; value++) {
+            assertThat(set.contains(value), is(expected.contains(value)));
+        }
+        List<Long> values = new ArrayList<Long>();
+        for (long value : set.toArray()) values.add(value);
+        Collections.sort(values);
+        List<Long> sorted = new ArrayList<Long>(expected);
+        Collections.sort(sorted);
+        assertThat(values, is(sorted));
+    }
+}
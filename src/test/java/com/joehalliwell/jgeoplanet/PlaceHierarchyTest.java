@@ -0,0 +1,122 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the local place hierarchy
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceHierarchyTest extends OfflineTest {
+
+    private GeoPlanet g;
+    private PlaceHierarchy hierarchy;
+
+    @Before
+    public void setUp() throws GeoPlanetException {
+        g = newClient();
+        hierarchy = new PlaceHierarchy();
+        g.setPlaceHierarchy(hierarchy);
+    }
+
+    @After
+    public void tearDown() {
+        g.close();
+    }
+
+    private static List<String> names(List<Place> places) {
+        List<String> names = new ArrayList<String>();
+        for (Place place : places) names.add(place.getName());
+        return names;
+    }
+
+    @Test
+    public void testAncestors() throws GeoPlanetException {
+        Place bruntsfield = g.getPlace(20089);
+        List<Place> ancestors = bruntsfield.getAncestors().get();
+        int requests = server.requests.get();
+        assertThat(hierarchy.hasAncestors(20089), is(true));
+        assertThat(hierarchy.hasAncestors(12578048), is(true));
+        assertThat(names(bruntsfield.getAncestors().get()), is(names(ancestors)));
+        assertThat(names(bruntsfield.getAncestors().get(1, 2)), is(names(ancestors.subList(1, 3))));
+        assertThat(bruntsfield.getAncestors().size(), is(ancestors.size()));
+        assertThat(bruntsfield.getParent().getName(), is("Edinburgh"));
+        assertThat(g.getPlace(12578048).getParent().getName(), is("United Kingdom"));
+        // Only the last getPlace
+        assertThat(server.requests.get(), is(requests + 1));
+        assertThat(hierarchy.getParent(1), is(nullValue()));
+        assertThat(hierarchy.getAncestors(1).size(), is(0));
+    }
+
+    @Test
+    public void testParentsAndChildren() throws GeoPlanetException {
+        Place glasgow = g.getPlace(21125);
+        assertThat(glasgow.getParent().getName(), is("Glasgow City"));
+        assertThat(hierarchy.getParent(21125).getName(), is("Glasgow City"));
+        assertThat(hierarchy.hasAncestors(21125), is(false));
+        assertThat(hierarchy.getAncestors(21125), is(nullValue()));
+
+        List<Place> children = g.getPlace(23424975).getChildren().get();
+        int requests = server.requests.get();
+        for (Place child : children) assertThat(child.getParent().getName(), is("United Kingdom"));
+        assertThat(server.requests.get(), is(requests));
+    }
+
+    @Test
+    public void testCommonAncestor() throws GeoPlanetException {
+        Place bruntsfield = g.getPlace(20089);
+        assertThat(bruntsfield.getCommonAncestor(g.getPlace(21125)).getName(), is("Scotland"));
+        assertThat(bruntsfield.getCommonAncestor(g.getPlace(44418)).getName(), is("United Kingdom"));
+        assertThat(bruntsfield.getCommonAncestor(g.getPlace(615702)).getName(), is("Europe"));
+        assertThat(bruntsfield.getCommonAncestor(g.getPlace(1062605)).getName(), is("Earth"));
+        assertThat(bruntsfield.getCommonAncestor(g.getPlace(19344)).getName(), is("Edinburgh"));
+        assertThat(bruntsfield.getCommonAncestor(bruntsfield).getName(), is("Bruntsfield"));
+
+        // More than ten, answered from memory
+        List<Place> others = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) {
+            if (woeId != 1 && woeId != 20089) others.add(g.getPlace(woeId));
+        }
+        assert others.size() > 10;
+        int requests = server.requests.get();
+        Place common = bruntsfield.getCommonAncestor(others.toArray(new Place[others.size()]));
+        assertThat(common.getName(), is("Earth"));
+        int fetched = server.requests.get() - requests;
+        assert fetched <= others.size() : fetched;
+        List<Place> british = others.subList(0, 5);
+        assertThat(hierarchy.getCommonAncestor(british).getName(), is("Europe"));
+        bruntsfield.getCommonAncestor(others.toArray(new Place[others.size()]));
+        assertThat(server.requests.get() - requests, is(fetched));
+    }
+
+    @Test
+    public void testCommonAncestorFetchesConcurrently() throws GeoPlanetException {
+        Place bruntsfield = g.getPlace(20089);
+        Place[] others = {g.getPlace(21125), g.getPlace(44418), g.getPlace(615702), g.getPlace(1062605)};
+        server.reset();
+        server.delayMillis = 100;
+        assertThat(bruntsfield.getCommonAncestor(others).getName(), is("Earth"));
+        assertThat(server.requests.get(), is(5));
+        assert server.peakConcurrent.get() > 1 : server.peakConcurrent.get();
+    }
+
+    @Test
+    public void testUnknown() throws GeoPlanetException {
+        assertThat(hierarchy.getCommonAncestor(19344, 21125), is(nullValue()));
+        g.getPlace(19344).getParent();
+        assertThat(hierarchy.getCommonAncestor(19344, 21125), is(nullValue()));
+        assertThat(hierarchy.size(), is(2));
+        hierarchy.clear();
+        assertThat(hierarchy.size(), is(0));
+        assertThat(hierarchy.getParent(19344), is(nullValue()));
+    }
+}
@@ -0,0 +1,127 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the spatial place index
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceIndexTest extends OfflineTest {
+
+    private PlaceTable table(int copies) throws GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) places.add(client.getPlace(woeId));
+        PlaceTable table = new PlaceTable(client);
+        for (int i = 0; i < copies; i++) table.addAll(places);
+        return table;
+    }
+
+    @Test
+    public void testContaining() throws GeoPlanetException {
+        PlaceIndex index = new PlaceIndex(client, table(1));
+        Location bruntsfield = client.getPlace(20089).getCentroid();
+        List<String> names = new ArrayList<String>();
+        for (Place place : index.getPlacesContaining(bruntsfield)) names.add(place.getName());
+        assertThat(names.get(0), is("Bruntsfield"));
+        assertThat(names.get(names.size() - 1), is("Earth"));
+        assert names.contains("Scotland");
+        assert !names.contains("England");
+
+        PlaceType town = client.getPlaceType(7);
+        assertThat(index.getSmallestPlaceContaining(bruntsfield).getName(), is("Bruntsfield"));
+        assertThat(index.getSmallestPlaceContaining(bruntsfield, town).getName(), is("Edinburgh"));
+        assertThat(index.getPlacesContaining(bruntsfield, town).size(), is(1));
+        assertThat(index.getSmallestPlaceContaining(new Location(0, 0), town), is(nullValue()));
+    }
+
+    @Test
+    public void testAntimeridian() throws GeoPlanetException {
+        PlaceIndex index = new PlaceIndex(client, table(1));
+        PlaceType country = client.getPlaceType(12);
+        assertThat(index.getSmallestPlaceContaining(new Location(-17, 179.5), country).getName(), is("Fiji"));
+        assertThat(index.getSmallestPlaceContaining(new Location(-17, -179.5), country).getName(), is("Fiji"));
+        assertThat(index.getSmallestPlaceContaining(new Location(-17, -170), country), is(nullValue()));
+        assertThat(index.getSmallestPlaceContaining(new Location(-18.1, 178.45)).getName(), is("Suva"));
+
+        // On the antimeridian, each split box is visited once
+        for (double longitude : new double[]{180, -180}) {
+            List<Integer> rows = new ArrayList<Integer>();
+            index.forEachContaining(-17, longitude, rows::add);
+            assertThat(new HashSet<Integer>(rows).size(), is(rows.size()));
+            assertThat(rows.size(), is(2));
+        }
+
+        BoundingBox pacific = new BoundingBox(new Location(-10, -179), new Location(-25, 179));
+        Set<String> names = new HashSet<String>();
+        for (Place place : index.getPlacesIntersecting(pacific)) assert names.add(place.getName());
+        assertThat(names.contains("Fiji"), is(true));
+        assertThat(names.contains("Suva"), is(false));
+        assertThat(names.contains("Earth"), is(true));
+        assertThat(names.size(), is(2));
+    }
+
+    @Test
+    public void testAgainstScan() throws GeoPlanetException {
+        PlaceTable table = table(40);
+        PlaceIndex index = new PlaceIndex(table);
+        assertThat(index.size(), is(table.size()));
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // Mostly around the British Isles, where the places are
+            double latitude = i % 2 == 0 ? 50 + random.nextDouble() * 10 : random.nextDouble() * 180 - 90;
+            double longitude = i % 2 == 0 ? -8 + random.nextDouble() * 10 : random.nextDouble() * 360 - 180;
+            Set<Integer> expected = new HashSet<Integer>();
+            for (int row = 0; row < table.size(); row++) {
+                if (table.contains(row, latitude, longitude)) expected.add(row);
+            }
+            Set<Integer> actual = new HashSet<Integer>();
+            index.forEachContaining(latitude, longitude, row -> {
+                assert actual.add(row);
+            });
+            assertThat(actual, is(expected));
+
+            double south = latitude - random.nextDouble();
+            double west = longitude - random.nextDouble();
+            expected.clear();
+            for (int row = 0; row < table.size(); row++) {
+                if (intersects(table, row, south, latitude, west, longitude)) expected.add(row);
+            }
+            actual.clear();
+            index.forEachIntersecting(south, latitude, west, longitude, row -> {
+                assert actual.add(row);
+            });
+            assertThat(actual, is(expected));
+        }
+    }
+
+    private static boolean intersects(PlaceTable table, int row, double south, double north,
+                                      double west, double east) {
+        if (north < table.getSouth(row) || south > table.getNorth(row)) return false;
+        if (table.getWest(row) > table.getEast(row)) {
+            return west <= table.getEast(row) || east >= table.getWest(row);
+        }
+        return west <= table.getEast(row) && east >= table.getWest(row);
+    }
+
+    @Test
+    public void testShortFormAndEmpty() throws GeoPlanetException {
+        PlaceIndex empty = new PlaceIndex(new PlaceTable(client));
+        assertThat(empty.size(), is(0));
+        assertThat(empty.getPlacesContaining(new Location(0, 0)).size(), is(0));
+
+        PlaceIndex index = new PlaceIndex(client, client.getPlace(1).getChildren().shortForm(true).get());
+        assertThat(index.size(), is(0));
+        assertThat(index.getTable().size() > 0, is(true));
+    }
+}
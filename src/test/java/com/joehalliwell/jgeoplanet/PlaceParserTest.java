@@ -0,0 +1,125 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for streaming parsing of place collections
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceParserTest extends OfflineTest {
+
+    static String place(long woeId, String name) {
+        return "{\"woeid\":" + woeId + ",\"placeTypeName\":\"Town\",\"placeTypeName attrs\":{\"code\":7},"
+                + "\"name\":\"" + name + "\",\"uri\":\"http://example.com/place/" + woeId + "\",\"lang\":\"en\"}";
+    }
+
+    private List<Place> parse(String json, int expectedTotal) throws Exception {
+        List<Place> places = new ArrayList<Place>();
+        int total = PlaceParser.parsePlaces(client, new StringReader(json), places::add);
+        assertThat(total, is(expectedTotal));
+        return places;
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<Place> places = parse("{\"places\":{\"place\":[" + place(19344, "Edinburgh") + ","
+                + place(44418, "London") + "],\"start\":0,\"count\":2,\"total\":5}}", 5);
+        assertThat(places.size(), is(2));
+        assertThat(places.get(0).getName(), is("Edinburgh"));
+        assertThat(places.get(1).getWoeId(), is(44418L));
+    }
+
+    @Test
+    public void testFieldOrder() throws Exception {
+        List<Place> places = parse(" { \"places\" : { \"total\" : 1 , \"extra\" : {\"a\":[1,2]}, \"place\" : [ "
+                + place(19344, "Edinburgh") + " ] } , \"other\" : null } ", 1);
+        assertThat(places.size(), is(1));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertThat(parse("{\"places\":{\"place\":[],\"start\":0,\"count\":0,\"total\":0}}", 0).size(), is(0));
+        assertThat(parse("{\"places\":{\"start\":0,\"count\":0,\"total\":0}}", 0).size(), is(0));
+        assertThat(parse("{}", -1).size(), is(0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testMalformed() throws Exception {
+        parse("{\"places\":{\"place\":[" + place(19344, "Edinburgh") + " " + place(44418, "London") + "]}}", 0);
+    }
+
+    @Test(expected = JSONException.class)
+    public void testNull() throws Exception {
+        parse("null", 0);
+    }
+
+    /**
+     * A response far larger than would fit comfortably on the heap as a
+     * string, let alone as a JSON tree, is parsed one place at a time.
+     */
+    @Test
+    public void testStreaming() throws Exception {
+        final int size = 200000;
+        int[] count = {0};
+        int total = PlaceParser.parsePlaces(client, new PlacesReader(size), place -> {
+            assertThat(place.getWoeId(), is((long) count[0] + 1));
+            count[0]++;
+        });
+        assertThat(count[0], is(size));
+        assertThat(total, is(size));
+    }
+
+    @Test
+    public void testCollectionIsStreamed() throws GeoPlanetException {
+        Place uk = client.getPlace(23424975);
+        assertThat(uk.getDescendents().get().size(), is(9));
+        assertThat(uk.getDescendents().size(), is(9));
+        assertThat(uk.getChildren().get(0, 1).size(), is(1));
+    }
+
+    /**
+     * Generates a collection of places on demand.
+     */
+    private static class PlacesReader extends Reader {
+        private final int size;
+        private int next = 0;
+        private String chunk = "{\"places\":{\"place\":[";
+        private int position = 0;
+
+        PlacesReader(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == chunk.length()) {
+                if (next > size) return -1;
+                next++;
+                if (next > size) {
+                    chunk = "],\"start\":0,\"count\":" + size + ",\"total\":" + size + "}}";
+                } else {
+                    chunk = (next > 1 ? "," : "") + place(next, "Place " + next);
+                }
+                position = 0;
+            }
+            int n = Math.min(length, chunk.length() - position);
+            chunk.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the persistent place store
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceStoreTest extends OfflineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWarmRestart() throws Exception {
+        File directory = folder.newFolder();
+        PlaceStore store = new PlaceStore(directory);
+        GeoPlanet g = new GeoPlanet(appId, "en", server.getServiceUri(), store);
+        Place edinburgh = g.getPlace(19344);
+        g.getPlace(44418);
+        g.close();
+        store.close();
+
+        server.reset();
+        store = new PlaceStore(directory);
+        g = new GeoPlanet(appId, "en", server.getServiceUri(), store);
+        try {
+            Place stored = g.getPlace(19344);
+            assertThat(server.requests.get(), is(0));
+            assertSamePlace(stored, edinburgh);
+            assertThat(store.size(server.getServiceUri(), "en"), is(2));
+        } finally {
+            g.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PlaceStore store = new PlaceStore(folder.newFolder());
+        try {
+            for (long woeId : server.getWoeIds()) {
+                store.put(client.getPlace(woeId));
+            }
+            for (long woeId : server.getWoeIds()) {
+                assertSamePlace(store.get(client, woeId), client.getPlace(woeId));
+            }
+            assertThat(store.get(client, 999), is(nullValue()));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testServicesKeptApart() throws Exception {
+        PlaceStore store = new PlaceStore(folder.newFolder());
+        String otherUri = server.getServiceUri().replace("127.0.0.1", "localhost");
+        GeoPlanet g = new GeoPlanet(appId, "en", server.getServiceUri(), store);
+        GeoPlanet other = new GeoPlanet(appId, "en", otherUri, store);
+        try {
+            g.getPlace(19344);
+            assertThat(store.get(other, 19344), is(nullValue()));
+            assertThat(store.size(otherUri, "en"), is(0));
+            store.putPlaceTypes(server.getServiceUri(), "en", "{\"placeTypes\":{}}");
+            store.putPlaceTypes(otherUri, "en", "{}");
+            assertThat(store.getPlaceTypes(server.getServiceUri(), "en"), is("{\"placeTypes\":{}}"));
+        } finally {
+            g.close();
+            other.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testShortForm() throws Exception {
+        PlaceStore store = new PlaceStore(folder.newFolder());
+        try {
+            Place place = client.getPlace(1).getChildren().shortForm(true).get(0);
+            store.put(place);
+            Place stored = store.get(client, place.getWoeId());
+            assert !stored.isLongForm();
+            assertThat(stored.getName(), is(place.getName()));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIndexGrowth() throws Exception {
+        File directory = folder.newFolder();
+        PlaceStore store = new PlaceStore(directory);
+        JSONObject json = new JSONObject(server.route("/place/19344", false)).getJSONObject("place");
+        for (int i = 1; i <= 3000; i++) {
+            json.put("woeid", 1000000 + i);
+            store.put(new Place(client, json));
+        }
+        store.close();
+
+        store = new PlaceStore(directory);
+        try {
+            assertThat(store.size(server.getServiceUri(), "en"), is(3000));
+            for (int i = 1; i <= 3000; i++) {
+                assertThat(store.get(client, 1000000 + i).getWoeId(), is(1000000L + i));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        File directory = folder.newFolder();
+        PlaceStore store = new PlaceStore(directory);
+        store.put(client.getPlace(19344));
+        store.put(client.getPlace(44418));
+        store.close();
+
+        // Lose the index and leave a partial record at the end of the data file
+        assert new File(directory, "places-" + PlaceStore.name(server.getServiceUri(), "en") + ".idx").delete();
+        FileOutputStream out = new FileOutputStream(new File(directory, "places-" + PlaceStore.name(server.getServiceUri(), "en") + ".dat"), true);
+        out.write(new byte[]{0, 0, 1, 0, 0, 0, 0});
+        out.close();
+
+        store = new PlaceStore(directory);
+        try {
+            assertThat(store.size(server.getServiceUri(), "en"), is(2));
+            assertThat(store.get(client, 44418).getName(), is("London"));
+            store.put(client.getPlace(21125));
+            assertThat(store.get(client, 21125).getName(), is("Glasgow"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRecoveryWithStaleIndex() throws Exception {
+        File directory = folder.newFolder();
+        File data = new File(directory, "places-" + PlaceStore.name(server.getServiceUri(), "en") + ".dat");
+        File index = new File(directory, "places-" + PlaceStore.name(server.getServiceUri(), "en") + ".idx");
+        PlaceStore store = new PlaceStore(directory);
+        store.put(client.getPlace(19344));
+        store.close();
+        long length = data.length();
+        store = new PlaceStore(directory);
+        store.put(client.getPlace(44418));
+        store.close();
+
+        // The index was updated, but not its data length, and London's record was only partly written
+        RandomAccessFile raf = new RandomAccessFile(index, "rw");
+        raf.seek(16);
+        raf.writeLong(length);
+        raf.close();
+        raf = new RandomAccessFile(data, "rw");
+        raf.setLength(length + 6);
+        raf.close();
+
+        store = new PlaceStore(directory);
+        try {
+            assertThat(store.size(server.getServiceUri(), "en"), is(1));
+            assertThat(store.get(client, 44418), is(nullValue()));
+            store.put(client.getPlace(21125));
+            assertThat(store.get(client, 44418), is(nullValue()));
+            assertThat(store.get(client, 21125).getName(), is("Glasgow"));
+            assertThat(store.get(client, 19344).getName(), is("Edinburgh"));
+        } finally {
+            store.close();
+        }
+
+        // Data lost beyond the length the index covers
+        raf = new RandomAccessFile(data, "rw");
+        raf.setLength(length);
+        raf.close();
+        store = new PlaceStore(directory);
+        try {
+            assertThat(store.size(server.getServiceUri(), "en"), is(1));
+            assertThat(store.get(client, 21125), is(nullValue()));
+            assertThat(store.get(client, 19344).getName(), is("Edinburgh"));
+        } finally {
+            store.close();
+        }
+    }
+
+    static void assertSamePlace(Place actual, Place expected) {
+        assertThat(actual, is(expected));
+        assertThat(actual.getName(), is(expected.getName()));
+        assertThat(actual.getPlaceType(), is(expected.getPlaceType()));
+        assertThat(actual.getPlaceTypeNameVariant(), is(expected.getPlaceTypeNameVariant()));
+        assertThat(actual.getCentroid(), is(expected.getCentroid()));
+        assertThat(actual.getBoundingBox(), is(expected.getBoundingBox()));
+        assertThat(actual.getCountry(), is(expected.getCountry()));
+        assertThat(actual.getAdmin1(), is(expected.getAdmin1()));
+        assertThat(actual.getAdmin2(), is(expected.getAdmin2()));
+        assertThat(actual.getAdmin3(), is(expected.getAdmin3()));
+        assertThat(actual.getLocality1(), is(expected.getLocality1()));
+        assertThat(actual.getPostal(), is(expected.getPostal()));
+        assertThat(actual.getPopulationRank(), is(expected.getPopulationRank()));
+        assertThat(actual.getAreaRank(), is(expected.getAreaRank()));
+    }
+}
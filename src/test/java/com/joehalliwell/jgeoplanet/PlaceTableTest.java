@@ -0,0 +1,104 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the columnar place table
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceTableTest extends OfflineTest {
+
+    private List<Place> places() throws GeoPlanetException {
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) places.add(client.getPlace(woeId));
+        return places;
+    }
+
+    @Test
+    public void testRoundTrip() throws GeoPlanetException {
+        List<Place> places = places();
+        PlaceTable table = new PlaceTable(client, 1);
+        table.addAll(places);
+        assertThat(table.size(), is(places.size()));
+        for (int row = 0; row < table.size(); row++) {
+            Place expected = places.get(row);
+            Place actual = table.get(row);
+            PlaceStoreTest.assertSamePlace(actual, expected);
+            assertThat(expected.equals(actual), is(true));
+            assertThat(actual.hashCode(), is(expected.hashCode()));
+            assertThat(actual.toString(), is(expected.toString()));
+            assertThat(actual.getClient(), sameInstance(client));
+            assertThat(table.getWoeId(row), is(expected.getWoeId()));
+            assertThat(table.getPlaceTypeCode(row), is(expected.getPlaceType().getCode()));
+            assertThat(table.getLatitude(row), is(expected.getCentroid().getLatitude()));
+            assertThat(table.getLongitude(row), is(expected.getCentroid().getLongitude()));
+        }
+        int row = 0;
+        for (Place place : table) assertThat(place, is(places.get(row++)));
+        assertThat(row, is(places.size()));
+    }
+
+    @Test
+    public void testInterning() throws GeoPlanetException {
+        PlaceTable table = new PlaceTable(client);
+        table.add(client.getPlace(19344));
+        table.add(client.getPlace(21125));
+        assertThat(table.get(1).getCountry(), sameInstance(table.get(0).getCountry()));
+        assertThat(table.get(1).getAdmin1(), sameInstance(table.get(0).getAdmin1()));
+        table.trimToSize();
+        table.add(client.getPlace(19344));
+        assertThat(table.get(2), is(table.get(0)));
+    }
+
+    @Test
+    public void testShortForm() throws GeoPlanetException {
+        Place place = client.getPlace(1).getChildren().shortForm(true).get(0);
+        PlaceTable table = new PlaceTable(client);
+        table.add(place);
+        Place row = table.get(0);
+        assertThat(row.isLongForm(), is(false));
+        assertThat(table.isLongForm(0), is(false));
+        assertThat(row.getName(), is(place.getName()));
+        assertThat(row.getCentroid(), is(nullValue()));
+        assertThat(row.getBoundingBox(), is(nullValue()));
+        assertThat(row.getCountry(), is(nullValue()));
+        assertThat(table.contains(0, 0, 0), is(false));
+        assertThat(row.getLongForm(), is(client.getPlace(place.getWoeId())));
+    }
+
+    @Test
+    public void testContains() throws GeoPlanetException {
+        List<Place> places = places();
+        PlaceTable table = new PlaceTable(client);
+        table.addAll(places);
+        Location edinburgh = client.getPlace(19344).getCentroid();
+        for (int row = 0; row < table.size(); row++) {
+            boolean expected = places.get(row).contains(edinburgh);
+            assertThat(table.contains(row, edinburgh.getLatitude(), edinburgh.getLongitude()), is(expected));
+            assertThat(table.get(row).contains(edinburgh), is(expected));
+        }
+    }
+
+    @Test
+    public void testAntimeridian() {
+        // Fiji
+        assertThat(BoundingBox.contains(-12, -178, -21, 176, -17, 179), is(true));
+        assertThat(BoundingBox.contains(-12, -178, -21, 176, -17, -179), is(true));
+        assertThat(BoundingBox.contains(-12, -178, -21, 176, -17, 0), is(false));
+        assertThat(BoundingBox.contains(-12, -178, -21, 176, -17, -170), is(false));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        new PlaceTable(client).get(0);
+    }
+}
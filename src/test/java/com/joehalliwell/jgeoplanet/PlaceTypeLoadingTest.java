@@ -0,0 +1,252 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.json.JSONObject;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the ways of loading place types
+ *
+ * @author Joe Halliwell
+ */
+public class PlaceTypeLoadingTest extends OfflineTest {
+
+    // Nothing listens here
+    private static final String deadServiceUri = "http://127.0.0.1:1/v1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void clearRegistry() {
+        PlaceTypeRegistry.clear();
+    }
+
+    private GeoPlanet newClient(PlaceTypeLoading loading) throws GeoPlanetException {
+        return new GeoPlanet(appId, GeoPlanet.defaultLanguage, server.getServiceUri(), loading);
+    }
+
+    @Test
+    public void testEager() throws GeoPlanetException {
+        GeoPlanet g = newClient(PlaceTypeLoading.EAGER);
+        try {
+            assertThat(server.requests.get(), is(1));
+            assertThat(g.getPlaceTypeLoading(), is(PlaceTypeLoading.EAGER));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test(expected = GeoPlanetException.class)
+    public void testEagerFailsWithoutService() throws GeoPlanetException {
+        new GeoPlanet(appId, GeoPlanet.defaultLanguage, deadServiceUri, PlaceTypeLoading.EAGER);
+    }
+
+    @Test
+    public void testLazy() throws GeoPlanetException {
+        GeoPlanet g = newClient(PlaceTypeLoading.LAZY);
+        try {
+            assertThat(server.requests.get(), is(0));
+            assertThat(g.getPlace(19344).getPlaceType().getName(), is("Town"));
+            assertThat(server.requests.get(), is(2));
+            g.getPlace(12578048);
+            assertThat(server.requests.get(), is(3));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testLazyWithoutService() throws GeoPlanetException {
+        GeoPlanet g = new GeoPlanet(appId, GeoPlanet.defaultLanguage, deadServiceUri, PlaceTypeLoading.LAZY);
+        try {
+            g.getPlaceType("Town");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assert e.getCause() instanceof GeoPlanetException;
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testLazyWithStore() throws Exception {
+        PlaceStore store = new PlaceStore(folder.newFolder());
+        GeoPlanet warm = new GeoPlanet(appId, GeoPlanet.defaultLanguage, server.getServiceUri(), store);
+        warm.getPlace(19344);
+        warm.close();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Reading a stored place loads the types, which reads the store
+            for (int i = 0; i < 200; i++) {
+                PlaceTypeRegistry.clear();
+                GeoPlanet g = new GeoPlanet(appId, GeoPlanet.defaultLanguage, server.getServiceUri(),
+                        new PooledHttpTransport(), store, PlaceTypeLoading.LAZY);
+                try {
+                    Future<Place> place = executor.submit(() -> g.getPlace(19344));
+                    Future<Integer> types = executor.submit(() -> g.getPlaceTypes().size());
+                    assertThat(place.get(10, TimeUnit.SECONDS).getPlaceType().getName(), is("Town"));
+                    assertThat(types.get(10, TimeUnit.SECONDS), is(22));
+                } finally {
+                    g.close();
+                }
+            }
+            assertThat(server.requests.get(), is(2));
+        } finally {
+            executor.shutdownNow();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws GeoPlanetException {
+        GeoPlanet g = new GeoPlanet(appId, GeoPlanet.defaultLanguage, deadServiceUri, PlaceTypeLoading.SNAPSHOT);
+        try {
+            assertThat(g.getPlaceType("Town").getCode(), is(7));
+            assertThat(g.getPlaceType(12).getName(), is("Country"));
+            assertThat(g.getPlaceTypes().size(), is(31));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotLanguageFallback() throws GeoPlanetException {
+        GeoPlanet g = new GeoPlanet(appId, "en-GB", deadServiceUri, PlaceTypeLoading.SNAPSHOT);
+        try {
+            assertThat(g.getPlaceType("Town").getCode(), is(7));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testMissingSnapshotIsLazy() throws GeoPlanetException {
+        GeoPlanet g = new GeoPlanet(appId, "fr", server.getServiceUri(), PlaceTypeLoading.SNAPSHOT);
+        try {
+            assertThat(server.requests.get(), is(0));
+            assertThat(g.getPlaceTypes().size(), is(22));
+            assertThat(server.requests.get(), is(1));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+        server.delayMillis = 500;
+        long start = System.nanoTime();
+        GeoPlanet g = newClient(PlaceTypeLoading.BACKGROUND);
+        try {
+            assert TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400;
+            // The snapshot is used until the refresh lands
+            PlaceType seed = g.getPlaceType(7);
+            assertThat(g.getPlaceTypes().size(), is(31));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (g.getPlaceTypes().size() == 31 && System.nanoTime() < deadline) Thread.sleep(20);
+            assertThat(g.getPlaceTypes().size(), is(22));
+            assertThat(server.requests.get(), is(1));
+            // Unchanged types keep their identity
+            assertThat(g.getPlaceType(7), sameInstance(seed));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testBackgroundWithoutService() throws GeoPlanetException {
+        GeoPlanet g = new GeoPlanet(appId, GeoPlanet.defaultLanguage, deadServiceUri, PlaceTypeLoading.BACKGROUND);
+        try {
+            assertThat(g.getPlaceType("Town").getCode(), is(7));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testSharedBetweenClients() throws GeoPlanetException {
+        GeoPlanet g1 = newClient(PlaceTypeLoading.EAGER);
+        GeoPlanet g2 = newClient(PlaceTypeLoading.EAGER);
+        GeoPlanet french = new GeoPlanet(appId, "fr", server.getServiceUri());
+        try {
+            // Only loaded once per language, but bound to each client
+            assertThat(server.requests.get(), is(2));
+            assertThat(g1.getPlaceType(7), is(g2.getPlaceType(7)));
+            assertThat(g1.getPlaceType(7).getClient(), sameInstance(g1));
+            assertThat(g2.getPlaceType(7).getClient(), sameInstance(g2));
+            assertThat(g1.getPlaceType(7), sameInstance(g1.getPlaceType("Town")));
+            assertThat(g1.getPlace(19344).getPlaceType(), sameInstance(g1.getPlaceType("Town")));
+            assertThat(g1.getPlaceType(7), not(sameInstance(french.getPlaceType(7))));
+            assertThat(french.getPlaceType(7).getLanguage(), is("fr"));
+            assertThat(g1.getPlaceType(7).getUri(), is(server.getServiceUri() + "/placetype/7"));
+        } finally {
+            g1.close();
+            g2.close();
+            french.close();
+        }
+    }
+
+    @Test
+    public void testEagerChecksAppId() throws GeoPlanetException {
+        GeoPlanet g1 = newClient(PlaceTypeLoading.EAGER);
+        GeoPlanet g2 = new GeoPlanet("another-app-id", GeoPlanet.defaultLanguage, server.getServiceUri());
+        try {
+            // The types are shared, but each application ID is checked
+            assertThat(server.requests.get(), is(2));
+            assertThat(g1.getPlaceType(7), is(g2.getPlaceType(7)));
+            new GeoPlanet(StubServer.INVALID_APP_ID, GeoPlanet.defaultLanguage, server.getServiceUri());
+            fail("Expected InvalidAppIdException");
+        } catch (InvalidAppIdException e) {
+            // Expected
+        } finally {
+            g1.close();
+            g2.close();
+        }
+    }
+
+    @Test
+    public void testGetClient() throws GeoPlanetException {
+        GeoPlanet g = newClient(PlaceTypeLoading.EAGER);
+        try {
+            assertThat(g.getPlaceType(7).getClient(), sameInstance(g));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        PlaceTypeRegistry registry = PlaceTypeRegistry.get("http://example.com/v1", "en");
+        assertThat(PlaceTypeRegistry.get("http://example.com/v1", "en"), sameInstance(registry));
+        assert registry.isEmpty();
+        assertThat(registry.get(7), nullValue());
+
+        registry.update(new JSONObject(GeoPlanet.readPlaceTypesSnapshot("en")), false);
+        assert !registry.isLoaded();
+        PlaceType town = registry.get(7);
+        assertThat(town.getName(), is("Town"));
+        assertThat(registry.get("Town"), sameInstance(town));
+        assertThat(registry.get(-1), nullValue());
+        assertThat(registry.get(1000), nullValue());
+        assertThat(registry.get(1), nullValue());
+
+        registry.update(new JSONObject(StubServer.readResource("stub/placetypes.json")), true);
+        assert registry.isLoaded();
+        assertThat(registry.get(7), sameInstance(town));
+        assertThat(registry.getAll().size(), is(22));
+    }
+}
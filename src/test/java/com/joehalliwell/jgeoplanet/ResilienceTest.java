@@ -0,0 +1,222 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for retries, hedged requests and the circuit breaker, using
+ * faults injected by the stub server
+ *
+ * @author Joe Halliwell
+ */
+public class ResilienceTest extends OfflineTest {
+
+    private static final RetryPolicy fastRetries = new RetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void testRetry() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(fastRetries);
+            server.reset();
+            server.faults.set(2);
+            assertThat(g.getPlace(19344).getName(), is("Edinburgh"));
+            assertThat(server.requests.get(), is(3));
+            assertThat(g.getRetryCount(), is(2L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testRetriesExhausted() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(fastRetries);
+            server.reset();
+            server.faults.set(10);
+            try {
+                g.getPlace(19344);
+                fail("Expected ServerErrorException");
+            } catch (ServerErrorException e) {
+                assertThat(e.getStatusCode(), is(500));
+            }
+            assertThat(server.requests.get(), is(3));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testNotFoundIsNotRetried() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            server.reset();
+            try {
+                g.getPlace(999);
+                fail("Expected PlaceNotFoundException");
+            } catch (PlaceNotFoundException e) {
+                // Expected
+            }
+            assertThat(server.requests.get(), is(1));
+            assertThat(g.getRetryCount(), is(0L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void testNoRetries() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(RetryPolicy.NONE);
+            server.faults.set(1);
+            g.getPlace(19344);
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testThrottlingIsRetried() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(fastRetries);
+            server.faultStatus = 429;
+            server.faults.set(1);
+            assertThat(g.getPlace(19344).getName(), is("Edinburgh"));
+            assertThat(g.getThrottledRequestCount(), is(1L));
+            assertThat(g.getRetryCount(), is(1L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testCollectionIsRetried() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(fastRetries);
+            Place scotland = g.getPlace(12578048);
+            server.faults.set(1);
+            assertThat(scotland.getChildren().get().size(), is(2));
+            assertThat(g.getRetryCount(), is(1L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        GeoPlanet g = newClient();
+        try {
+            g.setRetryPolicy(RetryPolicy.NONE);
+            g.setCircuitBreaker(3, 200, TimeUnit.MILLISECONDS);
+            server.reset();
+            server.faults.set(100);
+            for (int i = 0; i < 3; i++) {
+                try {
+                    g.getPlace(19344);
+                    fail("Expected ServerErrorException");
+                } catch (ServerErrorException e) {
+                    // Expected
+                }
+            }
+            assert g.isCircuitOpen();
+            try {
+                g.getPlace(19344);
+                fail("Expected CircuitOpenException");
+            } catch (CircuitOpenException e) {
+                // Expected
+            }
+            assertThat(server.requests.get(), is(3));
+
+            // A failed trial request opens the circuit again
+            Thread.sleep(250);
+            try {
+                g.getPlace(19344);
+                fail("Expected ServerErrorException");
+            } catch (ServerErrorException e) {
+                // Expected
+            }
+            try {
+                g.getPlace(19344);
+                fail("Expected CircuitOpenException");
+            } catch (CircuitOpenException e) {
+                // Expected
+            }
+
+            // A successful one closes it
+            server.faults.set(0);
+            Thread.sleep(250);
+            assertThat(g.getPlace(19344).getName(), is("Edinburgh"));
+            assert !g.isCircuitOpen();
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testNotFoundKeepsCircuitClosed() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setCircuitBreaker(1, 10, TimeUnit.SECONDS);
+            for (int i = 0; i < 3; i++) {
+                try {
+                    g.getPlace(999);
+                    fail("Expected PlaceNotFoundException");
+                } catch (PlaceNotFoundException e) {
+                    // Expected
+                }
+            }
+            assert !g.isCircuitOpen();
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testHedging() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setHedging(true);
+            g.setMinHedgeDelay(200, TimeUnit.MILLISECONDS);
+            assertThat(g.getMinHedgeDelay(TimeUnit.MILLISECONDS), is(200L));
+            // Learn the usual latency, which is well below the minimum delay
+            server.delayMillis = 10;
+            for (int i = 0; i < 25; i++) g.getPlace(19344);
+            assertThat(g.getHedgedRequestCount(), is(0L));
+            server.reset();
+            server.delayMillis = 10;
+            server.slowMillis = 5000;
+            server.slowRequests.set(1);
+            long start = System.nanoTime();
+            assertThat(g.getPlace(19344).getName(), is("Edinburgh"));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assert elapsed >= 200 && elapsed < 2500 : elapsed;
+            assertThat(g.getHedgedRequestCount(), is(1L));
+            assertThat(server.requests.get(), is(2));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            long first = TimeUnit.NANOSECONDS.toMillis(policy.backoffNanos(1));
+            assert first >= 50 && first <= 100 : first;
+            long third = TimeUnit.NANOSECONDS.toMillis(policy.backoffNanos(3));
+            assert third >= 200 && third <= 400 : third;
+            long capped = TimeUnit.NANOSECONDS.toMillis(policy.backoffNanos(40));
+            assert capped >= 500 && capped <= 1000 : capped;
+        }
+        assertThat(RetryPolicy.NONE.getMaxAttempts(), is(1));
+    }
+}
@@ -0,0 +1,119 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for pluggable reverse geocoding
+ *
+ * @author Joe Halliwell
+ */
+public class ReverseGeocoderTest extends OfflineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GeoPlanet g;
+    private PlaceTable table;
+    private PlaceType town;
+    private PlaceType suburb;
+
+    @Before
+    public void setUp() throws GeoPlanetException {
+        g = newClient();
+        List<Place> places = new ArrayList<Place>();
+        for (long woeId : server.getWoeIds()) places.add(g.getPlace(woeId));
+        table = new PlaceTable(g);
+        table.addAll(places);
+        town = g.getPlaceType("Town");
+        suburb = g.getPlaceType("Suburb");
+    }
+
+    @After
+    public void tearDown() {
+        g.close();
+    }
+
+    @Test
+    public void testDefault() {
+        assertThat(g.getReverseGeocoder(), instanceOf(RemoteReverseGeocoder.class));
+    }
+
+    @Test
+    public void testLocal() throws GeoPlanetException {
+        g.setReverseGeocoder(new LocalReverseGeocoder(table, null, town, suburb));
+        int requests = server.requests.get();
+        assertThat(g.getPlace(new Location(55.935, -3.205)).getName(), is("Bruntsfield"));
+        assertThat(g.getPlace(new Location(55.95, -3.19)).getName(), is("Edinburgh"));
+        assertThat(g.getPlace(new Location(55.86, -4.25)).getName(), is("Glasgow"));
+        // Across the antimeridian
+        assertThat(g.getPlace(new Location(-18.1, 178.45)).getName(), is("Suva"));
+        assertThat(server.requests.get(), is(requests));
+        try {
+            g.getPlace(new Location(0, -30));
+            fail("Expected PlaceNotFoundException");
+        } catch (PlaceNotFoundException e) {
+            // Expected
+        }
+
+        // Without types, the smallest of any type
+        LocalReverseGeocoder any = new LocalReverseGeocoder(g, table, null);
+        assertThat(any.getLocalPlace(new Location(55.85, -3.4)).getName(), is("City of Edinburgh"));
+        assertThat(any.getLocalPlace(new Location(0, -30)).getName(), is("Earth"));
+    }
+
+    @Test
+    public void testFallback() throws GeoPlanetException {
+        AtomicInteger calls = new AtomicInteger();
+        Place earth = table.get(0);
+        ReverseGeocoder remote = (client, location) -> {
+            calls.incrementAndGet();
+            return earth;
+        };
+        LocalReverseGeocoder local = new LocalReverseGeocoder(table, remote, town);
+        g.setReverseGeocoder(local);
+        Location outskirts = new Location(55.88, -3.19);
+        assertThat(g.getPlace(outskirts), is(earth));
+        assertThat(calls.get(), is(1));
+        assertThat(local.getLocalPlace(outskirts), is(nullValue()));
+
+        // Near enough to a centroid
+        local.setMaxDistance(10);
+        assertThat(g.getPlace(outskirts).getName(), is("Edinburgh"));
+        local.setMaxDistance(5);
+        g.getPlace(outskirts);
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void testFromFile() throws Exception {
+        File file = new File(folder.getRoot(), "places.dat");
+        table.write(file);
+        GeoPlanet offline = newClient();
+        try {
+            PlaceTable loaded = PlaceTable.read(offline, file);
+            assertThat(loaded.size(), is(table.size()));
+            offline.setReverseGeocoder(new LocalReverseGeocoder(loaded, null, town));
+            Place edinburgh = offline.getPlace(new Location(55.95, -3.19));
+            assertThat(edinburgh.getWoeId(), is(19344L));
+            assertThat(edinburgh.getBoundingBox(), is(g.getPlace(19344).getBoundingBox()));
+            assertThat(edinburgh.getCountry().getName(), is(g.getPlace(19344).getCountry().getName()));
+        } finally {
+            offline.close();
+        }
+    }
+}
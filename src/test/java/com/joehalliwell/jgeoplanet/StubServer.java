@@ -0,0 +1,330 @@
+package com.joehalliwell.jgeoplanet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the GeoPlanet service, serving a small fixed
+ * world from test resources. Used by tests that must run offline.
+ *
+ * @author Joe Halliwell
+ */
+class StubServer {
+
+    // Requests with this application ID are refused with a 400, as the service does
+    static final String INVALID_APP_ID = "invalid-app-id";
+    static final String SHORT_FIELDS[] = {"woeid", "placeTypeName", "placeTypeName attrs", "name", "uri", "lang"};
+
+    static {
+        // The JDK server silently closes kept-alive connections once it holds 200,
+        // or after 30 seconds idle, which the many pooling clients in a test run
+        // then see as resets. Must be set before the first server is created.
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "100000");
+        System.setProperty("sun.net.httpserver.idleInterval", "3600");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String placeTypes;
+    private final Map<Long, JSONObject> places = new LinkedHashMap<Long, JSONObject>();
+    private final Map<Long, Long> parents = new HashMap<Long, Long>();
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger batches = new AtomicInteger();
+    final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    // The most requests handled at once
+    final AtomicInteger peakConcurrent = new AtomicInteger();
+    volatile int delayMillis = 0;
+    // Requests beyond this many at once are refused with a 429; zero for no quota
+    volatile int maxConcurrent = 0;
+    // The next this many requests fail with the fault status
+    final AtomicInteger faults = new AtomicInteger();
+    volatile int faultStatus = 500;
+    // The next this many requests are delayed by slowMillis
+    final AtomicInteger slowRequests = new AtomicInteger();
+    volatile int slowMillis = 0;
+    // Leave the total out of collection responses
+    volatile boolean omitTotal = false;
+
+    StubServer() throws IOException, JSONException {
+        placeTypes = readResource("stub/placetypes.json");
+        JSONObject world = new JSONObject(readResource("stub/world.json"));
+        JSONArray array = world.getJSONArray("place");
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject place = array.getJSONObject(i);
+            places.put(place.getLong("woeid"), place);
+        }
+        JSONObject parentMap = world.getJSONObject("parents");
+        for (String child : JSONObject.getNames(parentMap)) {
+            parents.put(Long.valueOf(child), parentMap.getLong(child));
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/v1", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the WOE IDs of every place in the stub world
+     */
+    List<Long> getWoeIds() {
+        return new ArrayList<Long>(places.keySet());
+    }
+
+    String getServiceUri() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    void reset() {
+        requests.set(0);
+        batches.set(0);
+        clientPorts.clear();
+        throttled.set(0);
+        peakConcurrent.set(0);
+        delayMillis = 0;
+        maxConcurrent = 0;
+        faults.set(0);
+        faultStatus = 500;
+        slowRequests.set(0);
+        slowMillis = 0;
+        omitTotal = false;
+    }
+
+    static String readResource(String name) throws IOException {
+        InputStream is = ClassLoader.getSystemResourceAsStream(name);
+        if (is == null) throw new IOException("Missing resource " + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) out.write(buffer, 0, n);
+            return out.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int concurrent = active.incrementAndGet();
+        peakConcurrent.accumulateAndGet(concurrent, Math::max);
+        try {
+            if (maxConcurrent > 0 && concurrent > maxConcurrent) {
+                throttled.incrementAndGet();
+                respond(exchange, 429, "");
+                return;
+            }
+            if (take(faults)) {
+                respond(exchange, faultStatus, "");
+                return;
+            }
+            if (take(slowRequests)) Thread.sleep(slowMillis);
+            if (delayMillis > 0) Thread.sleep(delayMillis);
+            String path = exchange.getRequestURI().getPath().substring("/v1".length());
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+            if (INVALID_APP_ID.equals(params.get("appid"))) {
+                respond(exchange, 400, "");
+                return;
+            }
+            boolean shortForm = "short".equals(params.get("select"));
+            String body = route(path, shortForm);
+            if (body == null) {
+                respond(exchange, 404, "{\"error\":\"Not found\"}");
+            } else {
+                respond(exchange, 200, body);
+            }
+        } catch (InterruptedException e) {
+            respond(exchange, 503, "");
+        } catch (JSONException e) {
+            respond(exchange, 500, e.toString());
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private static boolean take(AtomicInteger counter) {
+        return counter.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0;
+    }
+
+    String route(String path, boolean shortForm) throws JSONException {
+        if (path.equals("/placetypes")) return placeTypes;
+
+        // Strip matrix parameters
+        Map<String, Integer> matrix = new HashMap<String, Integer>();
+        String[] parts = path.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String[] kv = parts[i].split("=");
+            matrix.put(kv[0], Integer.valueOf(kv[1]));
+        }
+        int start = matrix.containsKey("start") ? matrix.get("start") : 0;
+        int count = matrix.containsKey("count") ? matrix.get("count") : 10;
+
+        if (parts[0].startsWith("/places.woeid(")) {
+            batches.incrementAndGet();
+            String ids = parts[0].substring("/places.woeid(".length(), parts[0].length() - 1);
+            List<JSONObject> results = new ArrayList<JSONObject>();
+            for (String id : ids.split(",")) {
+                JSONObject place = places.get(Long.valueOf(id));
+                if (place != null) results.add(form(place, shortForm));
+            }
+            return collection(results, start, count);
+        }
+        if (!path.startsWith("/place/")) return null;
+
+        String[] segments = parts[0].substring("/place/".length()).split("/");
+        long woeId = Long.parseLong(segments[0]);
+        if (!places.containsKey(woeId)) return null;
+        if (segments.length == 1) {
+            return new JSONObject().put("place", form(places.get(woeId), shortForm)).toString();
+        }
+        String relation = segments[1];
+        if (relation.equals("parent")) {
+            Long parent = parents.get(woeId);
+            if (parent == null) return null;
+            return new JSONObject().put("place", form(places.get(parent), shortForm)).toString();
+        }
+        if (relation.equals("common")) {
+            // Like the service, at most ten others
+            if (segments.length > 12) return null;
+            Long common = woeId;
+            for (int i = 2; i < segments.length && common != null; i++) {
+                common = commonAncestor(common, Long.parseLong(segments[i]));
+            }
+            if (common == null) return null;
+            return new JSONObject().put("place", form(places.get(common), shortForm)).toString();
+        }
+        Set<String> types = null;
+        int dot = relation.indexOf(".type('");
+        if (dot != -1) {
+            String typeNames = relation.substring(dot + ".type('".length(), relation.length() - 2);
+            types = new HashSet<String>(Arrays.asList(typeNames.split(",")));
+            relation = relation.substring(0, dot);
+        }
+        List<Long> ids = relation(woeId, relation);
+        if (ids == null) return null;
+        List<JSONObject> results = new ArrayList<JSONObject>();
+        for (Long id : ids) {
+            JSONObject place = places.get(id);
+            if (types == null || types.contains(place.getString("placeTypeName"))) {
+                results.add(form(place, shortForm));
+            }
+        }
+        return collection(results, start, count);
+    }
+
+    private List<Long> relation(long woeId, String relation) {
+        List<Long> ids = new ArrayList<Long>();
+        if (relation.equals("children")) {
+            for (Map.Entry<Long, Long> e : parents.entrySet()) {
+                if (e.getValue() == woeId) ids.add(e.getKey());
+            }
+        } else if (relation.equals("descendants")) {
+            for (Long id : places.keySet()) {
+                for (Long p = parents.get(id); p != null; p = parents.get(p)) {
+                    if (p == woeId) {
+                        ids.add(id);
+                        break;
+                    }
+                }
+            }
+        } else if (relation.equals("ancestors")) {
+            // Ordered from smallest to largest
+            for (Long p = parents.get(woeId); p != null; p = parents.get(p)) ids.add(p);
+            return ids;
+        } else if (relation.equals("siblings")) {
+            Long parent = parents.get(woeId);
+            for (Map.Entry<Long, Long> e : parents.entrySet()) {
+                if (e.getValue().equals(parent) && e.getKey() != woeId) ids.add(e.getKey());
+            }
+        } else {
+            return null;
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @return the smallest common ancestor of two places, counting each as its own ancestor
+     */
+    private Long commonAncestor(Long a, Long b) {
+        Set<Long> chain = new HashSet<Long>();
+        for (Long p = a; p != null; p = parents.get(p)) chain.add(p);
+        for (Long p = b; p != null; p = parents.get(p)) {
+            if (chain.contains(p)) return p;
+        }
+        return null;
+    }
+
+    String collection(List<JSONObject> results, int start, int count) throws JSONException {
+        int end = count == 0 ? results.size() : Math.min(results.size(), start + count);
+        start = Math.min(start, results.size());
+        JSONArray array = new JSONArray();
+        for (int i = start; i < end; i++) array.put(results.get(i));
+        JSONObject places = new JSONObject();
+        places.put("place", array);
+        places.put("start", start);
+        places.put("count", end - start);
+        if (!omitTotal) places.put("total", results.size());
+        return new JSONObject().put("places", places).toString();
+    }
+
+    static JSONObject form(JSONObject place, boolean shortForm) throws JSONException {
+        if (!shortForm) return place;
+        return new JSONObject(place, SHORT_FIELDS);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq != -1) params.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
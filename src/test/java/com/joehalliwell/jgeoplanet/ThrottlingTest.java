@@ -0,0 +1,228 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for client-side rate limiting and adaptive concurrency
+ *
+ * @author Joe Halliwell
+ */
+public class ThrottlingTest extends OfflineTest {
+
+    @Test
+    public void testRateLimit() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setRateLimit(5, 1);
+            assert g.getRateLimit() == 5;
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) g.getPlace(19344);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // Five intervals of 200ms
+            assert elapsed >= 990 : elapsed;
+            assert g.getQueuedRequestCount() >= 4 : g.getQueuedRequestCount();
+            assertThat(g.getThrottledRequestCount(), is(0L));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testFailFast() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            server.reset();
+            g.setRateLimit(0.1, 1);
+            g.setMaxQueueWait(0, TimeUnit.SECONDS);
+            g.getPlace(19344);
+            try {
+                g.getPlace(19344);
+                fail("Expected ThrottledException");
+            } catch (ThrottledException e) {
+                // Expected
+            }
+            assertThat(g.getThrottledRequestCount(), is(1L));
+            assertThat(server.requests.get(), is(1));
+            g.setRateLimit(0);
+            assertThat(g.getPlace(19344).getName(), is("Edinburgh"));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testConcurrencyTimeoutKeepsToken() throws Exception {
+        server.delayMillis = 500;
+        GeoPlanet g = newClient();
+        try {
+            g.setCoalescing(false);
+            g.setRetryPolicy(RetryPolicy.NONE);
+            g.setRateLimit(0.1, 2);
+            g.setMaxConcurrency(1);
+            g.setMaxQueueWait(100, TimeUnit.MILLISECONDS);
+            final int before = server.requests.get();
+            Thread other = new Thread(() -> {
+                try {
+                    g.getPlace(19344);
+                } catch (GeoPlanetException e) {
+                    // Ignored
+                }
+            });
+            other.start();
+            while (server.requests.get() == before) Thread.yield();
+            try {
+                g.getPlace(12578048);
+                fail("Expected ThrottledException");
+            } catch (ThrottledException e) {
+                // Expected
+            }
+            other.join();
+            server.delayMillis = 0;
+            // The refused request did not spend the second token
+            assertThat(g.getPlace(21125).getName(), is("Glasgow"));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testServerThrottling() throws GeoPlanetException {
+        server.maxConcurrent = 1;
+        server.delayMillis = 200;
+        GeoPlanet g = newClient();
+        try {
+            g.setCoalescing(false);
+            g.setRetryPolicy(RetryPolicy.NONE);
+            int limit = g.getConcurrencyLimit();
+            final int before = server.requests.get();
+            Thread other = new Thread(() -> {
+                try {
+                    g.getPlace(19344);
+                } catch (GeoPlanetException e) {
+                    // Ignored
+                }
+            });
+            other.start();
+            while (server.requests.get() == before) Thread.yield();
+            try {
+                g.getPlace(12578048);
+                fail("Expected ThrottledException");
+            } catch (ThrottledException e) {
+                // Expected
+            }
+            other.join();
+            assertThat(server.throttled.get(), is(1));
+            assertThat(g.getThrottledRequestCount(), is(1L));
+            assertThat(g.getConcurrencyLimit(), is(limit / 2));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            g.close();
+        }
+    }
+
+    /**
+     * Hammer a server with a small quota: the limit should settle
+     * around the quota, so that few requests are refused.
+     */
+    @Test
+    public void testAdaptiveConcurrency() throws Exception {
+        final int quota = 4;
+        server.maxConcurrent = quota;
+        server.delayMillis = 20;
+        final GeoPlanet g = newClient();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            g.setCoalescing(false);
+            g.setRetryPolicy(RetryPolicy.NONE);
+            // Warm up, so that the limit has adapted
+            hammer(g, executor, 10);
+            assert g.getThrottledRequestCount() > 0;
+            assert g.getConcurrencyLimit() < GeoPlanet.defaultConcurrencyLimit;
+
+            long throttled = g.getThrottledRequestCount();
+            int succeeded = hammer(g, executor, 20);
+            long refused = g.getThrottledRequestCount() - throttled;
+            assertThat(succeeded + refused, is(16L * 20));
+            assert refused < succeeded / 5 : refused + " refused, " + succeeded + " succeeded";
+            assert g.getQueuedRequestCount() > 0;
+        } finally {
+            executor.shutdown();
+            g.close();
+        }
+    }
+
+    /**
+     * @return the number of successful requests
+     */
+    private int hammer(final GeoPlanet g, ExecutorService executor, final int requests) throws Exception {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executor.submit(() -> {
+                int succeeded = 0;
+                for (int j = 0; j < requests; j++) {
+                    try {
+                        g.getPlace(19344);
+                        succeeded++;
+                    } catch (ThrottledException e) {
+                        // Counted by the client
+                    }
+                }
+                return succeeded;
+            }));
+        }
+        int succeeded = 0;
+        for (Future<Integer> future : futures) succeeded += future.get();
+        return succeeded;
+    }
+
+    @Test
+    public void testConcurrencyLimiter() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 8);
+        for (int i = 0; i < 4; i++) assert limiter.tryAcquire();
+        assert !limiter.tryAcquire();
+        assert !limiter.acquire(TimeUnit.MILLISECONDS.toNanos(10));
+        // Additive increase while the limit is in use, up to the maximum
+        for (int i = 0; i < 40; i++) {
+            limiter.release(false);
+            assert limiter.tryAcquire();
+        }
+        assertThat(limiter.getLimit(), is(8));
+        // Multiplicative decrease
+        limiter.release(true);
+        assertThat(limiter.getLimit(), is(4));
+        assertThat(limiter.getInFlight(), is(3));
+        for (int i = 0; i < 3; i++) limiter.cancel();
+        // No increase while lightly loaded
+        for (int i = 0; i < 40; i++) {
+            assert limiter.tryAcquire();
+            limiter.release(false);
+        }
+        assertThat(limiter.getLimit(), is(4));
+        limiter.setMaxLimit(3);
+        assertThat(limiter.getLimit(), is(3));
+    }
+
+    @Test
+    public void testRateLimiter() {
+        RateLimiter limiter = new RateLimiter(1000, 2);
+        assertThat(limiter.reserve(0), is(0L));
+        assertThat(limiter.reserve(0), is(0L));
+        assertThat(limiter.reserve(0), is(-1L));
+        long wait = limiter.reserve(TimeUnit.SECONDS.toNanos(1));
+        assert wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(1) : wait;
+        // The reservation is taken, so the next request waits longer
+        assert limiter.reserve(TimeUnit.SECONDS.toNanos(1)) > wait;
+    }
+}
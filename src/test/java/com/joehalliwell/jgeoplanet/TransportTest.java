@@ -0,0 +1,86 @@
+package com.joehalliwell.jgeoplanet;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the pooled HTTP transport
+ *
+ * @author Joe Halliwell
+ */
+public class TransportTest extends OfflineTest {
+
+    @Test
+    public void testStubServer() throws GeoPlanetException {
+        Place edinburgh = client.getPlace(19344);
+        assertThat(edinburgh.getName(), is("Edinburgh"));
+        assertThat(edinburgh.getPlaceType(), is(client.getPlaceType("Town")));
+        assert edinburgh.isLongForm();
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws GeoPlanetException {
+        for (int i = 0; i < 10; i++) {
+            client.getPlace(19344);
+        }
+        assertThat(server.requests.get(), is(10));
+        assertThat(server.clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testKeepAliveOff() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setKeepAlive(false);
+            server.reset();
+            for (int i = 0; i < 5; i++) {
+                g.getPlace(19344);
+            }
+            assertThat(server.clientPorts.size(), is(5));
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test(expected = GeoPlanetException.class)
+    public void testReadTimeout() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            g.setReadTimeout(100);
+            assertThat(g.getReadTimeout(), is(100));
+            server.delayMillis = 1000;
+            g.getPlace(19344);
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test
+    public void testSettings() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        try {
+            assertThat(g.getMaxConnectionsPerHost(), is(20));
+            g.setMaxConnectionsPerHost(4);
+            assertThat(g.getMaxConnectionsPerHost(), is(4));
+            g.setConnectionTimeout(500);
+            assertThat(g.getConnectionTimeout(), is(500));
+            assert g.isKeepAlive();
+        } finally {
+            g.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedClient() throws GeoPlanetException {
+        GeoPlanet g = newClient();
+        g.close();
+        g.getPlace(19344);
+    }
+
+    @Test(expected = PlaceNotFoundException.class)
+    public void testNotFound() throws GeoPlanetException {
+        client.getPlace(999);
+    }
+}